@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets;
+
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.text.TextUtils;
+import android.util.Log;
+import android.widget.TextView;
+
+import com.example.android.pets.data.PetBenchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Runs {@link PetBenchmark} and shows the results as they come in. Only included in debug
+ * builds.
+ *
+ * Start it with the default table sizes using:
+ *
+ *   adb shell am start -n com.example.android.pets/.BenchmarkActivity
+ *
+ * or pick the table sizes with an extra, e.g. --es sizes 1000,10000. The results are also
+ * written as JSON to the app's external files directory under "benchmarks", so they can be
+ * pulled with adb and compared between runs. Checks that came out wrong are logged as errors
+ * at the end, so a script can fail the run with e.g.
+ *
+ *   adb logcat -d -s BenchmarkActivity:E | grep "checks failed"
+ *
+ * To measure startup with a large shelter, add generated pets to the app's own database
+ * instead, e.g. --ei seed_shelter 100000, then start the catalog from a new process with:
+ *
+ *   adb shell am start -S -W -n com.example.android.pets/.CatalogActivity
+ *
+ * TotalTime is the time to the first frame, and the "Fully drawn" line in the log is the time
+ * to the first pets on screen.
+ */
+public class BenchmarkActivity extends AppCompatActivity {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = BenchmarkActivity.class.getSimpleName();
+
+    /** Extra with a comma separated list of table sizes to benchmark */
+    private static final String EXTRA_SIZES = "sizes";
+
+    /** Extra with a number of generated pets to add to shelter.db, instead of benchmarking */
+    private static final String EXTRA_SEED_SHELTER = "seed_shelter";
+
+    /** Table sizes benchmarked when none are given */
+    private static final String DEFAULT_SIZES = "1000,10000,100000,1000000";
+
+    /** TextView the results are shown in */
+    private TextView mResultsTextView;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_benchmark);
+        mResultsTextView = (TextView) findViewById(R.id.text_view_benchmark);
+
+        if (savedInstanceState != null) {
+            // Don't start the benchmarks again on a configuration change
+            return;
+        }
+
+        if (getIntent().hasExtra(EXTRA_SEED_SHELTER)) {
+            seedShelter(getIntent().getIntExtra(EXTRA_SEED_SHELTER, 0));
+            return;
+        }
+
+        String sizesExtra = getIntent().getStringExtra(EXTRA_SIZES);
+        String[] sizeStrings = (sizesExtra != null ? sizesExtra : DEFAULT_SIZES).split(",");
+        final int[] sizes = new int[sizeStrings.length];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = Integer.parseInt(sizeStrings[i].trim());
+        }
+
+        mResultsTextView.setText(R.string.benchmark_running);
+        final File outputDir = new File(getExternalFilesDir(null), "benchmarks");
+        final PetBenchmark benchmark = new PetBenchmark(this);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    File results = benchmark.run(sizes, outputDir, new PetBenchmark.Listener() {
+                        @Override
+                        public void onResult(String line) {
+                            Log.i(LOG_TAG, line);
+                            showLine(line);
+                        }
+                    });
+                    Log.i(LOG_TAG, "Results written to " + results);
+                    showLine(getString(R.string.benchmark_finished, results));
+
+                    List<String> failedChecks = benchmark.getFailedChecks();
+                    if (!failedChecks.isEmpty()) {
+                        String checks = TextUtils.join(", ", failedChecks);
+                        Log.e(LOG_TAG, failedChecks.size() + " checks failed: " + checks);
+                        showLine(getString(R.string.benchmark_checks_failed, checks));
+                    }
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Failed to write benchmark results", e);
+                    showLine(getString(R.string.benchmark_failed));
+                }
+            }
+        }, "PetBenchmark").start();
+    }
+
+    /**
+     * Adds the given number of generated pets to shelter.db on a background thread.
+     */
+    private void seedShelter(final int rows) {
+        mResultsTextView.setText(R.string.benchmark_seeding);
+        final PetBenchmark benchmark = new PetBenchmark(this);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                benchmark.seedShelter(rows);
+                Log.i(LOG_TAG, "Added " + rows + " pets to shelter.db");
+                showLine(getString(R.string.benchmark_seeded, rows));
+            }
+        }, "PetBenchmark").start();
+    }
+
+    /**
+     * Adds a line to the results on screen. May be called from any thread.
+     */
+    private void showLine(final String line) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                mResultsTextView.append("\n" + line);
+            }
+        });
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets;
+
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import com.example.android.pets.data.PetDbHelper;
+import com.example.android.pets.data.PetDbMetrics;
+
+import org.json.JSONException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Shows the timings of the database operations recorded by {@link PetDbMetrics}: a latency
+ * histogram summary of each kind of operation and the recent slow queries with their query
+ * plans. Only included in debug builds.
+ *
+ * Start it with:
+ *
+ *   adb shell am start -n com.example.android.pets/.DbMetricsActivity
+ *
+ * and optionally set the slow query threshold with an extra, e.g. --el threshold_ms 5. Export
+ * writes the metrics as JSON to the app's external files directory under "metrics", so they
+ * can be pulled with adb and compared between runs.
+ */
+public class DbMetricsActivity extends AppCompatActivity {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = DbMetricsActivity.class.getSimpleName();
+
+    /** Extra with the slow query threshold to use, in milliseconds */
+    private static final String EXTRA_THRESHOLD_MS = "threshold_ms";
+
+    /** Metrics of the database shared by the whole app */
+    private PetDbMetrics mMetrics;
+
+    /** TextView the metrics are shown in */
+    private TextView mMetricsTextView;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_db_metrics);
+        mMetricsTextView = (TextView) findViewById(R.id.text_view_db_metrics);
+        mMetrics = PetDbHelper.getInstance(this).getMetrics();
+
+        if (getIntent().hasExtra(EXTRA_THRESHOLD_MS)) {
+            mMetrics.setSlowQueryThresholdMillis(
+                    getIntent().getLongExtra(EXTRA_THRESHOLD_MS, 0));
+        }
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        showMetrics();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_db_metrics, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        super.onPrepareOptionsMenu(menu);
+        menu.findItem(R.id.action_record_metrics).setChecked(mMetrics.isEnabled());
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.action_refresh_metrics:
+                showMetrics();
+                return true;
+            case R.id.action_record_metrics:
+                mMetrics.setEnabled(!mMetrics.isEnabled());
+                showMetrics();
+                return true;
+            case R.id.action_export_metrics:
+                exportMetrics();
+                return true;
+            case R.id.action_reset_metrics:
+                mMetrics.reset();
+                showMetrics();
+                return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    private void showMetrics() {
+        StringWriter text = new StringWriter();
+        mMetrics.dump(new PrintWriter(text));
+        mMetricsTextView.setText(text.toString());
+    }
+
+    /**
+     * Writes the metrics as JSON on a background thread, and shows where they were written.
+     */
+    private void exportMetrics() {
+        final File outputDir = new File(getExternalFilesDir(null), "metrics");
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                String message;
+                try {
+                    File file = writeMetrics(outputDir);
+                    Log.i(LOG_TAG, "Metrics written to " + file);
+                    message = getString(R.string.export_metrics_finished, file);
+                } catch (IOException | JSONException e) {
+                    Log.e(LOG_TAG, "Failed to write metrics", e);
+                    message = getString(R.string.export_metrics_failed);
+                }
+                showToast(message);
+            }
+        }, "DbMetricsExport").start();
+    }
+
+    private File writeMetrics(File outputDir) throws IOException, JSONException {
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new IOException("Cannot create " + outputDir);
+        }
+        String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        File file = new File(outputDir, "db-metrics-" + timestamp + ".json");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(mMetrics.toJson().toString(2));
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    /**
+     * Shows a toast. May be called from any thread.
+     */
+    private void showToast(final String message) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(DbMetricsActivity.this, message, Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+}
@@ -0,0 +1,1553 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.View;
+import android.widget.ListView;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.PetCursorAdapter;
+import com.example.android.pets.PetPagesCursor;
+import com.example.android.pets.PetThumbnailLoader;
+import com.example.android.pets.R;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Benchmarks of the pets data layer. Only included in debug builds.
+ *
+ * For each table size, a scratch copy of the shelter database is created with
+ * {@link PetDbHelper}, seeded with generated pets, and then used to measure:
+ *
+ * - batch_insert: seeding throughput with a compiled statement in chunked transactions
+ * - single_insert: latency of one insert in its own transaction, as the editor does
+ * - full_scan: reading every row of the catalog projection
+ * - name_lookup, breed_lookup, gender_weight_lookup: queries that use the indexes
+ * - search: full-text prefix searches on name and breed, and search_like: the same searches as
+ *   LIKE scans, for comparison
+ * - wal_read_during_write: name lookups while another thread holds a write transaction open,
+ *   see {@link #benchmarkReadDuringWrite(SQLiteDatabase, int)}
+ * - page_id, page_name, page_weight: reading the catalog a page at a time in each sort order,
+ *   and page_offset for comparison, see {@link #benchmarkPaging(SQLiteDatabase, int)}
+ * - plan_id, plan_name, plan_weight: whether those pages are read in index order, see
+ *   {@link #benchmarkQueryPlans(SQLiteDatabase, int)}
+ * - catalog_scroll: binding list items for the whole catalog from top to bottom, and the heap
+ *   growth while doing so, see {@link #benchmarkScroll(SQLiteDatabase, int)}
+ * - bind_allocations_page, bind_allocations_pages: objects allocated per row bound, for one
+ *   catalog page and for several, see {@link #benchmarkBindAllocations(SQLiteDatabase, int)}
+ * - startup_open, startup_first_page, startup_full_list: what the catalog waits for on a cold
+ *   start, see {@link #benchmarkStartup(int)}
+ * - metrics_off, metrics_on: name lookups through {@link PetDatabase} with the database
+ *   metrics turned off and on, to check what timing the operations costs
+ * - dao_insert, dao_update, dao_delete, dao_count: single pet writes and the pet count through
+ *   the fixed statements of {@link PetDao}, and db_insert, db_update, db_delete,
+ *   db_count: the same through {@link PetDatabase}, for comparison
+ * - delete_all: marking every pet as deleted, as the provider does
+ * - compact: removing the deleted pets with {@link PetCompactor}, and the database file size
+ *   before and after
+ *
+ * Once, on a fresh scratch database, it checks the connection settings from the build
+ * configuration, see {@link #checkPragmas()}:
+ *
+ * - pragma_synchronous, pragma_cache_size, pragma_mmap_size, pragma_wal_autocheckpoint,
+ *   pragma_journal_size_limit: the value on the primary connection, and from API 26 on the
+ *   value on a connection used for reading in parallel
+ *
+ * With {@value #MIGRATION_ROWS} pets in a version 1 database, it measures, see
+ * {@link #benchmarkMigration(int)}:
+ *
+ * - migration: the time to upgrade to the latest version. PetDbHelperTest checks that the
+ *   upgrade keeps every pet and adds the indexes.
+ *
+ * Once, with {@value #VALIDATION_ROWS} generated import rows, about 1 in 20 of them invalid, it
+ * measures:
+ *
+ * - validate: checking the rows with {@link PetValidator}, as {@link PetImporter} does
+ * - validate_content_values: checking the same rows as ContentValues, as the provider does
+ *
+ * With {@value #IMPORT_ROWS} generated pets in a CSV file, each imported into a scratch
+ * database with {@link PetImporter}, it measures:
+ *
+ * - import_per_row: importing with every row committed in its own transaction
+ * - import_chunked: importing in chunks, as the app does
+ * - import_quoted_newlines: whether names in quoted fields that span lines are imported whole,
+ *   1 if they are
+ *
+ * With {@value #EXPORT_ROWS} generated pets in a scratch database, exported with
+ * {@link PetExporter}, it measures, see {@link #benchmarkExport(int)}:
+ *
+ * - export_csv, export_csv_gzip, export_json, export_json_gzip: the rows exported per second,
+ *   the file size, and the heap growth while exporting. PetExporterTest checks what the
+ *   exports hold.
+ *
+ * It checks that the app's nightly export stays scheduled:
+ *
+ * - export_schedule: scheduled is 1 if the export is scheduled after the app has asked for it,
+ *   and rescheduled is 1 if asking again, as every start of the app does, replaced the alarm,
+ *   which should never happen
+ *
+ * With {@value #SYNC_ROWS} generated pets on two scratch devices syncing through a
+ * {@link PetSyncServer} on the loopback interface, it measures the requests, compressed bytes
+ * and time of each sync with {@link PetSyncEngine}:
+ *
+ * - sync_upload: the first sync of a device, which sends every pet, as a full table upload
+ * - sync_download: the first sync of the second device, which receives every pet
+ * - sync_delta_send: sending {@value #SYNC_CHANGE_PERCENT}% of the pets changed, with the
+ *   first requests failing so the retries are exercised
+ * - sync_delta_conflicts: sending changes to the same pets from the second device, every one
+ *   of them a conflict settled by the later change winning
+ * - sync_delta_receive: receiving those changes back on the first device. PetSyncEngineTest
+ *   checks that the devices end up with the same pets.
+ *
+ * and with {@value #PHOTO_COUNT} generated photos:
+ *
+ * - thumbnail_decode: decoding and caching a thumbnail from a full size photo
+ * - thumbnail_disk: loading a thumbnail back from the disk cache
+ * - thumbnail_memory: growth of the Java and native heaps while decoding all of the photos,
+ *   and the size of the memory cache, which should stay within its limit
+ *
+ * Results are written as a JSON document, so runs can be compared over time. The scratch
+ * database is deleted afterwards and shelter.db is never touched. A "bool" result that comes
+ * out wrong is logged as an error and listed under failed_checks, see
+ * {@link #getFailedChecks()}.
+ *
+ * The inserts, scans, lookups and searches are also measured without a device by the JVM
+ * benchmarks under src/test, one suite per area, which CI runs with the unit tests. This
+ * suite is for measuring them on real hardware, and for what only a device can measure.
+ */
+public class PetBenchmark {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = PetBenchmark.class.getSimpleName();
+
+    /** Receives the results as they are measured */
+    public interface Listener {
+
+        /**
+         * Called on the benchmark thread with a human readable line for each result.
+         */
+        void onResult(String line);
+    }
+
+    /** Name of the scratch database the benchmarks run against */
+    private static final String DATABASE_NAME = "benchmark.db";
+
+    /** Rows inserted in each transaction while seeding */
+    private static final int SEED_CHUNK_SIZE = 1000;
+
+    /** Number of times each latency benchmark is repeated */
+    private static final int ITERATIONS = 200;
+
+    /** Number of times the full scan is repeated */
+    private static final int SCAN_ITERATIONS = 3;
+
+    /** Number of times the startup benchmark opens the database */
+    private static final int STARTUP_ITERATIONS = 10;
+
+    /** Number of pets the catalog reads first, before the full list */
+    private static final String STARTUP_FIRST_PAGE_ROWS =
+            String.valueOf(PetQuery.DEFAULT_PAGE_SIZE);
+
+    /** Number of pages at the start and at the end of the list the paging results are for */
+    private static final int PAGE_SAMPLES = 20;
+
+    /** Longest a write transaction is held open while reads are measured, in milliseconds */
+    private static final long WRITE_HOLD_MILLIS = 10000;
+
+    /** Most list items bound while scrolling through the catalog */
+    private static final int SCROLL_POSITIONS = 5000;
+
+    /** Number of pets in the version 1 database the migration benchmark upgrades */
+    private static final int MIGRATION_ROWS = 10000;
+
+    /** Name of the scratch database the migration benchmark upgrades */
+    private static final String MIGRATION_DATABASE_NAME = "migration.db";
+
+    /** Number of catalog pages bound together when counting allocations */
+    private static final int BIND_PAGES = 3;
+
+    /** Number of import rows the validation benchmarks run with */
+    private static final int VALIDATION_ROWS = 100000;
+
+    /** Number of times each validation benchmark is repeated */
+    private static final int VALIDATION_ITERATIONS = 5;
+
+    /** Number of pets the import benchmarks run with */
+    private static final int IMPORT_ROWS = 10000;
+
+    /** Names of the scratch import file and database */
+    private static final String IMPORT_FILE_NAME = "benchmark-import.csv";
+    private static final String IMPORT_DATABASE_NAME = "import.db";
+
+    /** Number of pets the export benchmarks run with */
+    private static final int EXPORT_ROWS = 100000;
+
+    /** One in this many pets is marked as deleted before exporting */
+    private static final int EXPORT_DELETED_EVERY = 20;
+
+    /** Names of the scratch export file and database */
+    private static final String EXPORT_FILE_NAME = "benchmark-export";
+    private static final String EXPORT_DATABASE_NAME = "export.db";
+
+    /** Number of pets the sync benchmarks run with */
+    private static final int SYNC_ROWS = 10000;
+
+    /** Percentage of the pets changed between syncs */
+    private static final int SYNC_CHANGE_PERCENT = 1;
+
+    /** Number of requests the stand-in sync server fails during the delta sync */
+    private static final int SYNC_FAILED_REQUESTS = 2;
+
+    /** Names of the scratch databases of the two devices syncing */
+    private static final String SYNC_DATABASE_A = "sync-a.db";
+    private static final String SYNC_DATABASE_B = "sync-b.db";
+
+    /** Number of photos the thumbnail benchmarks run with */
+    private static final int PHOTO_COUNT = 300;
+
+    /** Size of the generated photos, in pixels, roughly that of a phone camera photo */
+    private static final int PHOTO_WIDTH = 2048;
+    private static final int PHOTO_HEIGHT = 1536;
+
+    /** Memory cache size of the thumbnail loader being benchmarked */
+    private static final int THUMBNAIL_MEMORY_CACHE_BYTES = 2 * 1024 * 1024;
+
+    /** Columns read by the catalog */
+    private static final String[] CATALOG_PROJECTION = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT };
+
+    private static final String[] NAME_PARTS = {
+            "Bel", "Cha", "Dai", "Fid", "Gin", "Hon", "Iggy", "Jas", "Kob", "Lu", "Mol", "Nal",
+            "Oll", "Pep", "Qui", "Ros", "Sam", "Tot", "Uma", "Vin", "Wal", "Xen", "Yog", "Zig" };
+
+    private static final String[] BREEDS = {
+            "Terrier", "Labrador", "Beagle", "Poodle", "Boxer", "Collie", "Dachshund", "Husky",
+            "Pug", "Greyhound", "Siamese", "Persian", "Maine Coon", "Bengal", "Sphynx", "Ragdoll",
+            "Tabby", "Mixed", null, null };
+
+    private final Context mContext;
+
+    /** Source of the generated pets. Seeded, so every run uses the same data. */
+    private final Random mRandom = new Random(42);
+
+    /** Results of the current run */
+    private final JSONArray mResults = new JSONArray();
+
+    /** Checks of the current run that came out wrong */
+    private final List<String> mFailedChecks = new ArrayList<>();
+
+    private Listener mListener;
+
+    public PetBenchmark(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * Runs every benchmark at each of the given table sizes. Must not be called on the main
+     * thread.
+     *
+     * @param sizes numbers of rows to seed the table with
+     * @param outputDir directory to write the results to
+     * @param listener to notify of each result, or null
+     * @return the file the results were written to
+     */
+    public File run(int[] sizes, File outputDir, Listener listener) throws IOException {
+        mListener = listener;
+        for (int size : sizes) {
+            mContext.deleteDatabase(DATABASE_NAME);
+            PetDbHelper dbHelper = new PetDbHelper(mContext, DATABASE_NAME);
+            try {
+                SQLiteDatabase db = dbHelper.getWritableDatabase();
+                benchmarkBatchInsert(db, size);
+                benchmarkSingleInsert(db, size);
+                benchmarkFullScan(db, size);
+                benchmarkNameLookup(db, size);
+                benchmarkBreedLookup(db, size);
+                benchmarkGenderWeightLookup(db, size);
+                benchmarkSearch(db, size);
+                benchmarkReadDuringWrite(db, size);
+                benchmarkPaging(db, size);
+                benchmarkQueryPlans(db, size);
+                benchmarkScroll(db, size);
+                benchmarkBindAllocations(db, size);
+                benchmarkStartup(size);
+                benchmarkMetricsOverhead(dbHelper, size);
+                benchmarkDao(dbHelper, size);
+                benchmarkDeleteAll(db, size);
+                benchmarkCompact(dbHelper, size);
+            } finally {
+                dbHelper.close();
+                mContext.deleteDatabase(DATABASE_NAME);
+            }
+        }
+        checkPragmas();
+        benchmarkMigration(MIGRATION_ROWS);
+        benchmarkValidation(VALIDATION_ROWS);
+        benchmarkImport(IMPORT_ROWS);
+        benchmarkExport(EXPORT_ROWS);
+        checkExportSchedule();
+        benchmarkSync(SYNC_ROWS);
+        benchmarkThumbnails(PHOTO_COUNT);
+        return writeResults(outputDir);
+    }
+
+    /**
+     * Returns the checks of the last run that came out wrong, e.g. "plan_name 1000 temp_btree",
+     * or an empty list if every one passed.
+     */
+    public List<String> getFailedChecks() {
+        return Collections.unmodifiableList(mFailedChecks);
+    }
+
+    /**
+     * Adds generated pets to the app's own shelter.db, so startup can be measured with a
+     * large shelter, e.g. with "adb shell am start -S -W" and the "Fully drawn" log line.
+     * Must not be called on the main thread.
+     *
+     * @param rows number of pets to add
+     */
+    public void seedShelter(int rows) {
+        PetDbHelper dbHelper = PetDbHelper.getInstance(mContext);
+        insertPets(dbHelper.getWritableDatabase(), rows);
+        dbHelper.checkpoint();
+        mContext.getContentResolver().notifyChange(PetEntry.CONTENT_URI, null);
+    }
+
+    /**
+     * Seeds the table, measuring rows inserted per second.
+     */
+    private void benchmarkBatchInsert(SQLiteDatabase db, int rows) {
+        long start = System.nanoTime();
+        insertPets(db, rows);
+        long elapsed = System.nanoTime() - start;
+        record("batch_insert", rows, "throughput", rows * 1e9 / elapsed, "rows/s");
+    }
+
+    /**
+     * Inserts generated pets with a compiled statement in chunked transactions.
+     */
+    private void insertPets(SQLiteDatabase db, int rows) {
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + PetEntry.TABLE_NAME + " ("
+                + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ", "
+                + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT
+                + ") VALUES (?, ?, ?, ?)");
+        try {
+            int inserted = 0;
+            while (inserted < rows) {
+                db.beginTransaction();
+                try {
+                    int end = Math.min(rows, inserted + SEED_CHUNK_SIZE);
+                    for (; inserted < end; inserted++) {
+                        insert.clearBindings();
+                        insert.bindString(1, randomName());
+                        String breed = randomBreed();
+                        if (breed == null) {
+                            insert.bindNull(2);
+                        } else {
+                            insert.bindString(2, breed);
+                        }
+                        insert.bindLong(3, mRandom.nextInt(3));
+                        insert.bindLong(4, 1 + mRandom.nextInt(60));
+                        insert.executeInsert();
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        } finally {
+            insert.close();
+        }
+    }
+
+    /**
+     * Measures inserting one row at a time with a new ContentValues each, in its own
+     * transaction.
+     */
+    private void benchmarkSingleInsert(SQLiteDatabase db, int rows) {
+        long[] times = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            ContentValues values = new ContentValues();
+            values.put(PetEntry.COLUMN_PET_NAME, randomName());
+            values.put(PetEntry.COLUMN_PET_BREED, randomBreed());
+            values.put(PetEntry.COLUMN_PET_GENDER, mRandom.nextInt(3));
+            values.put(PetEntry.COLUMN_PET_WEIGHT, 1 + mRandom.nextInt(60));
+            db.insert(PetEntry.TABLE_NAME, null, values);
+            times[i] = System.nanoTime() - start;
+        }
+        recordLatencies("single_insert", rows, times);
+    }
+
+    /**
+     * Measures reading every column of every row in the catalog projection.
+     */
+    private void benchmarkFullScan(SQLiteDatabase db, int rows) {
+        long[] times = new long[SCAN_ITERATIONS];
+        long checksum = 0;
+        for (int i = 0; i < SCAN_ITERATIONS; i++) {
+            long start = System.nanoTime();
+            Cursor cursor = db.query(PetEntry.TABLE_NAME, CATALOG_PROJECTION,
+                    null, null, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    checksum += cursor.getLong(0);
+                    String name = cursor.getString(1);
+                    String breed = cursor.getString(2);
+                    checksum += cursor.getInt(3) + cursor.getInt(4);
+                    checksum += name.length() + (breed == null ? 0 : breed.length());
+                }
+            } finally {
+                cursor.close();
+            }
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        // The checksum keeps the reads from being optimised away
+        record("full_scan", rows, "median", times[times.length / 2] / 1e6,
+                "ms (checksum " + checksum + ")");
+    }
+
+    private void benchmarkNameLookup(SQLiteDatabase db, int rows) {
+        long[] times = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            String[] args = { randomName() };
+            long start = System.nanoTime();
+            count(db, PetEntry.COLUMN_PET_NAME + " = ? COLLATE NOCASE", args);
+            times[i] = System.nanoTime() - start;
+        }
+        recordLatencies("name_lookup", rows, times);
+    }
+
+    private void benchmarkBreedLookup(SQLiteDatabase db, int rows) {
+        long[] times = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            String[] args = { BREEDS[mRandom.nextInt(BREEDS.length - 2)] };
+            long start = System.nanoTime();
+            count(db, PetEntry.COLUMN_PET_BREED + " = ?", args);
+            times[i] = System.nanoTime() - start;
+        }
+        recordLatencies("breed_lookup", rows, times);
+    }
+
+    private void benchmarkGenderWeightLookup(SQLiteDatabase db, int rows) {
+        long[] times = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            int minWeight = 1 + mRandom.nextInt(55);
+            String[] args = {
+                    String.valueOf(mRandom.nextInt(3)),
+                    String.valueOf(minWeight),
+                    String.valueOf(minWeight + 5) };
+            long start = System.nanoTime();
+            count(db, PetEntry.COLUMN_PET_GENDER + " = ? AND "
+                    + PetEntry.COLUMN_PET_WEIGHT + " BETWEEN ? AND ?", args);
+            times[i] = System.nanoTime() - start;
+        }
+        recordLatencies("gender_weight_lookup", rows, times);
+    }
+
+    /**
+     * Measures what the catalog waits for on a cold start, with a fresh helper on the seeded
+     * database each time, as a new process would have:
+     *
+     * - startup_open: opening the database and warming it up, as {@link PetProvider} does
+     * - startup_first_page: reading the first page of pets, which replaces the skeleton
+     * - startup_full_list: counting every pet, for comparison with reading the first page
+     *
+     * The database file stays in the page cache between runs, so this leaves out the cost of
+     * reading it from storage.
+     */
+    private void benchmarkStartup(int rows) {
+        long[] openTimes = new long[STARTUP_ITERATIONS];
+        long[] firstPageTimes = new long[STARTUP_ITERATIONS];
+        long[] fullListTimes = new long[STARTUP_ITERATIONS];
+        for (int i = 0; i < STARTUP_ITERATIONS; i++) {
+            PetDbHelper dbHelper = new PetDbHelper(mContext, DATABASE_NAME);
+            try {
+                long start = System.nanoTime();
+                dbHelper.warmUp(PetProvider.WARM_UP_QUERIES);
+                openTimes[i] = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                countCatalog(dbHelper, STARTUP_FIRST_PAGE_ROWS);
+                firstPageTimes[i] = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                countCatalog(dbHelper, null);
+                fullListTimes[i] = System.nanoTime() - start;
+            } finally {
+                dbHelper.close();
+            }
+        }
+        recordLatencies("startup_open", rows, openTimes);
+        recordLatencies("startup_first_page", rows, firstPageTimes);
+        recordLatencies("startup_full_list", rows, fullListTimes);
+    }
+
+    /**
+     * Runs the catalog query the way the provider does, and counts its rows.
+     */
+    private static int countCatalog(PetDbHelper dbHelper, String limit) {
+        Cursor cursor = dbHelper.getReadableDatabase().query(PetEntry.TABLE_NAME,
+                Pet.PROJECTION, PetProvider.excludeDeleted(null), null, null, null,
+                PetEntry._ID, limit);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Measures reading every pet a page at a time with a {@link PetQuery}, in each sort order,
+     * as the catalog does when it is scrolled to the end:
+     *
+     * - page_id_first, page_id_last: the first and the last {@value #PAGE_SAMPLES} pages in
+     *   the order the pets were added, and likewise for page_name and page_weight
+     * - page_offset_last: the same last pages in the order the pets were added, read with
+     *   OFFSET rather than after the key of the page before
+     *
+     * Each page seeks to its key in an index, so the last pages should take as long as the
+     * first ones, however many pets there are. OFFSET steps over every row before the page,
+     * so it gets slower the deeper the page.
+     */
+    private void benchmarkPaging(SQLiteDatabase db, int rows) {
+        int pageSize = PetQuery.DEFAULT_PAGE_SIZE;
+        // Other benchmarks add a few pets of their own, so there may be more pages than this
+        long[] times = new long[rows / pageSize + 1];
+        for (PetQuery.Sort sort : PetQuery.Sort.values()) {
+            PetQuery page = new PetQuery.Builder().setSort(sort).setPageSize(pageSize).build();
+            int pages = 0;
+            boolean lastPage = false;
+            while (!lastPage) {
+                long start = System.nanoTime();
+                Cursor cursor = queryPage(db, page);
+                try {
+                    lastPage = cursor.getCount() < pageSize;
+                    if (pages == times.length) {
+                        times = Arrays.copyOf(times, pages * 2);
+                    }
+                    times[pages++] = System.nanoTime() - start;
+                    if (!lastPage) {
+                        cursor.moveToLast();
+                        page = page.buildUpon().setAfter(page.getKey(cursor)).build();
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+            int samples = Math.min(PAGE_SAMPLES, pages);
+            String name = "page_" + sort.name().toLowerCase(Locale.US);
+            recordLatencies(name + "_first", rows, Arrays.copyOfRange(times, 0, samples));
+            recordLatencies(name + "_last", rows,
+                    Arrays.copyOfRange(times, pages - samples, pages));
+        }
+
+        int pages = rows / pageSize + 1;
+        int samples = Math.min(PAGE_SAMPLES, pages);
+        long[] offsetTimes = new long[samples];
+        for (int i = 0; i < samples; i++) {
+            String limit = (pages - samples + i) * pageSize + "," + pageSize;
+            long start = System.nanoTime();
+            Cursor cursor = db.query(PetEntry.TABLE_NAME, Pet.PROJECTION,
+                    PetProvider.excludeDeleted(null), null, null, null, PetEntry._ID, limit);
+            try {
+                cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+            offsetTimes[i] = System.nanoTime() - start;
+        }
+        recordLatencies("page_offset_last", rows, offsetTimes);
+    }
+
+    /**
+     * Runs the query for a page of the catalog the way the provider does.
+     */
+    private static Cursor queryPage(SQLiteDatabase db, PetQuery page) {
+        return db.rawQuery(PetProvider.buildQueryString(page), page.getSelectionArgs());
+    }
+
+    /**
+     * Checks the plans of the catalog queries that {@link #benchmarkPaging(SQLiteDatabase, int)}
+     * times, for the first page and for a page after a key, in each sort order:
+     *
+     * - plan_id, plan_name, plan_weight: temp_btree is 1 if SQLite sorts the pets itself
+     *   rather than reading them in order from an index, and deleted_index is 1 if it looks
+     *   them up through the index on the deleted flag. Both should be 0 for every page.
+     */
+    private void benchmarkQueryPlans(SQLiteDatabase db, int rows) {
+        for (PetQuery.Sort sort : PetQuery.Sort.values()) {
+            PetQuery first = new PetQuery.Builder().setSort(sort).build();
+            PetQuery after = first;
+            Cursor cursor = queryPage(db, first);
+            try {
+                if (cursor.moveToLast()) {
+                    after = first.buildUpon().setAfter(first.getKey(cursor)).build();
+                }
+            } finally {
+                cursor.close();
+            }
+
+            boolean tempBTree = false;
+            boolean deletedIndex = false;
+            for (PetQuery page : new PetQuery[] { first, after }) {
+                for (String step : PetDatabase.explainQueryPlan(db,
+                        PetProvider.buildQueryString(page), page.getSelectionArgs())) {
+                    tempBTree |= step.contains("TEMP B-TREE");
+                    deletedIndex |= step.contains(PetEntry.TABLE_NAME + "_deleted_index");
+                }
+            }
+            String name = "plan_" + sort.name().toLowerCase(Locale.US);
+            check(name, rows, "temp_btree", tempBTree, false);
+            check(name, rows, "deleted_index", deletedIndex, false);
+        }
+    }
+
+    /**
+     * Measures scrolling the catalog from the first pet to the last, binding list items with
+     * {@link PetCursorAdapter} on the main thread as the list does. One list item is recycled
+     * for every row, as a list scrolled a screen at a time recycles the item that scrolled off.
+     * At most {@value #SCROLL_POSITIONS} rows spread evenly over the list are bound, so the
+     * cursor still reads every window of rows from the database.
+     *
+     * The time to bind a row, and the heap, should stay the same however many pets there are.
+     */
+    private void benchmarkScroll(SQLiteDatabase db, int rows) {
+        final Cursor cursor = db.rawQuery(
+                PetProvider.buildQueryString(new PetQuery.Builder().build()), null);
+        try {
+            final int count = cursor.getCount();
+            final int step = Math.max(1, count / SCROLL_POSITIONS);
+            final long[] times = new long[(count + step - 1) / step];
+            final long[] memory = new long[2];
+            runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    PetCursorAdapter adapter = new PetCursorAdapter(mContext, cursor);
+                    ListView parent = new ListView(mContext);
+                    View view = adapter.getView(0, null, parent);
+                    memory[0] = getUsedMemory();
+                    for (int i = 0; i < times.length; i++) {
+                        long start = System.nanoTime();
+                        view = adapter.getView(i * step, view, parent);
+                        times[i] = System.nanoTime() - start;
+                    }
+                    memory[1] = getUsedMemory();
+                }
+            });
+            if (times.length > 0) {
+                recordLatencies("catalog_scroll", rows, times);
+            }
+            record("catalog_scroll", rows, "heap_growth", (memory[1] - memory[0]) / 1024.0,
+                    "KiB");
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Counts the objects allocated on the main thread while binding every row of the first
+     * catalog page to a recycled list item, and while binding the first
+     * {@value #BIND_PAGES} pages shown together through {@link PetPagesCursor}, as the catalog
+     * does once more pages have loaded. Binding a row should allocate next to nothing.
+     */
+    private void benchmarkBindAllocations(SQLiteDatabase db, int rows) {
+        Cursor[] pages = new Cursor[BIND_PAGES];
+        try {
+            PetQuery page = new PetQuery.Builder().setPageSize(PetQuery.DEFAULT_PAGE_SIZE).build();
+            for (int i = 0; i < pages.length; i++) {
+                pages[i] = queryPage(db, page);
+                if (pages[i].moveToLast()) {
+                    page = page.buildUpon().setAfter(page.getKey(pages[i])).build();
+                }
+            }
+            recordBindAllocations("bind_allocations_page", rows, pages[0]);
+            recordBindAllocations("bind_allocations_pages", rows, new PetPagesCursor(pages));
+        } finally {
+            for (Cursor cursor : pages) {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Binds every row of the cursor with {@link PetCursorAdapter} on the main thread twice,
+     * the first time to create the list item and fill the cursor's windows, and records the
+     * objects allocated per row the second time.
+     */
+    @SuppressWarnings("deprecation")
+    private void recordBindAllocations(String benchmark, int rows, final Cursor cursor) {
+        final long[] allocations = new long[2];
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                PetCursorAdapter adapter = new PetCursorAdapter(mContext, cursor);
+                ListView parent = new ListView(mContext);
+                int count = adapter.getCount();
+                View view = null;
+                for (int i = 0; i < count; i++) {
+                    view = adapter.getView(i, view, parent);
+                }
+
+                Debug.startAllocCounting();
+                Debug.resetThreadAllocCount();
+                for (int i = 0; i < count; i++) {
+                    view = adapter.getView(i, view, parent);
+                }
+                allocations[0] = Debug.getThreadAllocCount();
+                Debug.stopAllocCounting();
+                allocations[1] = count;
+            }
+        });
+        if (allocations[1] > 0) {
+            record(benchmark, rows, "allocations", (double) allocations[0] / allocations[1],
+                    "objects/row");
+        }
+    }
+
+    /**
+     * Runs the given code on the main thread and waits for it to finish.
+     */
+    private static void runOnMainThread(final Runnable runnable) {
+        final CountDownLatch done = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runnable.run();
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Measures name lookups made through {@link PetDatabase}, as the provider makes them,
+     * with recording turned off and then on. The slow query log is kept out of the way, so
+     * only the cost of timing and recording is measured.
+     */
+    private void benchmarkMetricsOverhead(PetDbHelper dbHelper, int rows) {
+        PetDatabase database = dbHelper.getDatabase();
+        PetDbMetrics metrics = dbHelper.getMetrics();
+        metrics.setSlowQueryThresholdMillis(Long.MAX_VALUE);
+        String selection = PetEntry.COLUMN_PET_NAME + " = ? COLLATE NOCASE";
+        boolean[] enabled = { false, true };
+        for (boolean metricsEnabled : enabled) {
+            metrics.setEnabled(metricsEnabled);
+            long[] times = new long[ITERATIONS];
+            for (int i = 0; i < ITERATIONS; i++) {
+                String[] args = { randomName() };
+                long start = System.nanoTime();
+                Cursor cursor = database.query(PetEntry.TABLE_NAME, CATALOG_PROJECTION,
+                        selection, args, null, null, null);
+                try {
+                    while (cursor.moveToNext()) {
+                        // Read every row, as count() does
+                    }
+                } finally {
+                    cursor.close();
+                }
+                times[i] = System.nanoTime() - start;
+            }
+            recordLatencies(metricsEnabled ? "metrics_on" : "metrics_off", rows, times);
+        }
+        metrics.reset();
+    }
+
+    /**
+     * Measures single pet writes and counts through {@link PetDao} against the same operations
+     * through {@link PetDatabase}, as the provider made them before, with the metrics turned
+     * off so only the statements are measured. The values are built before timing starts.
+     * Each write is a transaction of its own, as in the editor.
+     */
+    private void benchmarkDao(PetDbHelper dbHelper, int rows) {
+        PetDatabase database = dbHelper.getDatabase();
+        PetDao dao = dbHelper.getDao();
+        PetDbMetrics metrics = dbHelper.getMetrics();
+        metrics.setEnabled(false);
+
+        ContentValues[] pets = new ContentValues[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            pets[i] = new PetValidator.Builder()
+                    .setName(randomName())
+                    .setBreed(randomBreed())
+                    .setGender(mRandom.nextInt(3))
+                    .setWeight(String.valueOf(1 + mRandom.nextInt(60)))
+                    .build();
+        }
+        ContentValues deleted = new ContentValues(1);
+        deleted.put(PetDbHelper.COLUMN_DELETED, 1);
+        String selection = PetEntry._ID + "=? AND " + PetDbHelper.SELECTION_NOT_DELETED;
+
+        boolean[] fixed = { false, true };
+        for (boolean useDao : fixed) {
+            String prefix = useDao ? "dao_" : "db_";
+            long[] ids = new long[ITERATIONS];
+            long[] times = new long[ITERATIONS];
+            for (int i = 0; i < ITERATIONS; i++) {
+                long start = System.nanoTime();
+                ids[i] = useDao ? dao.insert(pets[i])
+                        : database.insert(PetEntry.TABLE_NAME, pets[i]);
+                times[i] = System.nanoTime() - start;
+            }
+            recordLatencies(prefix + "insert", rows, times);
+
+            for (int i = 0; i < ITERATIONS; i++) {
+                // Save each pet with the values of the next, as the editor saves all of them
+                ContentValues values = pets[(i + 1) % ITERATIONS];
+                long start = System.nanoTime();
+                if (useDao) {
+                    dao.update(ids[i], values);
+                } else {
+                    database.update(PetEntry.TABLE_NAME, values, selection,
+                            new String[] { String.valueOf(ids[i]) });
+                }
+                times[i] = System.nanoTime() - start;
+            }
+            recordLatencies(prefix + "update", rows, times);
+
+            for (int i = 0; i < ITERATIONS; i++) {
+                long start = System.nanoTime();
+                if (useDao) {
+                    dao.countPets();
+                } else {
+                    database.longForQuery(PetStats.SQL_PET_COUNT, null);
+                }
+                times[i] = System.nanoTime() - start;
+            }
+            recordLatencies(prefix + "count", rows, times);
+
+            for (int i = 0; i < ITERATIONS; i++) {
+                long start = System.nanoTime();
+                if (useDao) {
+                    dao.delete(ids[i]);
+                } else {
+                    database.update(PetEntry.TABLE_NAME, deleted, selection,
+                            new String[] { String.valueOf(ids[i]) });
+                }
+                times[i] = System.nanoTime() - start;
+            }
+            recordLatencies(prefix + "delete", rows, times);
+        }
+        metrics.reset();
+    }
+
+    /**
+     * Measures searching on the first few letters of a name with the search table, and with a
+     * LIKE scan of the names and breeds for comparison. PetSearchTest checks that the two
+     * find the same pets.
+     */
+    private void benchmarkSearch(SQLiteDatabase db, int rows) {
+        long[] times = new long[ITERATIONS];
+        long[] likeTimes = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            // Search on the first few letters of a name
+            String text = NAME_PARTS[mRandom.nextInt(NAME_PARTS.length)].substring(0, 2);
+            String[] args = { PetSearch.toMatchExpression(text, null) };
+            long start = System.nanoTime();
+            count(db, PetSearch.SELECTION, args);
+            times[i] = System.nanoTime() - start;
+
+            String[] likeArgs = { "%" + text + "%", "%" + text + "%" };
+            start = System.nanoTime();
+            count(db, PetEntry.COLUMN_PET_NAME + " LIKE ? OR "
+                    + PetEntry.COLUMN_PET_BREED + " LIKE ?", likeArgs);
+            likeTimes[i] = System.nanoTime() - start;
+        }
+        recordLatencies("search", rows, times);
+        recordLatencies("search_like", rows, likeTimes);
+    }
+
+    /**
+     * Measures name lookups while another thread keeps inserting pets in one long transaction,
+     * as a large import does. With write-ahead logging the lookups run on a reader connection
+     * and see the pets as they were before the transaction, so they should take no longer
+     * than {@link #benchmarkNameLookup(SQLiteDatabase, int)}. If they were blocked, they would
+     * wait up to {@value #WRITE_HOLD_MILLIS} ms for the transaction to end.
+     *
+     * The transaction is rolled back, so the table is left as it was.
+     */
+    private void benchmarkReadDuringWrite(final SQLiteDatabase db, int rows) {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final boolean[] stop = { false };
+        final int[] written = { 0 };
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long deadline = System.currentTimeMillis() + WRITE_HOLD_MILLIS;
+                db.beginTransaction();
+                try {
+                    writing.countDown();
+                    while (System.currentTimeMillis() < deadline) {
+                        synchronized (stop) {
+                            if (stop[0]) {
+                                break;
+                            }
+                        }
+                        insertPets(db, SEED_CHUNK_SIZE);
+                        written[0] += SEED_CHUNK_SIZE;
+                    }
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        }, "PetBenchmarkWriter");
+        writer.start();
+
+        long[] times = new long[ITERATIONS];
+        try {
+            writing.await();
+            for (int i = 0; i < ITERATIONS; i++) {
+                String[] args = { randomName() };
+                long start = System.nanoTime();
+                count(db, PetEntry.COLUMN_PET_NAME + " = ? COLLATE NOCASE", args);
+                times[i] = System.nanoTime() - start;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            synchronized (stop) {
+                stop[0] = true;
+            }
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        recordLatencies("wal_read_during_write", rows, times);
+        record("wal_read_during_write", rows, "rows_written", written[0], "rows (rolled back)");
+    }
+
+    /**
+     * Measures marking every pet as deleted in a single statement.
+     */
+    private void benchmarkDeleteAll(SQLiteDatabase db, int rows) {
+        ContentValues values = new ContentValues(1);
+        values.put(PetDbHelper.COLUMN_DELETED, 1);
+        long start = System.nanoTime();
+        int deleted = db.update(PetEntry.TABLE_NAME, values, PetDbHelper.SELECTION_NOT_DELETED,
+                null);
+        long elapsed = System.nanoTime() - start;
+        record("delete_all", rows, "elapsed", elapsed / 1e6, "ms (" + deleted + " rows)");
+    }
+
+    /**
+     * Measures removing the deleted pets and releasing their pages, and the file size saved.
+     */
+    private void benchmarkCompact(PetDbHelper dbHelper, int rows) {
+        PetCompactor.Result result = new PetCompactor(dbHelper, null /* photoStore */).compact();
+        record("compact", rows, "elapsed", result.elapsedMillis, "ms");
+        record("compact", rows, "size_before", result.bytesBefore / 1024.0, "KiB");
+        record("compact", rows, "size_after", result.bytesAfter / 1024.0, "KiB");
+    }
+
+    /**
+     * Measures syncing two scratch devices through a stand-in server: a full upload and
+     * download first, then changes to the same pets on both devices, which the later change
+     * wins on both.
+     */
+    private void benchmarkSync(int rows) throws IOException {
+        mContext.deleteDatabase(SYNC_DATABASE_A);
+        mContext.deleteDatabase(SYNC_DATABASE_B);
+        PetDbHelper deviceA = new PetDbHelper(mContext, SYNC_DATABASE_A);
+        PetDbHelper deviceB = new PetDbHelper(mContext, SYNC_DATABASE_B);
+        PetSyncServer server = new PetSyncServer();
+        try {
+            PetSyncEngine syncA = new PetSyncEngine(mContext, deviceA, server.getUrl());
+            PetSyncEngine syncB = new PetSyncEngine(mContext, deviceB, server.getUrl());
+            // Keep the retries, without waiting seconds for them
+            syncA.setInitialBackoffMillis(10);
+            syncB.setInitialBackoffMillis(10);
+
+            insertPets(deviceA.getWritableDatabase(), rows);
+            recordSync("sync_upload", rows, syncA.sync());
+            recordSync("sync_download", rows, syncB.sync());
+
+            int changed = rows * SYNC_CHANGE_PERCENT / 100;
+            changePets(deviceA.getWritableDatabase(), changed, 1);
+            changePets(deviceB.getWritableDatabase(), changed, 2);
+            server.failNextRequests(SYNC_FAILED_REQUESTS);
+            recordSync("sync_delta_send", rows, syncA.sync());
+            recordSync("sync_delta_conflicts", rows, syncB.sync());
+            recordSync("sync_delta_receive", rows, syncA.sync());
+        } finally {
+            server.close();
+            deviceA.close();
+            deviceB.close();
+            mContext.deleteDatabase(SYNC_DATABASE_A);
+            mContext.deleteDatabase(SYNC_DATABASE_B);
+        }
+    }
+
+    private void recordSync(String benchmark, int rows, PetSyncEngine.Result result) {
+        record(benchmark, rows, "changes", result.changesSent + result.changesReceived,
+                "rows");
+        record(benchmark, rows, "conflicts", result.conflicts, "rows");
+        record(benchmark, rows, "requests", result.requests, "requests");
+        record(benchmark, rows, "sent", result.bytesSent / 1024.0, "KiB");
+        record(benchmark, rows, "received", result.bytesReceived / 1024.0, "KiB");
+        record(benchmark, rows, "elapsed", result.elapsedMillis, "ms");
+    }
+
+    /**
+     * Adds to the weight of the first pets in sync ID order, which are the same pets on every
+     * device.
+     */
+    private static void changePets(SQLiteDatabase db, int count, int extraWeight) {
+        db.execSQL("UPDATE " + PetEntry.TABLE_NAME + " SET " + PetEntry.COLUMN_PET_WEIGHT
+                + " = " + PetEntry.COLUMN_PET_WEIGHT + " + " + extraWeight + " WHERE "
+                + PetDbHelper.COLUMN_SYNC_ID + " IN (SELECT " + PetDbHelper.COLUMN_SYNC_ID
+                + " FROM " + PetEntry.TABLE_NAME + " ORDER BY " + PetDbHelper.COLUMN_SYNC_ID
+                + " LIMIT " + count + ")");
+    }
+
+    /**
+     * Reads back the PRAGMAs {@link PetDbHelper} sets, on the primary connection, which writes
+     * and PRAGMA statements go through, and on a reader connection, which the catalog's
+     * queries go through. A PRAGMA can only be read with a SELECT, and so from a reader, from
+     * API 26 on, where SQLite has a table-valued function for each PRAGMA. A value of -1
+     * means the PRAGMA returned nothing, as mmap_size does where it is not supported.
+     */
+    private void checkPragmas() {
+        mContext.deleteDatabase(DATABASE_NAME);
+        PetDbHelper dbHelper = new PetDbHelper(mContext, DATABASE_NAME);
+        try {
+            SQLiteDatabase db = dbHelper.getReadableDatabase();
+            String[] pragmas = {
+                    "synchronous", "cache_size", "mmap_size", "wal_autocheckpoint",
+                    "journal_size_limit" };
+            for (String pragma : pragmas) {
+                record("pragma_" + pragma, 0, "primary",
+                        longForQuery(db, "PRAGMA " + pragma), "value");
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                    record("pragma_" + pragma, 0, "reader",
+                            longForQuery(db, "SELECT * FROM pragma_" + pragma + "()"), "value");
+                }
+            }
+        } finally {
+            dbHelper.close();
+            mContext.deleteDatabase(DATABASE_NAME);
+        }
+    }
+
+    /**
+     * Returns the first column of the first row of a query, or -1 if there are no rows.
+     */
+    private static long longForQuery(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Measures validating generated import rows, as plain values and as ContentValues. The
+     * ContentValues are created before timing starts, so only the checks are measured.
+     */
+    private void benchmarkValidation(int rows) {
+        String[] names = new String[rows];
+        int[] genders = new int[rows];
+        int[] weights = new int[rows];
+        ContentValues[] values = new ContentValues[rows];
+        for (int i = 0; i < rows; i++) {
+            names[i] = randomName();
+            genders[i] = mRandom.nextInt(3);
+            weights[i] = 1 + mRandom.nextInt(60);
+            switch (mRandom.nextInt(60)) {
+                case 0:
+                    names[i] = "  ";
+                    break;
+                case 1:
+                    genders[i] = 7;
+                    break;
+                case 2:
+                    weights[i] = -1;
+                    break;
+            }
+            values[i] = new ContentValues(4);
+            values[i].put(PetEntry.COLUMN_PET_NAME, names[i]);
+            values[i].put(PetEntry.COLUMN_PET_BREED, randomBreed());
+            values[i].put(PetEntry.COLUMN_PET_GENDER, genders[i]);
+            values[i].put(PetEntry.COLUMN_PET_WEIGHT, weights[i]);
+        }
+
+        // The number of valid rows keeps the checks from being optimised away
+        long[] times = new long[VALIDATION_ITERATIONS];
+        int valid = 0;
+        for (int iteration = 0; iteration < VALIDATION_ITERATIONS; iteration++) {
+            valid = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < rows; i++) {
+                if (PetValidator.check(names[i], genders[i], weights[i]) == null) {
+                    valid++;
+                }
+            }
+            times[iteration] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        record("validate", rows, "throughput", rows * 1e9 / times[times.length / 2],
+                "rows/s (" + valid + " valid)");
+
+        for (int iteration = 0; iteration < VALIDATION_ITERATIONS; iteration++) {
+            valid = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < rows; i++) {
+                if (PetValidator.check(values[i], false) == null) {
+                    valid++;
+                }
+            }
+            times[iteration] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        record("validate_content_values", rows, "throughput",
+                rows * 1e9 / times[times.length / 2], "rows/s (" + valid + " valid)");
+    }
+
+    /**
+     * Measures upgrading a populated version 1 database, as shipped before the schema had any
+     * migrations, to the latest version with {@link PetDbHelper}.
+     */
+    private void benchmarkMigration(int rows) {
+        mContext.deleteDatabase(MIGRATION_DATABASE_NAME);
+        try {
+            SQLiteDatabase v1 = mContext.openOrCreateDatabase(MIGRATION_DATABASE_NAME,
+                    Context.MODE_PRIVATE, null);
+            try {
+                v1.execSQL("CREATE TABLE " + PetEntry.TABLE_NAME + " ("
+                        + PetEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                        + PetEntry.COLUMN_PET_NAME + " TEXT NOT NULL, "
+                        + PetEntry.COLUMN_PET_BREED + " TEXT, "
+                        + PetEntry.COLUMN_PET_GENDER + " INTEGER NOT NULL, "
+                        + PetEntry.COLUMN_PET_WEIGHT + " INTEGER NOT NULL DEFAULT 0);");
+                SQLiteStatement insert = v1.compileStatement("INSERT INTO "
+                        + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_PET_NAME + ", "
+                        + PetEntry.COLUMN_PET_BREED + ", " + PetEntry.COLUMN_PET_GENDER + ", "
+                        + PetEntry.COLUMN_PET_WEIGHT + ") VALUES (?, ?, ?, ?)");
+                v1.beginTransaction();
+                try {
+                    for (int i = 0; i < rows; i++) {
+                        insert.bindString(1, randomName());
+                        String breed = randomBreed();
+                        if (breed == null) {
+                            insert.bindNull(2);
+                        } else {
+                            insert.bindString(2, breed);
+                        }
+                        insert.bindLong(3, mRandom.nextInt(3));
+                        insert.bindLong(4, 1 + mRandom.nextInt(60));
+                        insert.executeInsert();
+                    }
+                    v1.setTransactionSuccessful();
+                } finally {
+                    v1.endTransaction();
+                    insert.close();
+                }
+                v1.setVersion(1);
+            } finally {
+                v1.close();
+            }
+
+            PetDbHelper dbHelper = new PetDbHelper(mContext, MIGRATION_DATABASE_NAME);
+            try {
+                long start = System.nanoTime();
+                dbHelper.getWritableDatabase();
+                record("migration", rows, "upgrade", (System.nanoTime() - start) / 1e6, "ms");
+            } finally {
+                dbHelper.close();
+            }
+        } finally {
+            mContext.deleteDatabase(MIGRATION_DATABASE_NAME);
+        }
+    }
+
+    /**
+     * Measures importing the same CSV file with every row committed on its own and in chunks,
+     * each into a fresh scratch database, and checks that quoted fields spanning lines are
+     * read whole.
+     */
+    private void benchmarkImport(int rows) throws IOException {
+        File file = new File(mContext.getCacheDir(), IMPORT_FILE_NAME);
+        try {
+            String[] names = new String[rows];
+            Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            try {
+                writer.write("name,breed,gender,weight\n");
+                for (int i = 0; i < rows; i++) {
+                    names[i] = randomName();
+                    if (i % 100 == 0) {
+                        // A name with a line break and a quote in it, which must be quoted
+                        names[i] += "\n\"" + randomName() + "\"";
+                    }
+                    String breed = randomBreed();
+                    writer.write("\"" + names[i].replace("\"", "\"\"") + "\","
+                            + (breed == null ? "" : breed) + "," + mRandom.nextInt(3) + ","
+                            + (1 + mRandom.nextInt(60)) + "\n");
+                }
+            } finally {
+                writer.close();
+            }
+
+            boolean[] chunked = { false, true };
+            for (boolean inChunks : chunked) {
+                mContext.deleteDatabase(IMPORT_DATABASE_NAME);
+                PetDbHelper dbHelper = new PetDbHelper(mContext, IMPORT_DATABASE_NAME);
+                try {
+                    PetImporter importer = new PetImporter(mContext, dbHelper);
+                    if (!inChunks) {
+                        importer.setChunkSize(1);
+                    }
+                    PetImporter.Result result = importer.importFile(file, null);
+                    record(inChunks ? "import_chunked" : "import_per_row", rows, "throughput",
+                            result.getRowsPerSecond(), "rows/s");
+
+                    if (inChunks) {
+                        check("import_quoted_newlines", rows, "match",
+                                hasNames(dbHelper.getReadableDatabase(), names), true);
+                    }
+                } finally {
+                    dbHelper.close();
+                    mContext.deleteDatabase(IMPORT_DATABASE_NAME);
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Returns whether the pets table holds exactly the given names, in the order they were
+     * added.
+     */
+    private static boolean hasNames(SQLiteDatabase db, String[] names) {
+        Cursor cursor = db.query(PetEntry.TABLE_NAME, new String[] { PetEntry.COLUMN_PET_NAME },
+                null, null, null, null, PetEntry._ID);
+        try {
+            if (cursor.getCount() != names.length) {
+                return false;
+            }
+            for (String name : names) {
+                cursor.moveToNext();
+                if (!name.equals(cursor.getString(0))) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Measures exporting every pet of a scratch database in each format, and the heap growth
+     * while doing so, which should not depend on the number of pets. One pet in
+     * {@value #EXPORT_DELETED_EVERY} is marked as deleted first, so the export skips some.
+     */
+    private void benchmarkExport(int rows) throws IOException {
+        mContext.deleteDatabase(EXPORT_DATABASE_NAME);
+        PetDbHelper dbHelper = new PetDbHelper(mContext, EXPORT_DATABASE_NAME);
+        File file = new File(mContext.getCacheDir(), EXPORT_FILE_NAME);
+        try {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            insertPets(db, rows);
+            ContentValues deleted = new ContentValues(1);
+            deleted.put(PetDbHelper.COLUMN_DELETED, 1);
+            db.update(PetEntry.TABLE_NAME, deleted,
+                    PetEntry._ID + " % " + EXPORT_DELETED_EVERY + " = 0", null);
+
+            PetExporter exporter = new PetExporter(dbHelper);
+            for (PetExporter.Format format : PetExporter.Format.values()) {
+                boolean[] compressed = { false, true };
+                for (boolean gzip : compressed) {
+                    String name = "export_" + format.name().toLowerCase(Locale.US)
+                            + (gzip ? "_gzip" : "");
+                    long memoryBefore = getUsedMemory();
+                    PetExporter.Result result = exporter.export(file, format, gzip);
+                    long memoryGrowth = getUsedMemory() - memoryBefore;
+                    record(name, rows, "throughput", result.getRowsPerSecond(), "rows/s");
+                    record(name, rows, "size", result.bytesWritten / 1024.0, "KiB");
+                    record(name, rows, "heap_growth", memoryGrowth / 1024.0, "KiB");
+                }
+            }
+        } finally {
+            file.delete();
+            dbHelper.close();
+            mContext.deleteDatabase(EXPORT_DATABASE_NAME);
+        }
+    }
+
+    /**
+     * Checks that scheduling the nightly export as the catalog does on every start leaves an
+     * alarm already scheduled alone, rather than pushing it back another day. This schedules
+     * the app's real export, as the app itself would.
+     */
+    private void checkExportSchedule() {
+        PetExportService.scheduleNightlyExport(mContext);
+        boolean scheduled = PetExportService.isNightlyExportScheduled(mContext);
+        boolean rescheduled = PetExportService.scheduleNightlyExport(mContext);
+        check("export_schedule", 0, "scheduled", scheduled, true);
+        check("export_schedule", 0, "rescheduled", rescheduled, false);
+    }
+
+    /**
+     * Measures loading thumbnails of generated photos with a {@link PetThumbnailLoader} that
+     * has its own scratch caches, and the memory used while doing so.
+     */
+    private void benchmarkThumbnails(int photos) throws IOException {
+        File photoDir = new File(mContext.getCacheDir(), "benchmark-photos");
+        File thumbnailDir = new File(mContext.getCacheDir(), "benchmark-thumbnails");
+        int thumbnailSize = mContext.getResources()
+                .getDimensionPixelSize(R.dimen.list_item_thumbnail_size);
+        try {
+            String[] photoUris = writePhotos(photoDir, photos);
+            PetThumbnailLoader loader = new PetThumbnailLoader(mContext, thumbnailDir,
+                    THUMBNAIL_MEMORY_CACHE_BYTES);
+
+            long memoryBefore = getUsedMemory();
+            long[] times = new long[photos];
+            for (int i = 0; i < photos; i++) {
+                long start = System.nanoTime();
+                loader.getThumbnail(photoUris[i], thumbnailSize);
+                times[i] = System.nanoTime() - start;
+            }
+            long memoryGrowth = getUsedMemory() - memoryBefore;
+            recordLatencies("thumbnail_decode", photos, times);
+            record("thumbnail_memory", photos, "heap_growth", memoryGrowth / 1024.0, "KiB");
+            record("thumbnail_memory", photos, "memory_cache",
+                    loader.getMemoryCacheSize() / 1024.0, "KiB");
+
+            loader.clearMemoryCache();
+            for (int i = 0; i < photos; i++) {
+                long start = System.nanoTime();
+                loader.getThumbnail(photoUris[i], thumbnailSize);
+                times[i] = System.nanoTime() - start;
+            }
+            recordLatencies("thumbnail_disk", photos, times);
+            loader.clearMemoryCache();
+        } finally {
+            deleteDirectory(photoDir);
+            deleteDirectory(thumbnailDir);
+        }
+    }
+
+    /**
+     * Writes the given number of full size JPEG photos to a directory.
+     *
+     * @return the URIs of the photos
+     */
+    private String[] writePhotos(File dir, int photos) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        String[] photoUris = new String[photos];
+        Bitmap photo = Bitmap.createBitmap(PHOTO_WIDTH, PHOTO_HEIGHT, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(photo);
+        Paint paint = new Paint();
+        try {
+            for (int i = 0; i < photos; i++) {
+                // Vary the content, so every photo is different
+                photo.eraseColor(0xff000000 | mRandom.nextInt(0xffffff));
+                paint.setColor(0xff000000 | mRandom.nextInt(0xffffff));
+                canvas.drawCircle(mRandom.nextInt(PHOTO_WIDTH), mRandom.nextInt(PHOTO_HEIGHT),
+                        PHOTO_HEIGHT / 3, paint);
+
+                File file = new File(dir, "photo-" + i + ".jpg");
+                OutputStream out = new FileOutputStream(file);
+                try {
+                    photo.compress(Bitmap.CompressFormat.JPEG, 90, out);
+                } finally {
+                    out.close();
+                }
+                photoUris[i] = Uri.fromFile(file).toString();
+            }
+        } finally {
+            photo.recycle();
+        }
+        return photoUris;
+    }
+
+    /**
+     * Returns the bytes in use on the Java heap and the native heap, where bitmaps are
+     * allocated from API 26 on, after a garbage collection.
+     */
+    private static long getUsedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        return runtime.totalMemory() - runtime.freeMemory() + Debug.getNativeHeapAllocatedSize();
+    }
+
+    private static void deleteDirectory(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * Runs a query for the catalog projection and reads every matching row.
+     */
+    private static int count(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        Cursor cursor = db.query(PetEntry.TABLE_NAME, CATALOG_PROJECTION, selection,
+                selectionArgs, null, null, null);
+        try {
+            int count = 0;
+            while (cursor.moveToNext()) {
+                count++;
+            }
+            return count;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private String randomName() {
+        return NAME_PARTS[mRandom.nextInt(NAME_PARTS.length)]
+                + NAME_PARTS[mRandom.nextInt(NAME_PARTS.length)].toLowerCase(Locale.US);
+    }
+
+    private String randomBreed() {
+        return BREEDS[mRandom.nextInt(BREEDS.length)];
+    }
+
+    /**
+     * Records the mean, median and 99th percentile of the given times in nanoseconds.
+     */
+    private void recordLatencies(String benchmark, int rows, long[] times) {
+        long total = 0;
+        for (long time : times) {
+            total += time;
+        }
+        Arrays.sort(times);
+        record(benchmark, rows, "mean", total / 1e3 / times.length, "us");
+        record(benchmark, rows, "p50", times[times.length / 2] / 1e3, "us");
+        record(benchmark, rows, "p99", times[times.length * 99 / 100] / 1e3, "us");
+    }
+
+    private void record(String benchmark, int rows, String metric, double value, String unit) {
+        try {
+            mResults.put(new JSONObject()
+                    .put("benchmark", benchmark)
+                    .put("rows", rows)
+                    .put("metric", metric)
+                    .put("value", value)
+                    .put("unit", unit));
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("Invalid result for " + benchmark, e);
+        }
+        if (mListener != null) {
+            mListener.onResult(String.format(Locale.US, "%-22s %8d %-10s %12.1f %s",
+                    benchmark, rows, metric, value, unit));
+        }
+    }
+
+    /**
+     * Records the outcome of a check as 1 or 0, and logs it as an error if it is not the
+     * expected one.
+     */
+    private void check(String benchmark, int rows, String metric, boolean value,
+            boolean expected) {
+        record(benchmark, rows, metric, value ? 1 : 0, "bool");
+        if (value != expected) {
+            String check = benchmark + " " + rows + " " + metric;
+            Log.e(LOG_TAG, "Check failed: " + check + " is " + value);
+            mFailedChecks.add(check);
+        }
+    }
+
+    /**
+     * Writes the results, along with details of the device and build, to a new file in the
+     * given directory.
+     */
+    private File writeResults(File outputDir) throws IOException {
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new IOException("Cannot create " + outputDir);
+        }
+        long timestamp = System.currentTimeMillis();
+        File file = new File(outputDir, "pets-benchmark-" + timestamp + ".json");
+
+        String json;
+        try {
+            json = new JSONObject()
+                    .put("timestamp", timestamp)
+                    .put("device", Build.MANUFACTURER + " " + Build.MODEL)
+                    .put("sdk", Build.VERSION.SDK_INT)
+                    .put("version", BuildConfig.VERSION_NAME)
+                    .put("results", mResults)
+                    .put("failed_checks", new JSONArray(mFailedChecks))
+                    .toString(2);
+        } catch (JSONException e) {
+            throw new IOException("Cannot encode results", e);
+        }
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(json);
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.net.Uri;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A stand-in for the sync server, running in the app's own process, so that
+ * {@link PetSyncEngine} can be run end to end without a real server. Only included in debug
+ * builds.
+ *
+ * It speaks the protocol described in {@link PetSyncEngine} over plain HTTP on the loopback
+ * interface, one request at a time, and keeps the pets in memory. It can be told to fail
+ * requests, to exercise the retries.
+ */
+final class PetSyncServer {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetSyncServer.class.getSimpleName();
+
+    /** Largest request body accepted, in bytes */
+    private static final int MAX_BODY_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * A pet as the server has it.
+     */
+    private static final class Record {
+
+        final String syncId;
+        long version;
+        long time;
+        boolean deleted;
+        String name;
+        String breed;
+        int gender;
+        int weight;
+
+        /** Device that made the latest change */
+        String device;
+
+        Record(String syncId) {
+            this.syncId = syncId;
+        }
+
+        JSONArray toJson() {
+            return new JSONArray()
+                    .put(syncId)
+                    .put(version)
+                    .put(time)
+                    .put(deleted ? 1 : 0)
+                    .put(name)
+                    .put(breed == null ? JSONObject.NULL : breed)
+                    .put(gender)
+                    .put(weight);
+        }
+    }
+
+    private final ServerSocket mServerSocket;
+
+    /** Pets by sync ID, and by the version of their latest change */
+    private final Map<String, Record> mRecords = new HashMap<>();
+    private final TreeMap<Long, Record> mRecordsByVersion = new TreeMap<>();
+
+    /** Version of the latest change */
+    private long mVersion;
+
+    /** Number of requests still to fail */
+    private int mFailures;
+
+    /**
+     * Starts a server on a free port of the loopback interface.
+     */
+    PetSyncServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 0, InetAddress.getByName("127.0.0.1"));
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "PetSyncServer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns the URL to sync with.
+     */
+    String getUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort();
+    }
+
+    /**
+     * Makes the next requests fail with 503 Service Unavailable.
+     */
+    synchronized void failNextRequests(int count) {
+        mFailures = count;
+    }
+
+    /**
+     * Stops the server.
+     */
+    void close() throws IOException {
+        mServerSocket.close();
+    }
+
+    private void serve() {
+        while (!mServerSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                // Closed
+                return;
+            }
+            try {
+                handle(new BufferedInputStream(socket.getInputStream()),
+                        socket.getOutputStream());
+            } catch (IOException | JSONException | RuntimeException e) {
+                Log.e(LOG_TAG, "Failed to handle a request", e);
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Nothing left to do with it
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a request and writes the response. Every response closes the connection.
+     */
+    private void handle(InputStream in, OutputStream out) throws IOException, JSONException {
+        String[] requestLine = readLine(in).split(" ");
+        if (requestLine.length < 2) {
+            respond(out, 400, null);
+            return;
+        }
+        String method = requestLine[0];
+        Uri uri = Uri.parse("http://localhost" + requestLine[1]);
+
+        int contentLength = 0;
+        boolean gzipped = false;
+        String header;
+        while (!(header = readLine(in)).isEmpty()) {
+            int colon = header.indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String name = header.substring(0, colon).trim().toLowerCase(Locale.US);
+            String value = header.substring(colon + 1).trim();
+            if (name.equals("content-length")) {
+                contentLength = Integer.parseInt(value);
+            } else if (name.equals("content-encoding")) {
+                gzipped = value.equalsIgnoreCase("gzip");
+            }
+        }
+        if (contentLength < 0 || contentLength > MAX_BODY_BYTES) {
+            respond(out, 413, null);
+            return;
+        }
+        byte[] body = new byte[contentLength];
+        int read = 0;
+        while (read < contentLength) {
+            int count = in.read(body, read, contentLength - read);
+            if (count < 0) {
+                throw new IOException("Request body cut short");
+            }
+            read += count;
+        }
+        if (gzipped) {
+            body = PetSyncEngine.readFully(new GZIPInputStream(new ByteArrayInputStream(body)));
+        }
+
+        synchronized (this) {
+            if (mFailures > 0) {
+                mFailures--;
+                respond(out, 503, null);
+            } else if (!PetSyncEngine.PATH_CHANGES.equals(uri.getLastPathSegment())) {
+                respond(out, 404, null);
+            } else if (method.equals("GET")) {
+                respond(out, 200, getChanges(uri));
+            } else if (method.equals("POST")) {
+                respond(out, 200, postChanges(new JSONObject(new String(body, "UTF-8"))));
+            } else {
+                respond(out, 405, null);
+            }
+        }
+    }
+
+    /**
+     * Returns the changes after the given version, leaving out those made by the asking device.
+     */
+    private JSONObject getChanges(Uri uri) throws JSONException {
+        long since = Long.parseLong(uri.getQueryParameter(PetSyncEngine.PARAM_SINCE));
+        int limit = Integer.parseInt(uri.getQueryParameter(PetSyncEngine.PARAM_LIMIT));
+        String device = uri.getQueryParameter(PetSyncEngine.PARAM_DEVICE);
+
+        JSONArray changes = new JSONArray();
+        long next = since;
+        int scanned = 0;
+        boolean more = false;
+        for (Record record : mRecordsByVersion.tailMap(since, false).values()) {
+            if (scanned == limit) {
+                more = true;
+                break;
+            }
+            scanned++;
+            next = record.version;
+            if (!record.device.equals(device)) {
+                changes.put(record.toJson());
+            }
+        }
+        return new JSONObject()
+                .put("changes", changes)
+                .put("next", next)
+                .put("more", more);
+    }
+
+    /**
+     * Applies the changes that were made to the latest version of each pet, and returns the
+     * latest version of the others as conflicts.
+     */
+    private JSONObject postChanges(JSONObject request) throws JSONException {
+        String device = request.getString(PetSyncEngine.PARAM_DEVICE);
+        JSONArray changes = request.getJSONArray("changes");
+        JSONArray applied = new JSONArray();
+        JSONArray conflicts = new JSONArray();
+        for (int i = 0; i < changes.length(); i++) {
+            JSONArray change = changes.getJSONArray(i);
+            String syncId = change.getString(0);
+            boolean deleted = change.getInt(1) == PetSyncEngine.OP_DELETE;
+            long baseVersion = change.getLong(2);
+
+            Record record = mRecords.get(syncId);
+            if (record != null && record.version > baseVersion) {
+                conflicts.put(record.toJson());
+                continue;
+            }
+            if (record == null) {
+                if (deleted) {
+                    // Never seen, so there is nothing to delete
+                    applied.put(new JSONArray().put(syncId).put(0));
+                    continue;
+                }
+                record = new Record(syncId);
+                mRecords.put(syncId, record);
+            } else {
+                mRecordsByVersion.remove(record.version);
+            }
+
+            record.version = ++mVersion;
+            record.time = change.getLong(3);
+            record.deleted = deleted;
+            record.device = device;
+            if (!deleted) {
+                record.name = change.getString(4);
+                record.breed = change.isNull(5) ? null : change.getString(5);
+                record.gender = change.getInt(6);
+                record.weight = change.getInt(7);
+            }
+            mRecordsByVersion.put(record.version, record);
+            applied.put(new JSONArray().put(syncId).put(record.version));
+        }
+        return new JSONObject()
+                .put("applied", applied)
+                .put("conflicts", conflicts);
+    }
+
+    /**
+     * Writes a response, compressing the body with gzip.
+     */
+    private static void respond(OutputStream out, int status, JSONObject body)
+            throws IOException {
+        byte[] bytes = body == null ? new byte[0]
+                : PetSyncEngine.gzip(body.toString().getBytes("UTF-8"));
+        StringBuilder head = new StringBuilder()
+                .append("HTTP/1.1 ").append(status).append(status == 200 ? " OK" : " Error")
+                .append("\r\nContent-Length: ").append(bytes.length)
+                .append("\r\nConnection: close\r\n");
+        if (body != null) {
+            head.append("Content-Type: application/json\r\nContent-Encoding: gzip\r\n");
+        }
+        head.append("\r\n");
+        out.write(head.toString().getBytes("US-ASCII"));
+        out.write(bytes);
+        out.flush();
+    }
+
+    /**
+     * Reads a line of the request head, without the line break.
+     */
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        return line.toString("US-ASCII");
+    }
+}
@@ -15,31 +15,196 @@
  */
 package com.example.android.pets;
 
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
 import android.support.design.widget.FloatingActionButton;
+import android.support.v4.app.LoaderManager;
+import android.support.v4.content.CursorLoader;
+import android.support.v4.content.Loader;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewTreeObserver;
+import android.widget.AbsListView;
+import android.widget.AdapterView;
+import android.widget.ListView;
 import android.widget.TextView;
+import android.widget.Toast;
 
+import com.example.android.pets.data.Pet;
 import com.example.android.pets.data.PetContract.PetEntry;
-import com.example.android.pets.data.PetDbHelper;
+import com.example.android.pets.data.PetExportService;
+import com.example.android.pets.data.PetExporter;
+import com.example.android.pets.data.PetImporter;
+import com.example.android.pets.data.PetQuery;
+import com.example.android.pets.data.PetStats;
+import com.example.android.pets.data.PetSyncService;
+import com.example.android.pets.data.PetWriteQueue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Displays list of pets that were entered and stored in the app.
+ *
+ * The list is read a page at a time as it is scrolled, filtered and sorted as chosen in the
+ * options menu, see {@link PetQuery}. Only the pages near the screen are kept loaded, so
+ * scrolling far down a large shelter does not pile up cursors that every change requeries.
  */
-public class CatalogActivity extends AppCompatActivity {
+public class CatalogActivity extends AppCompatActivity implements
+        LoaderManager.LoaderCallbacks<Cursor> {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = CatalogActivity.class.getSimpleName();
+
+    /** Identifier for the loader of search results */
+    private static final int PET_LOADER = 0;
+
+    /** Identifier for the loader of the number of pets */
+    private static final int PET_COUNT_LOADER = 1;
+
+    /**
+     * Identifier for the loader of the first page of the list of pets. Each following page
+     * has the next identifier, so page n is loaded by PET_PAGE_LOADER + n.
+     */
+    private static final int PET_PAGE_LOADER = 100;
+
+    /** Number of pets left above or below the screen when the page beyond them is read */
+    private static final int LOAD_MORE_ROWS = 20;
+
+    /**
+     * Number of pets kept loaded above the top of the screen and below the bottom of it,
+     * about two pages either way. Pages further away are let go of, along with their loaders,
+     * and read again by their key if the list is scrolled back to them.
+     */
+    private static final int KEEP_ROWS = 2 * PetQuery.DEFAULT_PAGE_SIZE;
+
+    /** Most page starts kept in the saved state, for the pages nearest the top of the list */
+    private static final int MAX_SAVED_PAGES = 5;
+
+    /** Heaviest weight of a small pet, and of a medium sized pet, for the weight filters */
+    private static final int SMALL_PET_MAX_WEIGHT = 5;
+    private static final int MEDIUM_PET_MAX_WEIGHT = 20;
+
+    /** Keys for the list query and the keys the pages start after, in the saved state */
+    private static final String STATE_PET_QUERY = "pet_query";
+    private static final String STATE_PAGE_START_VALUES = "page_start_values";
+    private static final String STATE_PAGE_START_IDS = "page_start_ids";
+
+    /** Key for the search text in the loader arguments */
+    private static final String ARG_SEARCH_TEXT = "search_text";
+
+    /** How long to wait after the search text stops changing before searching, in milliseconds */
+    private static final long SEARCH_DELAY_MILLIS = 300;
+
+    /** Handler used to delay searches while the user is still typing */
+    private final Handler mHandler = new Handler();
+
+    /** Search text the loader was last started with, or an empty string for all pets */
+    private String mAppliedSearchText = "";
+
+    /** Search text waiting for {@link #mSearchRunnable} to run */
+    private String mPendingSearchText = "";
+
+    /** Runs {@link #updatePages()} once the list is done scrolling or laying out */
+    private final Runnable mUpdatePagesRunnable = new Runnable() {
+        @Override
+        public void run() {
+            updatePages();
+        }
+    };
+
+    /** Restarts the loader with {@link #mPendingSearchText} */
+    private final Runnable mSearchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mPendingSearchText.equals(mAppliedSearchText)) {
+                // The results on screen are already for this text
+                return;
+            }
+            mAppliedSearchText = mPendingSearchText;
+
+            if (!isSearching()) {
+                // Go back to the pages, which have been kept up to date during the search
+                showPages();
+                getSupportLoaderManager().destroyLoader(PET_LOADER);
+                return;
+            }
+            // Restarting the loader cancels any search that is still running
+            restartSearch();
+        }
+    };
+
+    /** Filters and sort of the list of pets, without any page bounds */
+    private PetQuery mPetQuery = new PetQuery.Builder().build();
+
+    /**
+     * Key each page of the list starts after, in order, null for the first page. Every page
+     * but the last ends where the next one starts, so no pet falls between pages as pets are
+     * added and removed. The keys of the pages that have been let go of are kept too, so they
+     * can be read again.
+     */
+    private ArrayList<PetQuery.Key> mPageStarts = new ArrayList<>();
+
+    /** First page that is loaded, or loading */
+    private int mFirstPage;
+
+    /** Cursor of each page from {@link #mFirstPage} on, or null while it is loading */
+    private final ArrayList<Cursor> mPageCursors = new ArrayList<>();
+
+    /** First page shown in the list */
+    private int mShownFirstPage;
+
+    /**
+     * Position in the list each shown page starts at, followed by the number of rows shown.
+     * Just 0 while no pages are shown.
+     */
+    private int[] mShownPagePositions = { 0 };
+
+    /** Adapter for the ListView */
+    private PetCursorAdapter mCursorAdapter;
+
+    /** Header above the list with the number of pets */
+    private TextView mCountTextView;
+
+    /** List of pets */
+    private ListView mPetListView;
 
-    /** Database helper that will provide us access to the database */
-    private PetDbHelper mDbHelper;
+    /** Grey outline of the list, shown until the first pets have loaded */
+    private View mSkeletonView;
+
+    /** View shown in place of the list once it has loaded, if there are no pets */
+    private View mEmptyView;
+
+    /** Time {@link #onCreate(Bundle)} was called, from {@link SystemClock#uptimeMillis()} */
+    private long mCreateTime;
+
+    /** Whether the startup time to the first pets on screen has been reported */
+    private boolean mReportedFirstData;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        mCreateTime = SystemClock.uptimeMillis();
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_catalog);
 
@@ -53,88 +218,425 @@ public class CatalogActivity extends AppCompatActivity {
             }
         });
 
-        // To access our database, we instantiate our subclass of SQLiteOpenHelper
-        // and pass the context, which is the current activity.
-        mDbHelper = new PetDbHelper(this);
+        // Find the ListView which will be populated with the pet data
+        ListView petListView = (ListView) findViewById(R.id.list);
+        mPetListView = petListView;
+
+        // Until the first pets have loaded, show the skeleton in place of the list. The empty
+        // view only takes over once it is known that there are no pets.
+        mSkeletonView = findViewById(R.id.skeleton_view);
+        mEmptyView = findViewById(R.id.empty_view);
+        petListView.setEmptyView(mSkeletonView);
+
+        mCountTextView = (TextView) findViewById(R.id.text_view_pet_count);
+
+        // Setup an Adapter to create a list item for each row of pet data in the Cursor.
+        // There is no pet data yet (until the loader finishes) so pass in null for the Cursor.
+        mCursorAdapter = new PetCursorAdapter(this, null);
+        petListView.setAdapter(mCursorAdapter);
+
+        // Stop loading thumbnails for list items that have scrolled out of view
+        petListView.setRecyclerListener(new AbsListView.RecyclerListener() {
+            @Override
+            public void onMovedToScrapHeap(View view) {
+                mCursorAdapter.onViewRecycled(view);
+            }
+        });
+
+        // Read the page beyond the pages shown before the user gets to either end of them, and
+        // let go of the pages far from the screen. This is also called as each page is shown,
+        // so pages are read until the screen is filled.
+        petListView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                    int totalItemCount) {
+                // The pages are not changed while the list is laying itself out
+                mHandler.removeCallbacks(mUpdatePagesRunnable);
+                mHandler.post(mUpdatePagesRunnable);
+            }
+        });
+
+        // Open the editor for a pet when it is clicked
+        petListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
+                Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
+                intent.setData(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id));
+                startActivity(intent);
+            }
+        });
+
+        // Kick off the loaders. The queries run on background threads, and the loaders keep
+        // their results across restarts of the activity until the provider reports a change.
+        // Only the pages near the screen are loaded, so a large shelter is as quick to show,
+        // and as light to keep, as a small one.
+        PageState pageState = (PageState) getLastCustomNonConfigurationInstance();
+        int pages;
+        if (pageState != null) {
+            mPetQuery = pageState.petQuery;
+            mPageStarts = pageState.pageStarts;
+            mFirstPage = pageState.firstPage;
+            pages = pageState.loadedPages;
+        } else {
+            mPageStarts.add(null);
+            if (savedInstanceState != null) {
+                restorePages(savedInstanceState);
+            }
+            pages = mPageStarts.size();
+        }
+        mShownFirstPage = mFirstPage;
+        for (int page = mFirstPage; page < mFirstPage + pages; page++) {
+            mPageCursors.add(null);
+            getSupportLoaderManager().initLoader(PET_PAGE_LOADER + page, null, this);
+        }
+
+        // The search view starts out collapsed, so drop any search from before the activity
+        // was recreated
+        getSupportLoaderManager().destroyLoader(PET_LOADER);
+
+        // The header is filled in by a separate loader, which reads the number of pets from a
+        // summary table rather than counting the rows of the list
+        getSupportLoaderManager().initLoader(PET_COUNT_LOADER, null, this);
+
+        // Log how long the first frame took, for comparing startup times
+        final View decorView = getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+                    @Override
+                    public boolean onPreDraw() {
+                        decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                        Log.i(LOG_TAG, "First frame after "
+                                + (SystemClock.uptimeMillis() - mCreateTime) + "ms");
+                        return true;
+                    }
+                });
+
+        // Make sure the nightly export is scheduled, once the first frame is out of the way and
+        // the main thread is idle. This does nothing if the export is already scheduled, so the
+        // alarm is not pushed back on every start.
+        Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+            @Override
+            public boolean queueIdle() {
+                PetExportService.scheduleNightlyExport(getApplicationContext());
+                return false;
+            }
+        });
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_PET_QUERY, mPetQuery.toUri(PetEntry.CONTENT_URI).toString());
+
+        // The first page always starts at the beginning of the list. Only the first few pages
+        // are kept, so the saved state stays small however far the list has been read. After
+        // a configuration change every page is kept anyway, see
+        // onRetainCustomNonConfigurationInstance().
+        int pages = Math.min(mPageStarts.size(), MAX_SAVED_PAGES);
+        String[] values = new String[pages - 1];
+        long[] ids = new long[pages - 1];
+        for (int page = 1; page < pages; page++) {
+            values[page - 1] = mPageStarts.get(page).getValue();
+            ids[page - 1] = mPageStarts.get(page).getId();
+        }
+        outState.putStringArray(STATE_PAGE_START_VALUES, values);
+        outState.putLongArray(STATE_PAGE_START_IDS, ids);
     }
 
     @Override
-    protected void onStart() {
-        super.onStart();
-        displayDatabaseInfo();
+    public Object onRetainCustomNonConfigurationInstance() {
+        // The loaders of the loaded pages are kept too
+        return new PageState(mPetQuery, mPageStarts, mFirstPage, mPageCursors.size());
     }
 
     /**
-     * Temporary helper method to display information in the onscreen TextView about the state of
-     * the pets database.
+     * The list query and the pages read so far, kept across a configuration change along with
+     * the loaders of the loaded pages.
      */
-    private void displayDatabaseInfo() {
-        // Create and/or open a database to read from it
-        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+    private static final class PageState {
+        final PetQuery petQuery;
+        final ArrayList<PetQuery.Key> pageStarts;
+        final int firstPage;
+        final int loadedPages;
 
-        // Define a projection that specifies which columns from the database
-        // you will actually use after this query.
-        String[] projection = {
-                PetEntry._ID,
-                PetEntry.COLUMN_PET_NAME,
-                PetEntry.COLUMN_PET_BREED,
-                PetEntry.COLUMN_PET_GENDER,
-                PetEntry.COLUMN_PET_WEIGHT };
-
-        // Perform a query on the pets table
-        Cursor cursor = db.query(
-                PetEntry.TABLE_NAME,   // The table to query
-                projection,            // The columns to return
-                null,                  // The columns for the WHERE clause
-                null,                  // The values for the WHERE clause
-                null,                  // Don't group the rows
-                null,                  // Don't filter by row groups
-                null);                   // The sort order
-
-        TextView displayView = (TextView) findViewById(R.id.text_view_pet);
-
-        try {
-            // Create a header in the Text View that looks like this:
-            //
-            // The pets table contains <number of rows in Cursor> pets.
-            // _id - name - breed - gender - weight
-            //
-            // In the while loop below, iterate through the rows of the cursor and display
-            // the information from each column in this order.
-            displayView.setText("The pets table contains " + cursor.getCount() + " pets.\n\n");
-            displayView.append(PetEntry._ID + " - " +
-                    PetEntry.COLUMN_PET_NAME + " - " +
-                    PetEntry.COLUMN_PET_BREED + " - " +
-                    PetEntry.COLUMN_PET_GENDER + " - " +
-                    PetEntry.COLUMN_PET_WEIGHT + "\n");
-
-            // Figure out the index of each column
-            int idColumnIndex = cursor.getColumnIndex(PetEntry._ID);
-            int nameColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_NAME);
-            int breedColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_BREED);
-            int genderColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_GENDER);
-            int weightColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_WEIGHT);
-
-            // Iterate through all the returned rows in the cursor
-            while (cursor.moveToNext()) {
-                // Use that index to extract the String or Int value of the word
-                // at the current row the cursor is on.
-                int currentID = cursor.getInt(idColumnIndex);
-                String currentName = cursor.getString(nameColumnIndex);
-                String currentBreed = cursor.getString(breedColumnIndex);
-                int currentGender = cursor.getInt(genderColumnIndex);
-                int currentWeight = cursor.getInt(weightColumnIndex);
-                // Display the values from each column of the current row in the cursor in the TextView
-                displayView.append(("\n" + currentID + " - " +
-                        currentName + " - " +
-                        currentBreed + " - " +
-                        currentGender + " - " +
-                        currentWeight));
-            }
-        } finally {
-            // Always close the cursor when you're done reading from it. This releases all its
-            // resources and makes it invalid.
-            cursor.close();
+        PageState(PetQuery petQuery, ArrayList<PetQuery.Key> pageStarts, int firstPage,
+                int loadedPages) {
+            this.petQuery = petQuery;
+            this.pageStarts = pageStarts;
+            this.firstPage = firstPage;
+            this.loadedPages = loadedPages;
+        }
+    }
+
+    /**
+     * Restores the list query and the first pages from the saved state.
+     */
+    private void restorePages(Bundle savedInstanceState) {
+        String petQuery = savedInstanceState.getString(STATE_PET_QUERY);
+        String[] values = savedInstanceState.getStringArray(STATE_PAGE_START_VALUES);
+        long[] ids = savedInstanceState.getLongArray(STATE_PAGE_START_IDS);
+        if (petQuery == null || values == null || ids == null) {
+            return;
+        }
+        mPetQuery = PetQuery.fromUri(Uri.parse(petQuery));
+        for (int i = 0; i < values.length; i++) {
+            mPageStarts.add(new PetQuery.Key(values[i], ids[i]));
+        }
+    }
+
+    /**
+     * Returns whether search results are shown rather than the pages of the list.
+     */
+    private boolean isSearching() {
+        return !TextUtils.isEmpty(mAppliedSearchText);
+    }
+
+    /**
+     * Starts the search for {@link #mAppliedSearchText} over, with the current filters.
+     */
+    private void restartSearch() {
+        Bundle args = new Bundle();
+        args.putString(ARG_SEARCH_TEXT, mAppliedSearchText);
+        getSupportLoaderManager().restartLoader(PET_LOADER, args, this);
+    }
+
+    /**
+     * Returns the content URI of the given page of the list.
+     */
+    private Uri getPageUri(int page) {
+        PetQuery.Builder builder = mPetQuery.buildUpon().setAfter(mPageStarts.get(page));
+        if (page + 1 < mPageStarts.size()) {
+            builder.setUntil(mPageStarts.get(page + 1));
+        } else {
+            builder.setPageSize(PetQuery.DEFAULT_PAGE_SIZE);
+        }
+        return builder.build().toUri(PetEntry.CONTENT_URI);
+    }
+
+    /**
+     * Starts reading a new last page of the list, after the given key. The last page read so
+     * far must be loaded.
+     */
+    private void startPage(PetQuery.Key start) {
+        int page = mPageStarts.size();
+        mPageStarts.add(start);
+        mPageCursors.add(null);
+        if (page > 0) {
+            // The page before now ends where this one starts, rather than after a number of
+            // pets, the next time it is read. Its loader keeps its current pets until then.
+            Loader<Cursor> previous = getSupportLoaderManager().getLoader(
+                    PET_PAGE_LOADER + page - 1);
+            if (previous instanceof CursorLoader) {
+                ((CursorLoader) previous).setUri(getPageUri(page - 1));
+            }
+        }
+        getSupportLoaderManager().initLoader(PET_PAGE_LOADER + page, null, this);
+    }
+
+    /**
+     * Starts reading the page after the last one read so far, unless it was the end of the
+     * list. The last page must be loaded.
+     */
+    private void loadNextPage() {
+        Cursor lastPage = mPageCursors.get(mPageCursors.size() - 1);
+        if (lastPage.getCount() < PetQuery.DEFAULT_PAGE_SIZE) {
+            return;
+        }
+        lastPage.moveToLast();
+        startPage(mPetQuery.getKey(lastPage));
+    }
+
+    /**
+     * Lets go of the shown pages that are more than {@link #KEEP_ROWS} pets away from the
+     * screen, and reads the page before or after the shown pages when the screen gets near
+     * either end of them. A page that was let go of is read again by its key.
+     */
+    private void updatePages() {
+        int shownPages = mShownPagePositions.length - 1;
+        if (isSearching() || shownPages == 0) {
+            return;
+        }
+        int firstVisible = mPetListView.getFirstVisiblePosition();
+        int endVisible = mPetListView.getLastVisiblePosition() + 1;
+        int lastPage = mFirstPage + mPageCursors.size() - 1;
+        boolean shownFromFirst = mShownFirstPage == mFirstPage;
+        boolean shownToLast = mShownFirstPage + shownPages - 1 == lastPage;
+
+        // Pages are only let go of from the ends of the loaded pages, and the page on screen
+        // is always kept
+        int dropAbove = 0;
+        while (shownFromFirst && dropAbove < shownPages - 1
+                && firstVisible - mShownPagePositions[dropAbove + 1] >= KEEP_ROWS) {
+            dropAbove++;
+        }
+        int dropBelow = 0;
+        while (shownToLast && dropAbove + dropBelow < shownPages - 1
+                && mShownPagePositions[shownPages - dropBelow - 1] - endVisible >= KEEP_ROWS) {
+            dropBelow++;
+        }
+        if (dropAbove > 0 || dropBelow > 0) {
+            List<Integer> droppedPages = new ArrayList<>();
+            for (int i = 0; i < dropAbove; i++) {
+                droppedPages.add(mFirstPage + i);
+            }
+            for (int i = 0; i < dropBelow; i++) {
+                droppedPages.add(lastPage - i);
+            }
+            mPageCursors.subList(mPageCursors.size() - dropBelow, mPageCursors.size()).clear();
+            mPageCursors.subList(0, dropAbove).clear();
+            mFirstPage += dropAbove;
+
+            // Let go of the pages before their loaders close them. Showing the pages scrolls
+            // the list, which calls this again for any page to read.
+            showPages();
+            for (int page : droppedPages) {
+                getSupportLoaderManager().destroyLoader(PET_PAGE_LOADER + page);
+            }
+            return;
+        }
+
+        if (shownToLast && endVisible + LOAD_MORE_ROWS >= mShownPagePositions[shownPages]) {
+            if (lastPage + 1 < mPageStarts.size()) {
+                mPageCursors.add(null);
+                getSupportLoaderManager().initLoader(PET_PAGE_LOADER + lastPage + 1, null, this);
+            } else {
+                loadNextPage();
+            }
+        }
+        if (shownFromFirst && mFirstPage > 0 && firstVisible < LOAD_MORE_ROWS) {
+            mFirstPage--;
+            mPageCursors.add(0, null);
+            getSupportLoaderManager().initLoader(PET_PAGE_LOADER + mFirstPage, null, this);
+        }
+    }
+
+    /**
+     * Shows the list with the given filters and sort, starting again from the first page.
+     */
+    private void applyPetQuery(PetQuery petQuery) {
+        Uri uri = petQuery.toUri(PetEntry.CONTENT_URI);
+        if (uri.equals(mPetQuery.toUri(PetEntry.CONTENT_URI))) {
+            return;
+        }
+        mPetQuery = petQuery;
+
+        // Let go of the pages before their loaders close them, and show the skeleton until
+        // the first page of the new list is ready
+        if (!isSearching()) {
+            mCursorAdapter.swapCursor(null);
+            showSkeleton();
+        }
+        int firstPage = mFirstPage;
+        int pages = mPageCursors.size();
+        mPageStarts.clear();
+        mPageCursors.clear();
+        mFirstPage = 0;
+        mShownFirstPage = 0;
+        mShownPagePositions = new int[] { 0 };
+        for (int page = firstPage; page < firstPage + pages; page++) {
+            getSupportLoaderManager().destroyLoader(PET_PAGE_LOADER + page);
+        }
+        startPage(null);
+
+        // The filters also apply to search results
+        if (isSearching()) {
+            restartSearch();
+        }
+    }
+
+    /**
+     * Shows the loaded pages, from the first one that has loaded up to the next one that is
+     * still loading. The pet at the top of the screen stays in place as pages above it are
+     * added or let go of.
+     */
+    private void showPages() {
+        int first = 0;
+        while (first < mPageCursors.size() && mPageCursors.get(first) == null) {
+            first++;
+        }
+        int end = first;
+        while (end < mPageCursors.size() && mPageCursors.get(end) != null) {
+            end++;
+        }
+
+        // Where the pet at the top of the screen is before the pages change
+        int topPosition = mPetListView.getFirstVisiblePosition();
+        View topView = mPetListView.getChildAt(0);
+        int topOffset = topView == null ? 0 : topView.getTop() - mPetListView.getPaddingTop();
+        int topPage = getShownPage(topPosition);
+        int topRow = topPage < 0 ? 0
+                : topPosition - mShownPagePositions[topPage - mShownFirstPage];
+
+        int oldShownFirstPage = mShownFirstPage;
+        mShownFirstPage = mFirstPage + first;
+        mShownPagePositions = new int[end - first + 1];
+        for (int i = first; i < end; i++) {
+            mShownPagePositions[i - first + 1] = mShownPagePositions[i - first]
+                    + mPageCursors.get(i).getCount();
+        }
+        if (first == end) {
+            mCursorAdapter.swapCursor(null);
+            return;
+        }
+
+        // The combined cursor is not closed, as that would close the pages, which belong to
+        // their loaders
+        List<Cursor> cursors = mPageCursors.subList(first, end);
+        mCursorAdapter.swapCursor(cursors.size() == 1
+                ? cursors.get(0)
+                : new PetPagesCursor(cursors.toArray(new Cursor[cursors.size()])));
+        if (mShownFirstPage != oldShownFirstPage && topPage >= mShownFirstPage
+                && topPage < mShownFirstPage + cursors.size()) {
+            mPetListView.setSelectionFromTop(
+                    mShownPagePositions[topPage - mShownFirstPage] + topRow, topOffset);
+        }
+        showLoadedList();
+    }
+
+    /**
+     * Returns the page shown at the given position in the list, or -1 if there is none.
+     */
+    private int getShownPage(int position) {
+        for (int i = 1; i < mShownPagePositions.length; i++) {
+            if (position < mShownPagePositions[i]) {
+                return mShownFirstPage + i - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Shows the skeleton in place of the list until it has loaded.
+     */
+    private void showSkeleton() {
+        mEmptyView.setVisibility(View.GONE);
+        mPetListView.setEmptyView(mSkeletonView);
+    }
+
+    /**
+     * Replaces the skeleton with the list, or with the empty view if there are no pets, once
+     * the first pets have loaded. The first time, reports how long it took, so that
+     * "adb shell am start -W" and the "Fully drawn" line in the log give the startup time to
+     * the first pets on screen.
+     */
+    private void showLoadedList() {
+        if (mPetListView.getEmptyView() != mEmptyView) {
+            mSkeletonView.setVisibility(View.GONE);
+            mPetListView.setEmptyView(mEmptyView);
+        }
+
+        if (!mReportedFirstData) {
+            mReportedFirstData = true;
+            Log.i(LOG_TAG, "First pets after " + (SystemClock.uptimeMillis() - mCreateTime)
+                    + "ms");
+            // On KitKat this needs a permission the app does not have
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                reportFullyDrawn();
+            }
         }
     }
 
@@ -142,9 +644,6 @@ public class CatalogActivity extends AppCompatActivity {
      * Helper method to insert hardcoded pet data into the database. For debugging purposes only.
      */
     private void insertPet() {
-        // Gets the database in write mode
-        SQLiteDatabase db = mDbHelper.getWritableDatabase();
-
         // Create a ContentValues object where column names are the keys,
         // and Toto's pet attributes are the values.
         ContentValues values = new ContentValues();
@@ -153,14 +652,226 @@ public class CatalogActivity extends AppCompatActivity {
         values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_MALE);
         values.put(PetEntry.COLUMN_PET_WEIGHT, 7);
 
-        // Insert a new row for Toto in the database, returning the ID of that new row.
-        // The first argument for db.insert() is the pets table name.
-        // The second argument provides the name of a column in which the framework
-        // can insert NULL in the event that the ContentValues is empty (if
-        // this is set to "null", then the framework will not insert a row when
-        // there are no values).
-        // The third argument is the ContentValues object containing the info for Toto.
-        long newRowId = db.insert(PetEntry.TABLE_NAME, null, values);
+        // Queue a new row for Toto to be inserted in the background.
+        // The provider notifies the loader once the pets table has changed.
+        PetWriteQueue.getInstance(this).insert(values, null);
+    }
+
+    /**
+     * Asks the user to confirm deleting every pet, then deletes them.
+     */
+    private void showDeleteAllConfirmationDialog() {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setMessage(R.string.delete_all_dialog_msg);
+        builder.setPositiveButton(R.string.delete, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                deleteAllPets();
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, null);
+        builder.create().show();
+    }
+
+    /**
+     * Deletes every pet in the background. The provider marks them all as deleted in one
+     * statement, so the list empties straight away, and the rows are removed later.
+     */
+    private void deleteAllPets() {
+        PetWriteQueue.getInstance(this).delete(PetEntry.CONTENT_URI, null);
+    }
+
+    /**
+     * Imports pets from every CSV and JSON file in the app's external files directory, on a
+     * background thread.
+     */
+    private void importPets() {
+        new ImportPetsTask(getApplicationContext()).execute(getExternalFilesDir(null));
+    }
+
+    /**
+     * {@link AsyncTask} that imports the pet files in a directory with {@link PetImporter}.
+     * It only holds on to the application context, so it does not leak the activity.
+     */
+    private static class ImportPetsTask extends AsyncTask<File, Void, Integer> {
+
+        private final Context mContext;
+        private boolean mFailed;
+
+        ImportPetsTask(Context context) {
+            mContext = context;
+        }
+
+        @Override
+        protected Integer doInBackground(File... dirs) {
+            int rowsInserted = 0;
+            File dir = dirs[0];
+            File[] files = dir == null ? null : dir.listFiles();
+            if (files == null) {
+                return rowsInserted;
+            }
+
+            PetImporter importer = new PetImporter(mContext);
+            for (File file : files) {
+                String name = file.getName();
+                if (!name.endsWith(".csv") && !name.endsWith(".json")) {
+                    continue;
+                }
+                try {
+                    rowsInserted += importer.importFile(file, null).rowsInserted;
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Failed to import pets from " + file, e);
+                    mFailed = true;
+                    break;
+                }
+            }
+            return rowsInserted;
+        }
+
+        @Override
+        protected void onPostExecute(Integer rowsInserted) {
+            int message = mFailed ? R.string.import_pets_failed : R.string.import_pets_finished;
+            Toast.makeText(mContext, mContext.getString(message, rowsInserted),
+                    Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    /**
+     * Exports every pet to a file in the app's external files directory, on a background
+     * thread.
+     */
+    private void exportPets() {
+        new ExportPetsTask(getApplicationContext()).execute();
+    }
+
+    /**
+     * {@link AsyncTask} that exports the pets with {@link PetExportService}, the same way the
+     * nightly export does. It only holds on to the application context, so it does not leak the
+     * activity.
+     */
+    private static class ExportPetsTask extends AsyncTask<Void, Void, PetExporter.Result> {
+
+        private final Context mContext;
+
+        ExportPetsTask(Context context) {
+            mContext = context;
+        }
+
+        @Override
+        protected PetExporter.Result doInBackground(Void... params) {
+            try {
+                return PetExportService.export(mContext);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Failed to export pets", e);
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(PetExporter.Result result) {
+            String message = result == null
+                    ? mContext.getString(R.string.export_pets_failed)
+                    : mContext.getString(R.string.export_pets_finished, result.rowsExported);
+            Toast.makeText(mContext, message, Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    /**
+     * Searches for pets matching the given text once it has stopped changing for
+     * {@link #SEARCH_DELAY_MILLIS}, so that a search is not run for every key press.
+     */
+    private void scheduleSearch(String searchText) {
+        mPendingSearchText = searchText.trim();
+        mHandler.removeCallbacks(mSearchRunnable);
+        mHandler.postDelayed(mSearchRunnable, SEARCH_DELAY_MILLIS);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mHandler.removeCallbacks(mSearchRunnable);
+        mHandler.removeCallbacks(mUpdatePagesRunnable);
+    }
+
+    @Override
+    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+        if (id == PET_COUNT_LOADER) {
+            return new CursorLoader(this, PetEntry.COUNT_URI, null, null, null, null);
+        }
+
+        // Define a projection that specifies which columns from the database
+        // you will actually use after this query. These are the columns of a Pet, so the
+        // provider has the query compiled ahead of time.
+        String[] projection = Pet.PROJECTION;
+
+        // Search the pets if there is search text, otherwise read a page of the list. Both
+        // are filtered in the provider, by the PetQuery added to the URI.
+        Uri uri;
+        if (id == PET_LOADER) {
+            uri = mPetQuery.toUri(PetEntry.buildSearchUri(args.getString(ARG_SEARCH_TEXT)));
+        } else {
+            uri = getPageUri(id - PET_PAGE_LOADER);
+        }
+
+        // This loader will execute the ContentProvider's query method on a background thread
+        return new CursorLoader(this,   // Parent activity context
+                uri,                    // Provider content URI to query
+                projection,             // Columns to include in the resulting Cursor
+                null,                   // No selection clause
+                null,                   // No selection arguments
+                null);                  // Sort order of the PetQuery
+    }
+
+    @Override
+    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+        if (loader.getId() == PET_COUNT_LOADER) {
+            int petCount = cursor.moveToFirst() ? cursor.getInt(0) : 0;
+            mCountTextView.setText(getString(R.string.catalog_pet_count, petCount));
+            return;
+        }
+
+        if (loader.getId() == PET_LOADER) {
+            // Update {@link PetCursorAdapter} with this new cursor containing the search results
+            if (isSearching()) {
+                mCursorAdapter.swapCursor(cursor);
+                showLoadedList();
+            }
+            return;
+        }
+
+        // Show the updated page along with the others, unless search results are shown
+        int index = loader.getId() - PET_PAGE_LOADER - mFirstPage;
+        if (index < 0 || index >= mPageCursors.size()) {
+            return;
+        }
+        mPageCursors.set(index, cursor);
+        if (!isSearching()) {
+            showPages();
+        }
+    }
+
+    @Override
+    public void onLoaderReset(Loader<Cursor> loader) {
+        if (loader.getId() == PET_COUNT_LOADER) {
+            mCountTextView.setText(null);
+            return;
+        }
+
+        if (loader.getId() == PET_LOADER) {
+            // Callback called when the data needs to be deleted
+            if (isSearching()) {
+                mCursorAdapter.swapCursor(null);
+            }
+            return;
+        }
+
+        // Pages being dropped by applyPetQuery() or updatePages() have already been let go of
+        int index = loader.getId() - PET_PAGE_LOADER - mFirstPage;
+        if (index >= 0 && index < mPageCursors.size()) {
+            mPageCursors.set(index, null);
+            if (!isSearching()) {
+                showPages();
+            }
+        }
     }
 
     @Override
@@ -168,21 +879,227 @@ public class CatalogActivity extends AppCompatActivity {
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+
+        // Search as the user types
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                scheduleSearch(query);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                scheduleSearch(newText);
+                return true;
+            }
+        });
+
+        // The weight filters are labelled with the weights they are for
+        menu.findItem(R.id.action_filter_small).setTitle(
+                getString(R.string.filter_weight_up_to, SMALL_PET_MAX_WEIGHT));
+        menu.findItem(R.id.action_filter_medium).setTitle(getString(
+                R.string.filter_weight_between, SMALL_PET_MAX_WEIGHT + 1, MEDIUM_PET_MAX_WEIGHT));
+        menu.findItem(R.id.action_filter_large).setTitle(
+                getString(R.string.filter_weight_over, MEDIUM_PET_MAX_WEIGHT));
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        super.onPrepareOptionsMenu(menu);
+        // Check the sort and filters the list is shown with
+        menu.findItem(getSortItemId()).setChecked(true);
+        menu.findItem(getGenderFilterItemId()).setChecked(true);
+        menu.findItem(getWeightFilterItemId()).setChecked(true);
+        menu.findItem(R.id.action_filter_breed).setChecked(mPetQuery.getBreed() != null);
+        // Only offer to sync if the build has a sync server
+        menu.findItem(R.id.action_sync_pets).setVisible(PetSyncService.isEnabled());
+        return true;
+    }
+
+    /**
+     * Returns the menu item of the sort the list is shown with.
+     */
+    private int getSortItemId() {
+        switch (mPetQuery.getSort()) {
+            case NAME:
+                return R.id.action_sort_by_name;
+            case WEIGHT:
+                return R.id.action_sort_by_weight;
+            default:
+                return R.id.action_sort_by_id;
+        }
+    }
+
+    /**
+     * Returns the menu item of the gender filter the list is shown with.
+     */
+    private int getGenderFilterItemId() {
+        switch (mPetQuery.getGender()) {
+            case PetEntry.GENDER_MALE:
+                return R.id.action_filter_male;
+            case PetEntry.GENDER_FEMALE:
+                return R.id.action_filter_female;
+            case PetEntry.GENDER_UNKNOWN:
+                return R.id.action_filter_unknown_gender;
+            default:
+                return R.id.action_filter_any_gender;
+        }
+    }
+
+    /**
+     * Returns the menu item of the weight filter the list is shown with.
+     */
+    private int getWeightFilterItemId() {
+        if (mPetQuery.getMaxWeight() == SMALL_PET_MAX_WEIGHT) {
+            return R.id.action_filter_small;
+        } else if (mPetQuery.getMaxWeight() == MEDIUM_PET_MAX_WEIGHT) {
+            return R.id.action_filter_medium;
+        } else if (mPetQuery.getMinWeight() == MEDIUM_PET_MAX_WEIGHT + 1) {
+            return R.id.action_filter_large;
+        }
+        return R.id.action_filter_any_weight;
+    }
+
+    /**
+     * Reads the breeds of the pets in the background, then lets the user pick one to filter
+     * the list on.
+     */
+    private void chooseBreed() {
+        new LoadBreedsTask(this).execute();
+    }
+
+    /**
+     * Shows a dialog for picking the breed to filter the list on, from the given breeds.
+     */
+    private void showBreedDialog(final List<String> breeds) {
+        String[] items = new String[breeds.size() + 1];
+        items[0] = getString(R.string.filter_any_breed);
+        for (int i = 0; i < breeds.size(); i++) {
+            items[i + 1] = breeds.get(i);
+        }
+        int checkedItem = breeds.indexOf(mPetQuery.getBreed()) + 1;
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.filter_breed);
+        builder.setSingleChoiceItems(items, checkedItem, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                dialog.dismiss();
+                String breed = which == 0 ? null : breeds.get(which - 1);
+                applyPetQuery(mPetQuery.buildUpon().setBreed(breed).build());
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, null);
+        builder.create().show();
+    }
+
+    /**
+     * {@link AsyncTask} that reads the breeds of the pets from the summary tables, the most
+     * common first. It only holds a weak reference to the activity, so it does not leak the
+     * activity if it is closed.
+     */
+    private static class LoadBreedsTask extends AsyncTask<Void, Void, List<String>> {
+
+        private final Context mContext;
+        private final WeakReference<CatalogActivity> mActivity;
+
+        LoadBreedsTask(CatalogActivity activity) {
+            mContext = activity.getApplicationContext();
+            mActivity = new WeakReference<>(activity);
+        }
+
+        @Override
+        protected List<String> doInBackground(Void... params) {
+            List<String> breeds = new ArrayList<>();
+            for (String breed : new PetStats(mContext).getCountsByBreed().keySet()) {
+                // Pets without a breed are counted under an empty breed
+                if (!breed.isEmpty()) {
+                    breeds.add(breed);
+                }
+            }
+            return breeds;
+        }
+
+        @Override
+        protected void onPostExecute(List<String> breeds) {
+            CatalogActivity activity = mActivity.get();
+            if (activity != null && !activity.isFinishing()) {
+                activity.showBreedDialog(breeds);
+            }
+        }
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
         switch (item.getItemId()) {
+            // Respond to a click on one of the "Sort" menu options
+            case R.id.action_sort_by_id:
+                applyPetQuery(mPetQuery.buildUpon().setSort(PetQuery.Sort.ID).build());
+                return true;
+            case R.id.action_sort_by_name:
+                applyPetQuery(mPetQuery.buildUpon().setSort(PetQuery.Sort.NAME).build());
+                return true;
+            case R.id.action_sort_by_weight:
+                applyPetQuery(mPetQuery.buildUpon().setSort(PetQuery.Sort.WEIGHT).build());
+                return true;
+            // Respond to a click on one of the "Filter" menu options
+            case R.id.action_filter_any_gender:
+                applyPetQuery(mPetQuery.buildUpon().setGender(PetQuery.ANY_GENDER).build());
+                return true;
+            case R.id.action_filter_male:
+                applyPetQuery(mPetQuery.buildUpon().setGender(PetEntry.GENDER_MALE).build());
+                return true;
+            case R.id.action_filter_female:
+                applyPetQuery(mPetQuery.buildUpon().setGender(PetEntry.GENDER_FEMALE).build());
+                return true;
+            case R.id.action_filter_unknown_gender:
+                applyPetQuery(mPetQuery.buildUpon().setGender(PetEntry.GENDER_UNKNOWN).build());
+                return true;
+            case R.id.action_filter_any_weight:
+                applyPetQuery(mPetQuery.buildUpon().setWeightRange(
+                        PetQuery.NO_WEIGHT_LIMIT, PetQuery.NO_WEIGHT_LIMIT).build());
+                return true;
+            case R.id.action_filter_small:
+                applyPetQuery(mPetQuery.buildUpon().setWeightRange(
+                        PetQuery.NO_WEIGHT_LIMIT, SMALL_PET_MAX_WEIGHT).build());
+                return true;
+            case R.id.action_filter_medium:
+                applyPetQuery(mPetQuery.buildUpon().setWeightRange(
+                        SMALL_PET_MAX_WEIGHT + 1, MEDIUM_PET_MAX_WEIGHT).build());
+                return true;
+            case R.id.action_filter_large:
+                applyPetQuery(mPetQuery.buildUpon().setWeightRange(
+                        MEDIUM_PET_MAX_WEIGHT + 1, PetQuery.NO_WEIGHT_LIMIT).build());
+                return true;
+            case R.id.action_filter_breed:
+                chooseBreed();
+                return true;
+            case R.id.action_clear_filters:
+                applyPetQuery(new PetQuery.Builder().setSort(mPetQuery.getSort()).build());
+                return true;
             // Respond to a click on the "Insert dummy data" menu option
             case R.id.action_insert_dummy_data:
                 insertPet();
-                displayDatabaseInfo();
+                return true;
+            // Respond to a click on the "Import Pets" menu option
+            case R.id.action_import_pets:
+                importPets();
+                return true;
+            // Respond to a click on the "Export Pets" menu option
+            case R.id.action_export_pets:
+                exportPets();
+                return true;
+            // Respond to a click on the "Sync Now" menu option
+            case R.id.action_sync_pets:
+                PetSyncService.enqueueSync(getApplicationContext());
                 return true;
             // Respond to a click on the "Delete all entries" menu option
             case R.id.action_delete_all_entries:
-                // Do nothing for now
+                showDeleteAllConfirmationDialog();
                 return true;
         }
         return super.onOptionsItemSelected(item);
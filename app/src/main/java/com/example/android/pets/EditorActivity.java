@@ -15,28 +15,68 @@
  */
 package com.example.android.pets;
 
+import android.content.ContentUris;
 import android.content.ContentValues;
-import android.database.sqlite.SQLiteDatabase;
+import android.content.Context;
+import android.content.DialogInterface;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.support.v4.app.LoaderManager;
 import android.support.v4.app.NavUtils;
+import android.support.v4.content.CursorLoader;
+import android.support.v4.content.Loader;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.text.TextUtils;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.EditText;
+import android.widget.ImageView;
 import android.widget.Spinner;
 import android.widget.Toast;
 
+import com.example.android.pets.data.Pet;
 import com.example.android.pets.data.PetContract.PetEntry;
-import com.example.android.pets.data.PetDbHelper;
+import com.example.android.pets.data.PetPhotoStore;
+import com.example.android.pets.data.PetValidator;
+import com.example.android.pets.data.PetWriteQueue;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
 
 /**
  * Allows user to create a new pet or edit an existing one.
  */
-public class EditorActivity extends AppCompatActivity {
+public class EditorActivity extends AppCompatActivity implements
+        LoaderManager.LoaderCallbacks<Cursor> {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = EditorActivity.class.getSimpleName();
+
+    /** Identifier for the pet data loader */
+    private static final int EXISTING_PET_LOADER = 0;
+
+    /** Request code for picking a photo of the pet */
+    private static final int REQUEST_PICK_PHOTO = 1;
+
+    /**
+     * Gender for each position of the gender spinner, in the order of
+     * R.array.array_gender_options.
+     */
+    private static final int[] SPINNER_GENDERS = {
+            PetEntry.GENDER_UNKNOWN,
+            PetEntry.GENDER_MALE,
+            PetEntry.GENDER_FEMALE };
+
+    /** Content URI for the existing pet (null if it's a new pet) */
+    private Uri mCurrentPetUri;
 
     /** EditText field to enter the pet's name */
     private EditText mNameEditText;
@@ -50,6 +90,12 @@ public class EditorActivity extends AppCompatActivity {
     /** EditText field to enter the pet's gender */
     private Spinner mGenderSpinner;
 
+    /** ImageView showing the pet's photo, tapped to choose a photo */
+    private ImageView mPhotoImageView;
+
+    /** URI of the pet's photo in {@link PetPhotoStore}, or null if there is no photo */
+    private String mPhotoUri;
+
     /**
      * Gender of the pet. The possible valid values are in the PetContract.java file:
      * {@link PetEntry#GENDER_UNKNOWN}, {@link PetEntry#GENDER_MALE}, or
@@ -62,13 +108,39 @@ public class EditorActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_editor);
 
+        // Examine the intent that was used to launch this activity,
+        // in order to figure out if we're creating a new pet or editing an existing one.
+        mCurrentPetUri = getIntent().getData();
+
         // Find all relevant views that we will need to read user input from
         mNameEditText = (EditText) findViewById(R.id.edit_pet_name);
         mBreedEditText = (EditText) findViewById(R.id.edit_pet_breed);
         mWeightEditText = (EditText) findViewById(R.id.edit_pet_weight);
         mGenderSpinner = (Spinner) findViewById(R.id.spinner_gender);
+        mPhotoImageView = (ImageView) findViewById(R.id.edit_pet_photo);
 
         setupSpinner();
+
+        // Let the user choose a photo from any app that provides images
+        mPhotoImageView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+                intent.setType("image/*");
+                startActivityForResult(Intent.createChooser(intent,
+                        getString(R.string.choose_photo)), REQUEST_PICK_PHOTO);
+            }
+        });
+
+        if (mCurrentPetUri == null) {
+            // This is a new pet, so there is nothing to delete
+            setTitle(R.string.editor_activity_title_new_pet);
+            invalidateOptionsMenu();
+        } else {
+            // This is an existing pet, so load its current values into the fields
+            setTitle(R.string.editor_activity_title_edit_pet);
+            getSupportLoaderManager().initLoader(EXISTING_PET_LOADER, null, this);
+        }
     }
 
     /**
@@ -86,20 +158,12 @@ public class EditorActivity extends AppCompatActivity {
         // Apply the adapter to the spinner
         mGenderSpinner.setAdapter(genderSpinnerAdapter);
 
-        // Set the integer mSelected to the constant values
+        // Set the integer mGender to the constant value for the selected position
         mGenderSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
             @Override
             public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
-                String selection = (String) parent.getItemAtPosition(position);
-                if (!TextUtils.isEmpty(selection)) {
-                    if (selection.equals(getString(R.string.gender_male))) {
-                        mGender = PetEntry.GENDER_MALE;
-                    } else if (selection.equals(getString(R.string.gender_female))) {
-                        mGender = PetEntry.GENDER_FEMALE;
-                    } else {
-                        mGender = PetEntry.GENDER_UNKNOWN;
-                    }
-                }
+                mGender = position < SPINNER_GENDERS.length
+                        ? SPINNER_GENDERS[position] : PetEntry.GENDER_UNKNOWN;
             }
 
             // Because AdapterView is an abstract class, onNothingSelected must be defined
@@ -110,42 +174,193 @@ public class EditorActivity extends AppCompatActivity {
         });
     }
 
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == REQUEST_PICK_PHOTO && resultCode == RESULT_OK && data != null
+                && data.getData() != null) {
+            // The picked photo may not be readable later, so copy it into the app's storage
+            new ImportPhotoTask(this).execute(data.getData());
+        }
+    }
+
     /**
-     * Get user input from editor and save new pet into database.
+     * Shows the given photo and keeps it as the pet's photo, to be saved with the pet.
      */
-    private void insertPet() {
-        // Read from input fields
-        // Use trim to eliminate leading or trailing white space
-        String nameString = mNameEditText.getText().toString().trim();
-        String breedString = mBreedEditText.getText().toString().trim();
-        String weightString = mWeightEditText.getText().toString().trim();
-        int weight = Integer.parseInt(weightString);
+    private void setPhotoUri(String photoUri) {
+        mPhotoUri = photoUri;
+        int size = getResources().getDimensionPixelSize(R.dimen.editor_photo_size);
+        PetThumbnailLoader.getInstance(this).load(photoUri, size, mPhotoImageView,
+                R.drawable.pet_photo_placeholder);
+    }
 
-        // Create database helper
-        PetDbHelper mDbHelper = new PetDbHelper(this);
+    /**
+     * {@link AsyncTask} that copies a picked photo into {@link PetPhotoStore}. It only holds a
+     * weak reference to the activity, so it does not leak the activity if it is closed.
+     */
+    private static class ImportPhotoTask extends AsyncTask<Uri, Void, Uri> {
 
-        // Gets the database in write mode
-        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        private final Context mContext;
+        private final WeakReference<EditorActivity> mActivity;
+
+        ImportPhotoTask(EditorActivity activity) {
+            mContext = activity.getApplicationContext();
+            mActivity = new WeakReference<>(activity);
+        }
+
+        @Override
+        protected Uri doInBackground(Uri... sources) {
+            try {
+                return new PetPhotoStore(mContext).importPhoto(sources[0]);
+            } catch (IOException | SecurityException e) {
+                Log.e(LOG_TAG, "Failed to store photo " + sources[0], e);
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Uri photoUri) {
+            if (photoUri == null) {
+                Toast.makeText(mContext, R.string.editor_photo_failed, Toast.LENGTH_SHORT).show();
+                return;
+            }
+            EditorActivity activity = mActivity.get();
+            if (activity != null && !activity.isFinishing()) {
+                activity.setPhotoUri(photoUri.toString());
+            }
+        }
+    }
+
+    /**
+     * Returns whether the editor is for a new pet and nothing has been entered yet.
+     */
+    private boolean isBlankNewPet() {
+        return mCurrentPetUri == null
+                && TextUtils.getTrimmedLength(mNameEditText.getText()) == 0
+                && TextUtils.getTrimmedLength(mBreedEditText.getText()) == 0
+                && TextUtils.getTrimmedLength(mWeightEditText.getText()) == 0
+                && mGender == PetEntry.GENDER_UNKNOWN
+                && mPhotoUri == null;
+    }
+
+    /**
+     * Get user input from editor and queue the pet to be saved into the database, as a new pet
+     * or as changes to the existing one. The input is checked first, so an invalid pet is
+     * never queued.
+     *
+     * @return whether the pet was valid and has been queued
+     */
+    private boolean savePet() {
+        // Read from input fields, checking them against the constraints of the pets table.
+        // The builder trims leading or trailing white space.
+        PetValidator.Builder pet = new PetValidator.Builder()
+                .setName(mNameEditText.getText().toString())
+                .setBreed(mBreedEditText.getText().toString())
+                .setGender(mGender)
+                .setWeight(mWeightEditText.getText())
+                .setPhotoUri(mPhotoUri);
+
+        PetValidator.Error error = pet.getError();
+        if (error != null) {
+            showError(error);
+            return false;
+        }
 
         // Create a ContentValues object where column names are the keys,
         // and pet attributes from the editor are the values.
-        ContentValues values = new ContentValues();
-        values.put(PetEntry.COLUMN_PET_NAME, nameString);
-        values.put(PetEntry.COLUMN_PET_BREED, breedString);
-        values.put(PetEntry.COLUMN_PET_GENDER, mGender);
-        values.put(PetEntry.COLUMN_PET_WEIGHT, weight);
-
-        // Insert a new row for pet in the database, returning the ID of that new row.
-        long newRowId = db.insert(PetEntry.TABLE_NAME, null, values);
-
-        // Show a toast message depending on whether or not the insertion was successful
-        if (newRowId == -1) {
-            // If the row ID is -1, then there was an error with insertion.
-            Toast.makeText(this, "Error with saving pet", Toast.LENGTH_SHORT).show();
-        } else {
-            // Otherwise, the insertion was successful and we can display a toast with the row ID.
-            Toast.makeText(this, "Pet saved with row id: " + newRowId, Toast.LENGTH_SHORT).show();
+        ContentValues values = pet.build();
+
+        // Queue the pet to be written in the background. The activity can finish straight
+        // away, so the toast is shown with the application context.
+        final Context appContext = getApplicationContext();
+        PetWriteQueue writeQueue = PetWriteQueue.getInstance(this);
+        if (mCurrentPetUri != null) {
+            writeQueue.update(mCurrentPetUri, values, new PetWriteQueue.Callback() {
+                @Override
+                public void onWriteFinished(Uri uri) {
+                    // Show a toast message depending on whether or not the update was successful
+                    if (uri == null) {
+                        Toast.makeText(appContext, "Error with saving pet",
+                                Toast.LENGTH_SHORT).show();
+                    } else {
+                        Toast.makeText(appContext, "Pet saved", Toast.LENGTH_SHORT).show();
+                    }
+                }
+            });
+            return true;
         }
+
+        writeQueue.insert(values, new PetWriteQueue.Callback() {
+            @Override
+            public void onWriteFinished(Uri newUri) {
+                // Show a toast message depending on whether or not the insertion was successful
+                if (newUri == null) {
+                    // If the new content URI is null, then there was an error with insertion.
+                    Toast.makeText(appContext, "Error with saving pet", Toast.LENGTH_SHORT).show();
+                } else {
+                    // Otherwise, the insertion was successful and we can display a toast with
+                    // the row ID.
+                    Toast.makeText(appContext, "Pet saved with row id: "
+                            + ContentUris.parseId(newUri), Toast.LENGTH_SHORT).show();
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Tells the user what to fix before the pet can be saved, and moves to the field.
+     */
+    private void showError(PetValidator.Error error) {
+        switch (error) {
+            case NAME_REQUIRED:
+                Toast.makeText(this, R.string.editor_error_name_required,
+                        Toast.LENGTH_SHORT).show();
+                mNameEditText.requestFocus();
+                break;
+            case WEIGHT_NOT_A_NUMBER:
+            case WEIGHT_NEGATIVE:
+                Toast.makeText(this, R.string.editor_error_weight_invalid,
+                        Toast.LENGTH_SHORT).show();
+                mWeightEditText.requestFocus();
+                break;
+            default:
+                // The spinner only offers valid genders
+                Log.e(LOG_TAG, "Unexpected invalid pet: " + error);
+                break;
+        }
+    }
+
+    /**
+     * Asks the user to confirm deleting the current pet, then deletes it.
+     */
+    private void showDeleteConfirmationDialog() {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setMessage(R.string.delete_dialog_msg);
+        builder.setPositiveButton(R.string.delete, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                deletePet();
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, null);
+        builder.create().show();
+    }
+
+    /**
+     * Queues the current pet to be deleted and closes the editor.
+     */
+    private void deletePet() {
+        final Context appContext = getApplicationContext();
+        PetWriteQueue.getInstance(this).delete(mCurrentPetUri, new PetWriteQueue.Callback() {
+            @Override
+            public void onWriteFinished(Uri uri) {
+                int message = uri == null
+                        ? R.string.editor_delete_pet_failed
+                        : R.string.editor_delete_pet_successful;
+                Toast.makeText(appContext, message, Toast.LENGTH_SHORT).show();
+            }
+        });
+        finish();
     }
 
     @Override
@@ -156,20 +371,36 @@ public class EditorActivity extends AppCompatActivity {
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        super.onPrepareOptionsMenu(menu);
+        // A new pet has not been saved yet, so hide the "Delete" menu item
+        if (mCurrentPetUri == null) {
+            menu.findItem(R.id.action_delete).setVisible(false);
+        }
+        return true;
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
         switch (item.getItemId()) {
             // Respond to a click on the "Save" menu option
             case R.id.action_save:
-                // Save pet to database
-                insertPet();
-                // Exit activity
-                finish();
+                // Nothing has been entered for a new pet, so there is nothing to save
+                if (isBlankNewPet()) {
+                    finish();
+                    return true;
+                }
+                // Save pet to database, and exit activity if it was valid. Otherwise stay,
+                // so the user can fix it.
+                if (savePet()) {
+                    finish();
+                }
                 return true;
             // Respond to a click on the "Delete" menu option
             case R.id.action_delete:
-                // Do nothing for now
+                showDeleteConfirmationDialog();
                 return true;
             // Respond to a click on the "Up" arrow button in the app bar
             case android.R.id.home:
@@ -179,4 +410,60 @@ public class EditorActivity extends AppCompatActivity {
         }
         return super.onOptionsItemSelected(item);
     }
-}
\ No newline at end of file
+
+    @Override
+    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+        // The editor shows all of the pet's attributes. These are the columns held by the
+        // provider's pet cache, so reopening a pet does not need to read the database.
+        String[] projection = Pet.PROJECTION;
+
+        // This loader will execute the ContentProvider's query method on a background thread
+        return new CursorLoader(this, mCurrentPetUri, projection, null, null, null);
+    }
+
+    @Override
+    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+        // Bail early if the cursor is null or there is less than 1 row in the cursor
+        if (cursor == null || !cursor.moveToFirst()) {
+            return;
+        }
+
+        // Update the views on the screen with the values from the database
+        mNameEditText.setText(cursor.getString(
+                cursor.getColumnIndex(PetEntry.COLUMN_PET_NAME)));
+        mBreedEditText.setText(cursor.getString(
+                cursor.getColumnIndex(PetEntry.COLUMN_PET_BREED)));
+        mWeightEditText.setText(Integer.toString(cursor.getInt(
+                cursor.getColumnIndex(PetEntry.COLUMN_PET_WEIGHT))));
+        setPhotoUri(cursor.getString(cursor.getColumnIndex(PetEntry.COLUMN_PET_PHOTO_URI)));
+
+        // Gender is a dropdown spinner, so map the constant value from the database
+        // into one of the dropdown options with SPINNER_GENDERS.
+        // Then call setSelection() so that option is displayed on screen as the current selection.
+        int gender = cursor.getInt(cursor.getColumnIndex(PetEntry.COLUMN_PET_GENDER));
+        mGenderSpinner.setSelection(getSpinnerPosition(gender));
+    }
+
+    /**
+     * Returns the position of the given gender in the gender spinner, or the position of
+     * {@link PetEntry#GENDER_UNKNOWN} if it is not a valid gender.
+     */
+    private static int getSpinnerPosition(int gender) {
+        for (int position = 0; position < SPINNER_GENDERS.length; position++) {
+            if (SPINNER_GENDERS[position] == gender) {
+                return position;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public void onLoaderReset(Loader<Cursor> loader) {
+        // If the loader is invalidated, clear out all the data from the input fields.
+        mNameEditText.setText("");
+        mBreedEditText.setText("");
+        mWeightEditText.setText("");
+        mGenderSpinner.setSelection(0);
+        setPhotoUri(null);
+    }
+}
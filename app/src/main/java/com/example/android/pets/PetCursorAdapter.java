@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets;
+
+import android.content.Context;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.CursorAdapter;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * {@link PetCursorAdapter} is an adapter for a list or grid view
+ * that uses a {@link Cursor} of pet data as its data source. This adapter knows
+ * how to create list items for each row of pet data in the {@link Cursor}.
+ *
+ * Rows are only read from the cursor when the list asks for them, and list item views are
+ * recycled, so the cost of binding stays the same however many pets are in the database.
+ *
+ * Binding a row does not allocate: column indices are looked up once per cursor, text columns
+ * are copied into character buffers owned by each list item, and the details line is written
+ * into a buffer by hand rather than built from Strings. Only the photo URI is read as a String,
+ * for rows that have a photo, as it is the key the thumbnail is loaded by.
+ *
+ * Photo thumbnails are loaded in the background by {@link PetThumbnailLoader}. Recycling a
+ * list item for another row cancels the thumbnail it was waiting for.
+ */
+public class PetCursorAdapter extends CursorAdapter {
+
+    /** Separator between the gender and weight in the details line */
+    private static final char[] DETAILS_SEPARATOR = { ',', ' ' };
+
+    /** Most characters needed for an int, including the minus sign */
+    private static final int MAX_INT_CHARS = 11;
+
+    /** Labels for each gender, indexed by the PetEntry GENDER_* values */
+    private final char[][] mGenderLabels;
+
+    /** Text shown in place of a missing breed */
+    private final char[] mUnknownBreed;
+
+    /** Units appended to the weight, with a leading space */
+    private final char[] mWeightUnits;
+
+    /** Size of the buffer needed for the details line */
+    private final int mDetailsCapacity;
+
+    /** Loads the photo thumbnails */
+    private final PetThumbnailLoader mThumbnailLoader;
+
+    /** Width and height of the photo thumbnails, in pixels */
+    private final int mThumbnailSize;
+
+    /** Indices of the columns in the current cursor, or -1 if there is no cursor */
+    private int mNameColumnIndex = -1;
+    private int mBreedColumnIndex = -1;
+    private int mGenderColumnIndex = -1;
+    private int mWeightColumnIndex = -1;
+    private int mPhotoColumnIndex = -1;
+
+    /**
+     * Constructs a new {@link PetCursorAdapter}.
+     *
+     * @param context The context
+     * @param c       The cursor from which to get the data.
+     */
+    public PetCursorAdapter(Context context, Cursor c) {
+        super(context, c, 0 /* flags */);
+
+        // Resolve every string the rows need up front, so binding never has to
+        mGenderLabels = new char[3][];
+        mGenderLabels[PetEntry.GENDER_UNKNOWN] =
+                context.getString(R.string.gender_unknown).toCharArray();
+        mGenderLabels[PetEntry.GENDER_MALE] = context.getString(R.string.gender_male).toCharArray();
+        mGenderLabels[PetEntry.GENDER_FEMALE] =
+                context.getString(R.string.gender_female).toCharArray();
+        mUnknownBreed = context.getString(R.string.unknown_breed).toCharArray();
+        mWeightUnits = (" " + context.getString(R.string.unit_pet_weight)).toCharArray();
+
+        int longestGenderLabel = 0;
+        for (char[] label : mGenderLabels) {
+            longestGenderLabel = Math.max(longestGenderLabel, label.length);
+        }
+        mDetailsCapacity = longestGenderLabel + DETAILS_SEPARATOR.length + MAX_INT_CHARS
+                + mWeightUnits.length;
+
+        mThumbnailLoader = PetThumbnailLoader.getInstance(context);
+        mThumbnailSize = context.getResources()
+                .getDimensionPixelSize(R.dimen.list_item_thumbnail_size);
+
+        resolveColumns(c);
+    }
+
+    /**
+     * Looks up the column indices of a new cursor once, rather than on every bind.
+     */
+    @Override
+    public Cursor swapCursor(Cursor newCursor) {
+        resolveColumns(newCursor);
+        return super.swapCursor(newCursor);
+    }
+
+    private void resolveColumns(Cursor cursor) {
+        if (cursor == null) {
+            mNameColumnIndex = -1;
+            mBreedColumnIndex = -1;
+            mGenderColumnIndex = -1;
+            mWeightColumnIndex = -1;
+            mPhotoColumnIndex = -1;
+            return;
+        }
+        mNameColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_NAME);
+        mBreedColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_BREED);
+        mGenderColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_GENDER);
+        mWeightColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_WEIGHT);
+        mPhotoColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_PHOTO_URI);
+    }
+
+    /**
+     * Makes a new blank list item view. No data is set (or bound) to the views yet.
+     *
+     * @param context app context
+     * @param cursor  The cursor from which to get the data. The cursor is already
+     *                moved to the correct position.
+     * @param parent  The parent to which the new view is attached to
+     * @return the newly created list item view.
+     */
+    @Override
+    public View newView(Context context, Cursor cursor, ViewGroup parent) {
+        View view = LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+
+        // Hold on to the child views, so they are not looked up again every time the
+        // recycled view is bound to a new row
+        view.setTag(new ViewHolder(view, mDetailsCapacity));
+        return view;
+    }
+
+    /**
+     * This method binds the pet data (in the current row pointed to by cursor) to the given
+     * list item layout. For example, the name for the current pet can be set on the name TextView
+     * in the list item layout.
+     *
+     * @param view    Existing view, returned earlier by newView() method
+     * @param context app context
+     * @param cursor  The cursor from which to get the data. The cursor is already moved to the
+     *                correct row.
+     */
+    @Override
+    public void bindView(View view, Context context, Cursor cursor) {
+        ViewHolder holder = (ViewHolder) view.getTag();
+
+        // Copy the name straight into the list item's own buffer. The TextView keeps
+        // referring to the buffer, which is why each list item needs its own.
+        cursor.copyStringToBuffer(mNameColumnIndex, holder.nameBuffer);
+        holder.nameTextView.setText(holder.nameBuffer.data, 0, holder.nameBuffer.sizeCopied);
+
+        // If the pet breed is empty or null, then use some default text
+        // that says "Unknown breed", so the TextView isn't blank.
+        cursor.copyStringToBuffer(mBreedColumnIndex, holder.breedBuffer);
+        if (holder.breedBuffer.sizeCopied == 0) {
+            holder.summaryTextView.setText(mUnknownBreed, 0, mUnknownBreed.length);
+        } else {
+            holder.summaryTextView.setText(holder.breedBuffer.data, 0,
+                    holder.breedBuffer.sizeCopied);
+        }
+
+        // Write "<gender>, <weight> kg" into the details buffer
+        int gender = cursor.getInt(mGenderColumnIndex);
+        if (!PetEntry.isValidGender(gender)) {
+            gender = PetEntry.GENDER_UNKNOWN;
+        }
+        char[] details = holder.detailsBuffer;
+        int length = append(details, 0, mGenderLabels[gender]);
+        length = append(details, length, DETAILS_SEPARATOR);
+        length = appendInt(details, length, cursor.getInt(mWeightColumnIndex));
+        length = append(details, length, mWeightUnits);
+        holder.detailsTextView.setText(details, 0, length);
+
+        // Start loading the photo thumbnail, which replaces any load this list item was
+        // waiting for when it showed another row
+        String photoUri = cursor.isNull(mPhotoColumnIndex)
+                ? null : cursor.getString(mPhotoColumnIndex);
+        mThumbnailLoader.load(photoUri, mThumbnailSize, holder.thumbnailView,
+                R.drawable.pet_photo_placeholder);
+    }
+
+    /**
+     * Cancels the thumbnail a list item is waiting for, once the list no longer shows it.
+     *
+     * @param view list item view, returned earlier by newView() method
+     */
+    public void onViewRecycled(View view) {
+        ViewHolder holder = (ViewHolder) view.getTag();
+        if (holder != null) {
+            mThumbnailLoader.cancel(holder.thumbnailView);
+        }
+    }
+
+    /**
+     * Copies the given characters into the buffer at the given position.
+     *
+     * @return the position after the copied characters
+     */
+    private static int append(char[] buffer, int position, char[] chars) {
+        System.arraycopy(chars, 0, buffer, position, chars.length);
+        return position + chars.length;
+    }
+
+    /**
+     * Writes the decimal digits of the given value into the buffer at the given position,
+     * without creating a String.
+     *
+     * @return the position after the written characters
+     */
+    private static int appendInt(char[] buffer, int position, int value) {
+        // Use a long, so that Integer.MIN_VALUE can be negated
+        long remaining = value;
+        if (remaining < 0) {
+            buffer[position++] = '-';
+            remaining = -remaining;
+        }
+
+        int digits = 1;
+        for (long power = 10; power <= remaining; power *= 10) {
+            digits++;
+        }
+        int end = position + digits;
+        for (int i = end - 1; i >= position; i--) {
+            buffer[i] = (char) ('0' + remaining % 10);
+            remaining /= 10;
+        }
+        return end;
+    }
+
+    /**
+     * Child views of a single list item, and the buffers their text is held in.
+     */
+    private static class ViewHolder {
+
+        /** TextView with the name of the pet */
+        final TextView nameTextView;
+
+        /** TextView with the breed of the pet */
+        final TextView summaryTextView;
+
+        /** TextView with the gender and weight of the pet */
+        final TextView detailsTextView;
+
+        /** ImageView with the photo thumbnail of the pet */
+        final ImageView thumbnailView;
+
+        /** Buffer the name is copied into. Grows as needed, then is reused. */
+        final CharArrayBuffer nameBuffer = new CharArrayBuffer(32);
+
+        /** Buffer the breed is copied into. Grows as needed, then is reused. */
+        final CharArrayBuffer breedBuffer = new CharArrayBuffer(32);
+
+        /** Buffer the details line is written into */
+        final char[] detailsBuffer;
+
+        ViewHolder(View view, int detailsCapacity) {
+            nameTextView = (TextView) view.findViewById(R.id.name);
+            summaryTextView = (TextView) view.findViewById(R.id.summary);
+            detailsTextView = (TextView) view.findViewById(R.id.details);
+            thumbnailView = (ImageView) view.findViewById(R.id.thumbnail);
+            detailsBuffer = new char[detailsCapacity];
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets;
+
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.database.MergeCursor;
+
+/**
+ * The pages of the catalog read so far, shown as one list.
+ *
+ * {@link MergeCursor} only passes the plain getters on to the page the list is on, and copies
+ * text into a buffer by way of {@link #getString(int)}, which allocates a String for every
+ * row. This cursor passes {@link #copyStringToBuffer(int, CharArrayBuffer)} on to the page
+ * too, so {@link PetCursorAdapter} copies straight out of the page's CursorWindow on every
+ * page, as it does for the first.
+ *
+ * Closing this cursor closes the pages, which belong to their loaders, so it is left open.
+ * The catalog only keeps the pages near the screen loaded, so there are never more than a
+ * few of them.
+ */
+public final class PetPagesCursor extends MergeCursor {
+
+    /** Pages of the list, in order */
+    private final Cursor[] mPages;
+
+    /**
+     * Position each page starts at, in order. The pages belong to their loaders, which
+     * deliver a new cursor rather than changing the count of one, so the positions are
+     * worked out once.
+     */
+    private final int[] mPageStarts;
+
+    /** Number of rows in all of the pages */
+    private final int mRowCount;
+
+    /** Page the current row is on, or null before the first row or after the last */
+    private Cursor mPage;
+
+    public PetPagesCursor(Cursor[] pages) {
+        super(pages);
+        mPages = pages;
+        mPageStarts = new int[pages.length];
+        int position = 0;
+        for (int i = 0; i < pages.length; i++) {
+            mPageStarts[i] = position;
+            position += pages[i].getCount();
+        }
+        mRowCount = position;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        mPage = null;
+        if (newPosition >= 0 && newPosition < mRowCount) {
+            // Binary search for the last page starting at or before the position. An empty
+            // page starts at the same position as the page after it, so it is passed over.
+            int low = 0;
+            int high = mPageStarts.length - 1;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (mPageStarts[middle] <= newPosition) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            mPage = mPages[low];
+        }
+        return super.onMove(oldPosition, newPosition);
+    }
+
+    @Override
+    public void copyStringToBuffer(int columnIndex, CharArrayBuffer buffer) {
+        if (mPage == null) {
+            super.copyStringToBuffer(columnIndex, buffer);
+        } else {
+            mPage.copyStringToBuffer(columnIndex, buffer);
+        }
+    }
+}
@@ -0,0 +1,461 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets;
+
+import android.app.ActivityManager;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ThumbnailUtils;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Loads square thumbnails of pet photos into image views.
+ *
+ * Photos are decoded on background threads, downsampled while decoding so the full size image
+ * is never held in memory, and cropped to the thumbnail size. Thumbnails are kept in two
+ * caches: a memory cache of the most recently used ones, and a disk cache so they do not have
+ * to be decoded from the full photo again after the app restarts.
+ *
+ * Each image view has at most one load in progress. Loading another photo into the view, for
+ * example when a list item is recycled for another row, cancels the earlier load.
+ */
+public class PetThumbnailLoader {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = PetThumbnailLoader.class.getSimpleName();
+
+    /** Name of the directory in the app's cache directory the disk cache is kept in */
+    private static final String THUMBNAIL_DIR = "thumbnails";
+
+    /** Largest size of the disk cache, in bytes */
+    private static final long MAX_DISK_CACHE_BYTES = 10 * 1024 * 1024;
+
+    /** Number of thumbnails written to the disk cache between checks of its size */
+    private static final int TRIM_INTERVAL_WRITES = 20;
+
+    /** JPEG quality of the thumbnails in the disk cache */
+    private static final int JPEG_QUALITY = 85;
+
+    /** Number of photos decoded at the same time */
+    private static final int DECODE_THREADS = 2;
+
+    /** The single instance shared by the whole process */
+    private static PetThumbnailLoader sInstance;
+
+    private final ContentResolver mContentResolver;
+
+    /** Handler for delivering thumbnails to image views on the main thread */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Most recently used thumbnails, keyed by {@link #getCacheKey(String, int)} */
+    private final LruCache<String, Bitmap> mMemoryCache;
+
+    /** Directory of the disk cache */
+    private final File mDiskCacheDir;
+
+    /** Thumbnails written to the disk cache since its size was last checked */
+    private int mDiskWritesSinceTrim;
+
+    /** Threads photos are decoded on */
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(DECODE_THREADS,
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            // Keep decoding from competing with the main thread
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, "PetThumbnailLoader");
+                }
+            });
+
+    /**
+     * Returns the thumbnail loader shared by the whole process, creating it if needed. Its
+     * memory cache uses up to 1/8th of the memory available to the app.
+     *
+     * @param context of the app
+     */
+    public static synchronized PetThumbnailLoader getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            ActivityManager activityManager =
+                    (ActivityManager) appContext.getSystemService(Context.ACTIVITY_SERVICE);
+            int maxMemoryBytes = activityManager.getMemoryClass() * 1024 * 1024 / 8;
+            sInstance = new PetThumbnailLoader(appContext,
+                    new File(appContext.getCacheDir(), THUMBNAIL_DIR), maxMemoryBytes);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Constructs a loader with its own caches. The app itself must use
+     * {@link #getInstance(Context)}.
+     *
+     * @param context of the app
+     * @param diskCacheDir directory to keep the disk cache in
+     * @param maxMemoryBytes largest size of the memory cache, in bytes
+     */
+    public PetThumbnailLoader(Context context, File diskCacheDir, int maxMemoryBytes) {
+        mContentResolver = context.getContentResolver();
+        mDiskCacheDir = diskCacheDir;
+        mMemoryCache = new LruCache<String, Bitmap>(maxMemoryBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * Shows a thumbnail of the given photo in the image view. The placeholder is shown until
+     * the thumbnail is ready, and in place of a missing photo.
+     *
+     * @param photoUri URI of the photo, or null if there is no photo
+     * @param sizePx width and height of the thumbnail, in pixels
+     * @param view to show the thumbnail in
+     * @param placeholderResId drawable to show while there is no thumbnail
+     */
+    public void load(String photoUri, int sizePx, ImageView view, int placeholderResId) {
+        String key = photoUri == null ? null : getCacheKey(photoUri, sizePx);
+
+        Request current = (Request) view.getTag();
+        if (current != null) {
+            if (current.key.equals(key)) {
+                // The same thumbnail is already on its way
+                return;
+            }
+            current.cancel();
+            view.setTag(null);
+        }
+
+        if (photoUri == null) {
+            view.setImageResource(placeholderResId);
+            return;
+        }
+
+        Bitmap bitmap = mMemoryCache.get(key);
+        if (bitmap != null) {
+            view.setImageBitmap(bitmap);
+            return;
+        }
+
+        view.setImageResource(placeholderResId);
+        Request request = new Request(key, photoUri, sizePx, view);
+        view.setTag(request);
+        request.future = mExecutor.submit(request);
+    }
+
+    /**
+     * Cancels the load in progress for the given image view, if there is one. Call this when
+     * the view is no longer going to be shown, such as when a list item is scrapped.
+     */
+    public void cancel(ImageView view) {
+        Request current = (Request) view.getTag();
+        if (current != null) {
+            current.cancel();
+            view.setTag(null);
+        }
+    }
+
+    /**
+     * Returns a thumbnail of the given photo, from the memory or disk cache if possible and
+     * otherwise decoded from the photo. Must not be called on the main thread.
+     *
+     * @param photoUri URI of the photo
+     * @param sizePx width and height of the thumbnail, in pixels
+     * @return the thumbnail, or null if the photo cannot be read
+     */
+    public Bitmap getThumbnail(String photoUri, int sizePx) {
+        String key = getCacheKey(photoUri, sizePx);
+        Bitmap bitmap = mMemoryCache.get(key);
+        if (bitmap != null) {
+            return bitmap;
+        }
+
+        File cacheFile = new File(mDiskCacheDir, getDiskCacheName(key));
+        if (cacheFile.isFile()) {
+            bitmap = BitmapFactory.decodeFile(cacheFile.getPath(), newDecodeOptions());
+            if (bitmap != null) {
+                // Keep recently used thumbnails from being trimmed first
+                cacheFile.setLastModified(System.currentTimeMillis());
+            }
+        }
+
+        if (bitmap == null) {
+            bitmap = decodeThumbnail(photoUri, sizePx);
+            if (bitmap == null) {
+                return null;
+            }
+            writeToDiskCache(cacheFile, bitmap);
+        }
+
+        mMemoryCache.put(key, bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Removes every thumbnail from the memory cache.
+     */
+    public void clearMemoryCache() {
+        mMemoryCache.evictAll();
+    }
+
+    /**
+     * Returns the size of the thumbnails in the memory cache, in bytes.
+     */
+    public int getMemoryCacheSize() {
+        return mMemoryCache.size();
+    }
+
+    /**
+     * Decodes the photo at just enough resolution for the thumbnail, then crops and scales it
+     * to the thumbnail size.
+     */
+    private Bitmap decodeThumbnail(String photoUri, int sizePx) {
+        Uri uri = Uri.parse(photoUri);
+        try {
+            // Read the dimensions of the photo without decoding it
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            decodeStream(uri, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                Log.w(LOG_TAG, "Cannot decode photo " + photoUri);
+                return null;
+            }
+
+            BitmapFactory.Options decodeOptions = newDecodeOptions();
+            decodeOptions.inSampleSize =
+                    getSampleSize(options.outWidth, options.outHeight, sizePx);
+            Bitmap sampled = decodeStream(uri, decodeOptions);
+            if (sampled == null) {
+                Log.w(LOG_TAG, "Cannot decode photo " + photoUri);
+                return null;
+            }
+            return ThumbnailUtils.extractThumbnail(sampled, sizePx, sizePx,
+                    ThumbnailUtils.OPTIONS_RECYCLE_INPUT);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Cannot read photo " + photoUri, e);
+            return null;
+        }
+    }
+
+    private Bitmap decodeStream(Uri uri, BitmapFactory.Options options) throws IOException {
+        InputStream in = mContentResolver.openInputStream(uri);
+        if (in == null) {
+            throw new IOException("Cannot open " + uri);
+        }
+        try {
+            return BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns options for decoding thumbnails. Thumbnails have no transparency, so they use
+     * half the memory of the default ARGB_8888 format.
+     */
+    private static BitmapFactory.Options newDecodeOptions() {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        return options;
+    }
+
+    /**
+     * Returns the largest power of two the photo can be downsampled by while its shorter side
+     * stays at least the thumbnail size.
+     */
+    private static int getSampleSize(int width, int height, int sizePx) {
+        int shorterSide = Math.min(width, height);
+        int sampleSize = 1;
+        while (shorterSide / (sampleSize * 2) >= sizePx) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Writes a thumbnail to the disk cache, through a temporary file so a partly written
+     * thumbnail is never read back.
+     */
+    private void writeToDiskCache(File cacheFile, Bitmap bitmap) {
+        if (!mDiskCacheDir.isDirectory() && !mDiskCacheDir.mkdirs()) {
+            return;
+        }
+
+        File tempFile = new File(cacheFile.getPath() + ".tmp");
+        try {
+            OutputStream out = new FileOutputStream(tempFile);
+            try {
+                bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+            } finally {
+                out.close();
+            }
+            if (!tempFile.renameTo(cacheFile)) {
+                tempFile.delete();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Cannot write thumbnail " + cacheFile, e);
+            tempFile.delete();
+        }
+
+        synchronized (this) {
+            if (++mDiskWritesSinceTrim < TRIM_INTERVAL_WRITES) {
+                return;
+            }
+            mDiskWritesSinceTrim = 0;
+            trimDiskCache();
+        }
+    }
+
+    /**
+     * Deletes the least recently used thumbnails until the disk cache is within its maximum
+     * size.
+     */
+    private void trimDiskCache() {
+        File[] files = mDiskCacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        long totalBytes = 0;
+        for (File file : files) {
+            totalBytes += file.length();
+        }
+        if (totalBytes <= MAX_DISK_CACHE_BYTES) {
+            return;
+        }
+
+        // Oldest first
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+        for (int i = 0; i < files.length && totalBytes > MAX_DISK_CACHE_BYTES; i++) {
+            long length = files[i].length();
+            if (files[i].delete()) {
+                totalBytes -= length;
+            }
+        }
+    }
+
+    private static String getCacheKey(String photoUri, int sizePx) {
+        return sizePx + ":" + photoUri;
+    }
+
+    /**
+     * Returns the name of the disk cache file for a cache key. Photo URIs can hold characters
+     * that are not allowed in file names, so the key is hashed.
+     */
+    private static String getDiskCacheName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16));
+                name.append(Character.forDigit(b & 0xf, 16));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            // Every Android device has SHA-1 and UTF-8
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A thumbnail being loaded into an image view.
+     */
+    private final class Request implements Runnable {
+
+        final String key;
+        final String photoUri;
+        final int sizePx;
+
+        /** The view to show the thumbnail in. Weak, so a queued load does not leak it. */
+        final WeakReference<ImageView> viewReference;
+
+        /** The load on the decoding threads, set once the load has been queued */
+        Future<?> future;
+
+        /** Whether the load has been cancelled. Only changed on the main thread. */
+        volatile boolean cancelled;
+
+        Request(String key, String photoUri, int sizePx, ImageView view) {
+            this.key = key;
+            this.photoUri = photoUri;
+            this.sizePx = sizePx;
+            viewReference = new WeakReference<>(view);
+        }
+
+        void cancel() {
+            cancelled = true;
+            if (future != null) {
+                // Drops the load if it has not started yet
+                future.cancel(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (cancelled || viewReference.get() == null) {
+                return;
+            }
+            final Bitmap bitmap = getThumbnail(photoUri, sizePx);
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    ImageView view = viewReference.get();
+                    if (cancelled || view == null || view.getTag() != Request.this) {
+                        return;
+                    }
+                    view.setTag(null);
+                    if (bitmap != null) {
+                        view.setImageBitmap(bitmap);
+                    }
+                }
+            });
+        }
+    }
+}
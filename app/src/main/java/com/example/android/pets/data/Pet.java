@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * A single pet from the pets table. Instances are immutable, so they can be shared between
+ * threads and held in {@link PetCache}.
+ */
+public final class Pet {
+
+    /** Columns needed to create a {@link Pet} with {@link #fromCursor(Cursor)} */
+    public static final String[] PROJECTION = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT,
+            PetEntry.COLUMN_PET_PHOTO_URI };
+
+    /** Unique ID of the pet in the pets table */
+    private final long mId;
+
+    /** Name of the pet */
+    private final String mName;
+
+    /** Breed of the pet, or null if not known */
+    private final String mBreed;
+
+    /** Gender of the pet, one of the PetEntry GENDER_* values */
+    private final int mGender;
+
+    /** Weight of the pet in kg */
+    private final int mWeight;
+
+    /** URI of a photo of the pet, or null if there is no photo */
+    private final String mPhotoUri;
+
+    /**
+     * Constructs a new {@link Pet}.
+     *
+     * @param id of the pet in the pets table
+     * @param name of the pet
+     * @param breed of the pet, or null if not known
+     * @param gender of the pet, one of the PetEntry GENDER_* values
+     * @param weight of the pet in kg
+     * @param photoUri of a photo of the pet, or null if there is no photo
+     */
+    public Pet(long id, String name, String breed, int gender, int weight, String photoUri) {
+        mId = id;
+        mName = name;
+        mBreed = breed;
+        mGender = gender;
+        mWeight = weight;
+        mPhotoUri = photoUri;
+    }
+
+    /**
+     * Creates a {@link Pet} from the current row of a cursor with the columns in
+     * {@link #PROJECTION}, in that order.
+     */
+    public static Pet fromCursor(Cursor cursor) {
+        return new Pet(cursor.getLong(0), cursor.getString(1), cursor.getString(2),
+                cursor.getInt(3), cursor.getInt(4), cursor.getString(5));
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public String getBreed() {
+        return mBreed;
+    }
+
+    public int getGender() {
+        return mGender;
+    }
+
+    public int getWeight() {
+        return mWeight;
+    }
+
+    public String getPhotoUri() {
+        return mPhotoUri;
+    }
+
+    /**
+     * Returns the value of the given column, or throws an {@link IllegalArgumentException} if
+     * the column is not one of the columns in {@link #PROJECTION}.
+     */
+    public Object getValue(String column) {
+        switch (column) {
+            case PetEntry._ID:
+                return mId;
+            case PetEntry.COLUMN_PET_NAME:
+                return mName;
+            case PetEntry.COLUMN_PET_BREED:
+                return mBreed;
+            case PetEntry.COLUMN_PET_GENDER:
+                return mGender;
+            case PetEntry.COLUMN_PET_WEIGHT:
+                return mWeight;
+            case PetEntry.COLUMN_PET_PHOTO_URI:
+                return mPhotoUri;
+            default:
+                throw new IllegalArgumentException("Unknown pet column " + column);
+        }
+    }
+
+    /**
+     * Returns an estimate of the memory used by this pet, including its strings, in bytes.
+     */
+    public int getSizeInBytes() {
+        // Object header and fields, plus each String object and its char array
+        int size = 40;
+        if (mName != null) {
+            size += 40 + 2 * mName.length();
+        }
+        if (mBreed != null) {
+            size += 40 + 2 * mBreed.length();
+        }
+        if (mPhotoUri != null) {
+            size += 40 + 2 * mPhotoUri.length();
+        }
+        return size;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.util.LruCache;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * Read-through cache of {@link Pet}s, keyed by their _ID.
+ *
+ * Pets that are not in the cache are read from the database and added to it. The least
+ * recently used pets are evicted once the cache is full, where full is either a number of pets
+ * or an estimate of the memory they use, so the cache stays small on low-RAM devices.
+ *
+ * Anything that writes to the pets table must tell the cache, with {@link #put(Pet)},
+ * {@link #invalidate(long)} or {@link #invalidateAll()}.
+ */
+public class PetCache {
+
+    /** Database helper pets are loaded with on a cache miss */
+    private final PetDbHelper mDbHelper;
+
+    /** The cached pets */
+    private final LruCache<Long, Pet> mCache;
+
+    /**
+     * Incremented on every invalidation. A pet that was being loaded from the database while
+     * the cache was invalidated may be stale, so it is only cached if this has not changed.
+     */
+    private int mGeneration;
+
+    private PetCache(PetDbHelper dbHelper, LruCache<Long, Pet> cache) {
+        mDbHelper = dbHelper;
+        mCache = cache;
+    }
+
+    /**
+     * Creates a cache that holds at most the given number of pets.
+     */
+    public static PetCache withMaxEntries(PetDbHelper dbHelper, int maxEntries) {
+        return new PetCache(dbHelper, new LruCache<Long, Pet>(maxEntries));
+    }
+
+    /**
+     * Creates a cache whose pets use at most about the given number of bytes.
+     */
+    public static PetCache withMaxBytes(PetDbHelper dbHelper, int maxBytes) {
+        return new PetCache(dbHelper, new LruCache<Long, Pet>(maxBytes) {
+            @Override
+            protected int sizeOf(Long id, Pet pet) {
+                return pet.getSizeInBytes();
+            }
+        });
+    }
+
+    /**
+     * Returns the pet with the given ID, from the cache if possible and otherwise from the
+     * database. Must not be called on the main thread.
+     *
+     * @return the pet, or null if there is no pet with that ID
+     */
+    public Pet getPet(long id) {
+        Pet pet = mCache.get(id);
+        if (pet != null) {
+            return pet;
+        }
+
+        int generation;
+        synchronized (this) {
+            generation = mGeneration;
+        }
+
+        pet = loadPet(id);
+        if (pet != null) {
+            synchronized (this) {
+                if (generation == mGeneration) {
+                    mCache.put(id, pet);
+                }
+            }
+        }
+        return pet;
+    }
+
+    /**
+     * Reads the pet with the given ID from the database.
+     */
+    private Pet loadPet(long id) {
+        Cursor cursor = mDbHelper.getDatabase().query(PetEntry.TABLE_NAME, Pet.PROJECTION,
+                PetDao.SELECTION_PET_ID,
+                new String[] { String.valueOf(id) }, null, null, null);
+        try {
+            return cursor.moveToFirst() ? Pet.fromCursor(cursor) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Adds or replaces a pet that has just been written to the database.
+     */
+    public synchronized void put(Pet pet) {
+        mCache.put(pet.getId(), pet);
+    }
+
+    /**
+     * Removes the pet with the given ID, after it has been updated or deleted.
+     */
+    public synchronized void invalidate(long id) {
+        mGeneration++;
+        mCache.remove(id);
+    }
+
+    /**
+     * Removes all pets, after a write that may have changed any number of them.
+     */
+    public synchronized void invalidateAll() {
+        mGeneration++;
+        // Remove the pets one by one rather than with evictAll(), so that they are not counted
+        // as evictions
+        for (Long id : mCache.snapshot().keySet()) {
+            mCache.remove(id);
+        }
+    }
+
+    /** Returns the number of times {@link #getPet(long)} found the pet in the cache. */
+    public int hitCount() {
+        return mCache.hitCount();
+    }
+
+    /** Returns the number of times {@link #getPet(long)} had to read the database. */
+    public int missCount() {
+        return mCache.missCount();
+    }
+
+    /** Returns the number of pets evicted to keep the cache within its maximum size. */
+    public int evictionCount() {
+        return mCache.evictionCount();
+    }
+
+    /** Returns the number of pets in the cache, or their size in bytes for a byte-sized cache. */
+    public int size() {
+        return mCache.size();
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.content.Intent;
+import android.database.SQLException;
+import android.support.annotation.NonNull;
+import android.support.v4.app.JobIntentService;
+import android.util.Log;
+
+/**
+ * Background job that runs {@link PetCompactor} after pets have been deleted.
+ */
+public class PetCompactionService extends JobIntentService {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = PetCompactionService.class.getSimpleName();
+
+    /** Unique job ID for this service */
+    private static final int JOB_ID = 1001;
+
+    /**
+     * Queues a compaction to run in the background. Queueing it again while one is waiting
+     * is cheap, as a compaction with nothing to remove finishes straight away.
+     *
+     * @param context of the app
+     */
+    public static void enqueueCompaction(Context context) {
+        enqueueWork(context, PetCompactionService.class, JOB_ID,
+                new Intent(context, PetCompactionService.class));
+    }
+
+    @Override
+    protected void onHandleWork(@NonNull Intent intent) {
+        try {
+            new PetCompactor(this).compact();
+        } catch (SQLException e) {
+            // The deleted pets stay hidden, and are removed by the next compaction
+            Log.e(LOG_TAG, "Failed to compact the database", e);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Removes pets that have been marked as deleted and hands the space they used back to the
+ * file system, along with any photos no pet uses any more.
+ *
+ * Rows are removed a chunk at a time, each in its own short transaction, so other writes are
+ * never held up for long, and readers carry on throughout thanks to write-ahead logging. Free
+ * pages are then released with incremental vacuum steps rather than a full VACUUM, except the
+ * first time on a database created before incremental auto-vacuum was turned on.
+ *
+ * Compaction does blocking I/O and must not be run on the main thread.
+ */
+public final class PetCompactor {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = PetCompactor.class.getSimpleName();
+
+    /** Number of deleted pets removed in each transaction */
+    private static final int PURGE_CHUNK_SIZE = 500;
+
+    /** Number of free pages released by each incremental vacuum step */
+    private static final int VACUUM_STEP_PAGES = 256;
+
+    /** Value of PRAGMA auto_vacuum for incremental auto-vacuum */
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    /** Selection for the next chunk of deleted pets */
+    private static final String SELECTION_PURGE_CHUNK = PetEntry._ID + " IN (SELECT "
+            + PetEntry._ID + " FROM " + PetEntry.TABLE_NAME + " WHERE "
+            + PetDbHelper.COLUMN_DELETED + " = 1 LIMIT " + PURGE_CHUNK_SIZE + ")";
+
+    /**
+     * Outcome of a completed compaction.
+     */
+    public static final class Result {
+
+        /** Number of deleted pets removed from the database */
+        public final int rowsPurged;
+
+        /** Size of the database file before and after, in bytes */
+        public final long bytesBefore;
+        public final long bytesAfter;
+
+        /** Time spent compacting, in milliseconds */
+        public final long elapsedMillis;
+
+        Result(int rowsPurged, long bytesBefore, long bytesAfter, long elapsedMillis) {
+            this.rowsPurged = rowsPurged;
+            this.bytesBefore = bytesBefore;
+            this.bytesAfter = bytesAfter;
+            this.elapsedMillis = elapsedMillis;
+        }
+    }
+
+    /** Database helper shared with the rest of the app */
+    private final PetDbHelper mDbHelper;
+
+    /** Store of the pet photos, or null to leave the photos alone */
+    private final PetPhotoStore mPhotoStore;
+
+    /**
+     * Constructs a new {@link PetCompactor}.
+     *
+     * @param context of the app
+     */
+    public PetCompactor(Context context) {
+        this(PetDbHelper.getInstance(context), new PetPhotoStore(context));
+    }
+
+    /**
+     * Constructs a {@link PetCompactor} for the given database. The photo store must be null
+     * for any database other than the app's own, or the photos of the app's pets would be
+     * deleted as unused.
+     */
+    PetCompactor(PetDbHelper dbHelper, PetPhotoStore photoStore) {
+        mDbHelper = dbHelper;
+        mPhotoStore = photoStore;
+    }
+
+    /**
+     * Removes every pet marked as deleted, then releases the free pages in the database file.
+     *
+     * @return the outcome of the compaction
+     */
+    public Result compact() {
+        long startTime = SystemClock.elapsedRealtime();
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        long bytesBefore = getDatabaseSize(db);
+
+        int rowsPurged = purgeDeleted(db);
+        if (mPhotoStore != null) {
+            deleteUnusedPhotos(db);
+        }
+        releaseFreePages(db);
+
+        // Copy the log back into the shrunk database, so the file size on disk goes down too
+        mDbHelper.checkpoint();
+
+        Result result = new Result(rowsPurged, bytesBefore, getDatabaseSize(db),
+                SystemClock.elapsedRealtime() - startTime);
+        Log.i(LOG_TAG, "Purged " + result.rowsPurged + " deleted pets, database went from "
+                + result.bytesBefore + " to " + result.bytesAfter + " bytes in "
+                + result.elapsedMillis + "ms");
+        return result;
+    }
+
+    /**
+     * Removes the pets marked as deleted, a chunk at a time.
+     *
+     * @return the number of pets removed
+     */
+    private int purgeDeleted(SQLiteDatabase db) {
+        int rowsPurged = 0;
+        int chunkRows;
+        do {
+            db.beginTransactionNonExclusive();
+            try {
+                chunkRows = db.delete(PetEntry.TABLE_NAME, SELECTION_PURGE_CHUNK, null);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            rowsPurged += chunkRows;
+        } while (chunkRows == PURGE_CHUNK_SIZE);
+        return rowsPurged;
+    }
+
+    /**
+     * Deletes the photo files that no pet refers to, such as the photos of purged pets and
+     * photos that have been replaced.
+     */
+    private void deleteUnusedPhotos(SQLiteDatabase db) {
+        Set<String> photoUris = new HashSet<>();
+        Cursor cursor = db.query(PetEntry.TABLE_NAME,
+                new String[] { PetEntry.COLUMN_PET_PHOTO_URI },
+                PetEntry.COLUMN_PET_PHOTO_URI + " IS NOT NULL", null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                photoUris.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        int deleted = mPhotoStore.deleteUnusedPhotos(photoUris);
+        if (deleted != 0) {
+            Log.i(LOG_TAG, "Deleted " + deleted + " unused photos");
+        }
+    }
+
+    /**
+     * Hands the free pages of the database file back to the file system.
+     */
+    private void releaseFreePages(SQLiteDatabase db) {
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null)
+                != AUTO_VACUUM_INCREMENTAL) {
+            // The database was created before incremental auto-vacuum was turned on, and it
+            // only takes effect after rebuilding the file once. Writers wait for this, but
+            // readers do not.
+            Log.i(LOG_TAG, "Turning on incremental auto-vacuum");
+            PetDbHelper.pragma(db, "auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+            return;
+        }
+
+        long freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        while (freePages > 0) {
+            PetDbHelper.pragma(db, "incremental_vacuum(" + VACUUM_STEP_PAGES + ")");
+            long remaining = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+            if (remaining >= freePages) {
+                // Nothing more can be released
+                break;
+            }
+            freePages = remaining;
+        }
+    }
+
+    /**
+     * Returns the size of the database file, not counting the write-ahead log.
+     */
+    private static long getDatabaseSize(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA page_count", null)
+                * DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+    }
+}
@@ -15,6 +15,8 @@
  */
 package com.example.android.pets.data;
 
+import android.content.ContentResolver;
+import android.net.Uri;
 import android.provider.BaseColumns;
 
 /**
@@ -26,12 +28,104 @@ public final class PetContract {
     // give it an empty constructor.
     private PetContract() {}
 
+    /**
+     * The "Content authority" is a name for the entire content provider, similar to the
+     * relationship between a domain name and its website. A convenient string to use for the
+     * content authority is the package name for the app, which is guaranteed to be unique on the
+     * device.
+     */
+    public static final String CONTENT_AUTHORITY = "com.example.android.pets";
+
+    /**
+     * Use CONTENT_AUTHORITY to create the base of all URI's which apps will use to contact
+     * the content provider.
+     */
+    public static final Uri BASE_CONTENT_URI = Uri.parse("content://" + CONTENT_AUTHORITY);
+
+    /**
+     * Possible path (appended to base content URI for possible URI's)
+     * For instance, content://com.example.android.pets/pets/ is a valid path for
+     * looking at pet data.
+     */
+    public static final String PATH_PETS = "pets";
+
+    /**
+     * Path appended to the pets content URI, followed by the search text, to search pets by
+     * name and breed. For instance, content://com.example.android.pets/pets/search/terr
+     */
+    public static final String PATH_SEARCH = "search";
+
+    /**
+     * Path appended to the pets content URI for the number of pets.
+     * For instance, content://com.example.android.pets/pets/count
+     */
+    public static final String PATH_COUNT = "count";
+
+    /**
+     * Query parameter with the largest number of rows to return, for reading the first rows of
+     * a long list before the rest. For instance, content://com.example.android.pets/pets?limit=50
+     */
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+
     /**
      * Inner class that defines constant values for the pets database table.
      * Each entry in the table represents a single pet.
      */
     public static final class PetEntry implements BaseColumns {
 
+        /**
+         * The content URI to access the pet data. Readers register for change notifications on
+         * this URI, and every write to the pets table must notify it.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PETS);
+
+        /**
+         * Returns the content URI for the pets whose name or breed contain words starting with
+         * the words in the given search text. The best matches (those matching on the name)
+         * come first.
+         */
+        public static Uri buildSearchUri(String searchText) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_SEARCH)
+                    .appendPath(searchText)
+                    .build();
+        }
+
+        /**
+         * Returns the given pets content URI limited to its first rows, in the same order as
+         * the full list.
+         */
+        public static Uri buildLimitedUri(Uri uri, int limit) {
+            return uri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /**
+         * The content URI for the number of pets, as a single row with a {@link #_COUNT}
+         * column. It is read from a summary table, so it costs the same however many pets
+         * there are, and it is notified along with {@link #CONTENT_URI}.
+         */
+        public static final Uri COUNT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_COUNT);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of pets.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PETS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single pet.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PETS;
+
+        /**
+         * The MIME type of the {@link #COUNT_URI} for the number of pets.
+         */
+        public static final String CONTENT_COUNT_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY + "/" + PATH_PETS + "/" + PATH_COUNT;
+
         /** Name of database table for pets */
         public final static String TABLE_NAME = "pets";
 
@@ -73,12 +167,28 @@ public final class PetContract {
          */
         public final static String COLUMN_PET_WEIGHT = "weight";
 
+        /**
+         * URI of a photo of the pet, or null if there is no photo. Photos are kept as files
+         * rather than in the database, see {@link PetPhotoStore}.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_PET_PHOTO_URI = "photo_uri";
+
         /**
          * Possible values for the gender of the pet.
          */
         public static final int GENDER_UNKNOWN = 0;
         public static final int GENDER_MALE = 1;
         public static final int GENDER_FEMALE = 2;
+
+        /**
+         * Returns whether or not the given gender is {@link #GENDER_UNKNOWN}, {@link #GENDER_MALE},
+         * or {@link #GENDER_FEMALE}.
+         */
+        public static boolean isValidGender(int gender) {
+            return gender == GENDER_UNKNOWN || gender == GENDER_MALE || gender == GENDER_FEMALE;
+        }
     }
 
 }
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetDbMetrics.Operation;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The writes and counts the app makes most often, each run through a fixed statement rather
+ * than building the SQL on every call as {@link SQLiteDatabase#insert(String, String,
+ * ContentValues)} and friends do.
+ *
+ * Each call compiles its statement on the connection it runs on and closes it afterwards.
+ * The SQL never changes, so every connection compiles it once and then finds it in its own
+ * cache of compiled statements. No lock is held other than the connection itself, so a write
+ * made inside a transaction, such as one of {@link PetProvider#applyBatch}, runs on the
+ * transaction's connection rather than waiting on a statement held by another thread.
+ * Operations are timed into {@link PetDbMetrics} the same way as those of {@link PetDatabase}.
+ *
+ * Values that the statements cannot take, such as an update of only some of the attributes,
+ * go through {@link PetDatabase} instead.
+ */
+public final class PetDao {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = PetDao.class.getSimpleName();
+
+    /** Selection for the pet with a given ID, unless it has been deleted */
+    static final String SELECTION_PET_ID = PetEntry._ID + " = ? AND "
+            + PetDbHelper.SELECTION_NOT_DELETED;
+
+    /**
+     * Attributes of a pet that are set by inserts and updates, in the order they are bound to
+     * the statements.
+     */
+    private static final String[] PET_COLUMNS = {
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT,
+            PetEntry.COLUMN_PET_PHOTO_URI };
+
+    /** The same attributes, to check the values given with */
+    private static final Set<String> PET_COLUMN_SET = new HashSet<>(Arrays.asList(PET_COLUMNS));
+
+    private static final String SQL_INSERT = "INSERT INTO " + PetEntry.TABLE_NAME + " ("
+            + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ", "
+            + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT + ", "
+            + PetEntry.COLUMN_PET_PHOTO_URI + ") VALUES (?, ?, ?, ?, ?)";
+
+    private static final String SQL_UPDATE = "UPDATE " + PetEntry.TABLE_NAME + " SET "
+            + PetEntry.COLUMN_PET_NAME + " = ?, " + PetEntry.COLUMN_PET_BREED + " = ?, "
+            + PetEntry.COLUMN_PET_GENDER + " = ?, " + PetEntry.COLUMN_PET_WEIGHT + " = ?, "
+            + PetEntry.COLUMN_PET_PHOTO_URI + " = ? WHERE " + SELECTION_PET_ID;
+
+    /** Deleting only marks the pet, see {@link PetProvider#delete} */
+    private static final String SQL_DELETE = "UPDATE " + PetEntry.TABLE_NAME + " SET "
+            + PetDbHelper.COLUMN_DELETED + " = 1 WHERE " + SELECTION_PET_ID;
+
+    private final PetDbHelper mDbHelper;
+
+    private final PetDatabase mDatabase;
+
+    private final PetDbMetrics mMetrics;
+
+    /**
+     * Constructs a new {@link PetDao}. The app shares the one held by {@link PetDbHelper}.
+     */
+    PetDao(PetDbHelper dbHelper, PetDatabase database, PetDbMetrics metrics) {
+        mDbHelper = dbHelper;
+        mDatabase = database;
+        mMetrics = metrics;
+    }
+
+    /**
+     * Inserts a new pet. The values must have been checked with {@link PetValidator}.
+     *
+     * @return the row ID of the new pet, or -1 if it could not be inserted
+     */
+    public long insert(ContentValues values) {
+        if (!PET_COLUMN_SET.containsAll(values.keySet())) {
+            return mDatabase.insert(PetEntry.TABLE_NAME, values);
+        }
+
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        boolean timed = mMetrics.isEnabled();
+        long startNanos = timed ? System.nanoTime() : 0;
+        long id;
+        SQLiteStatement insert = db.compileStatement(SQL_INSERT);
+        try {
+            bindPet(insert, values);
+            id = insert.executeInsert();
+        } catch (SQLException e) {
+            // Fail the same way as SQLiteDatabase.insert()
+            Log.e(LOG_TAG, "Failed to insert " + values, e);
+            id = -1;
+        } finally {
+            insert.close();
+        }
+        if (timed) {
+            recordWrite(Operation.INSERT, SQL_INSERT, startNanos, id == -1 ? 0 : 1);
+        }
+        return id;
+    }
+
+    /**
+     * Updates the pet with the given ID, unless it has been deleted. The values must have
+     * been checked with {@link PetValidator}.
+     *
+     * @return the number of pets updated, 0 or 1
+     */
+    public int update(long id, ContentValues values) {
+        if (values.size() != PET_COLUMNS.length
+                || !PET_COLUMN_SET.containsAll(values.keySet())) {
+            // Only some of the attributes are changing
+            return mDatabase.update(PetEntry.TABLE_NAME, values, SELECTION_PET_ID,
+                    new String[] { String.valueOf(id) });
+        }
+
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        boolean timed = mMetrics.isEnabled();
+        long startNanos = timed ? System.nanoTime() : 0;
+        int rows;
+        SQLiteStatement update = db.compileStatement(SQL_UPDATE);
+        try {
+            bindPet(update, values);
+            update.bindLong(PET_COLUMNS.length + 1, id);
+            rows = update.executeUpdateDelete();
+        } finally {
+            update.close();
+        }
+        if (timed) {
+            recordWrite(Operation.UPDATE, SQL_UPDATE, startNanos, rows);
+        }
+        return rows;
+    }
+
+    /**
+     * Marks the pet with the given ID as deleted.
+     *
+     * @return the number of pets deleted, 0 or 1
+     */
+    public int delete(long id) {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        boolean timed = mMetrics.isEnabled();
+        long startNanos = timed ? System.nanoTime() : 0;
+        int rows;
+        SQLiteStatement delete = db.compileStatement(SQL_DELETE);
+        try {
+            delete.bindLong(1, id);
+            rows = delete.executeUpdateDelete();
+        } finally {
+            delete.close();
+        }
+        if (timed) {
+            recordWrite(Operation.UPDATE, SQL_DELETE, startNanos, rows);
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the number of pets in the shelter, from the summary tables.
+     */
+    public int countPets() {
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        boolean timed = mMetrics.isEnabled();
+        long startNanos = timed ? System.nanoTime() : 0;
+        long count;
+        SQLiteStatement countPets = db.compileStatement(PetStats.SQL_PET_COUNT);
+        try {
+            count = countPets.simpleQueryForLong();
+        } finally {
+            countPets.close();
+        }
+        if (timed) {
+            long elapsedNanos = System.nanoTime() - startNanos;
+            mMetrics.record(Operation.QUERY, elapsedNanos, 1);
+            if (mMetrics.isSlow(elapsedNanos)) {
+                mMetrics.recordSlowQuery(Operation.QUERY, PetStats.SQL_PET_COUNT,
+                        elapsedNanos, 1, Collections.<String>emptyList());
+            }
+        }
+        return (int) count;
+    }
+
+    /**
+     * Binds the attributes of a pet to the first parameters of a statement, with the same
+     * types as {@link SQLiteDatabase#insert(String, String, ContentValues)} would. Attributes
+     * that are missing get the defaults of the pets table.
+     */
+    private static void bindPet(SQLiteStatement statement, ContentValues values) {
+        for (int i = 0; i < PET_COLUMNS.length; i++) {
+            Object value = values.get(PET_COLUMNS[i]);
+            if (value == null && PET_COLUMNS[i].equals(PetEntry.COLUMN_PET_WEIGHT)) {
+                value = 0;
+            }
+            if (value == null) {
+                statement.bindNull(i + 1);
+            } else if (value instanceof Double || value instanceof Float) {
+                statement.bindDouble(i + 1, ((Number) value).doubleValue());
+            } else if (value instanceof Number) {
+                statement.bindLong(i + 1, ((Number) value).longValue());
+            } else {
+                statement.bindString(i + 1, value.toString());
+            }
+        }
+    }
+
+    /**
+     * Records a write, along with the statement if it was slow. There are no rows to look
+     * up beyond the one by ID, so there is no plan worth showing.
+     */
+    private void recordWrite(Operation operation, String sql, long startNanos, int rows) {
+        long elapsedNanos = System.nanoTime() - startNanos;
+        mDatabase.recordWrite(operation, elapsedNanos, rows);
+        if (mMetrics.isSlow(elapsedNanos)) {
+            mMetrics.recordSlowQuery(operation, sql, elapsedNanos, rows,
+                    Collections.<String>emptyList());
+        }
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.util.Log;
+
+import com.example.android.pets.data.PetDbMetrics.Operation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The database operations used by {@link PetProvider}, {@link PetCache} and {@link PetStats},
+ * timed into {@link PetDbMetrics}. Each method behaves the same as the {@link SQLiteDatabase}
+ * method of the same name, and opens the database through {@link PetDbHelper} on first use.
+ *
+ * While the metrics are turned off, each method goes straight to {@link SQLiteDatabase}.
+ */
+public final class PetDatabase {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = PetDatabase.class.getSimpleName();
+
+    /** Column of the EXPLAIN QUERY PLAN output describing each step */
+    private static final String PLAN_DETAIL_COLUMN = "detail";
+
+    /**
+     * The transaction in progress on one thread. Like {@link SQLiteDatabase} transactions,
+     * nested transactions are part of the outermost one.
+     */
+    private static final class Transaction {
+
+        /** When the outermost transaction began, from {@link System#nanoTime()} */
+        final long startNanos;
+
+        /** Number of rows written so far */
+        int rows;
+
+        Transaction(long startNanos) {
+            this.startNanos = startNanos;
+        }
+    }
+
+    private final PetDbHelper mDbHelper;
+
+    private final PetDbMetrics mMetrics;
+
+    /** The transaction in progress on each thread, if it is being timed */
+    private final ThreadLocal<Transaction> mTransaction = new ThreadLocal<>();
+
+    /**
+     * Constructs a new {@link PetDatabase}. The app shares the one held by {@link PetDbHelper}.
+     */
+    PetDatabase(PetDbHelper dbHelper, PetDbMetrics metrics) {
+        mDbHelper = dbHelper;
+        mMetrics = metrics;
+    }
+
+    /**
+     * Queries the given table. While the metrics are turned on, the query is run straight
+     * away, by counting the rows of the cursor, so its time is recorded. Callers such as
+     * CursorLoader count the rows anyway, and the cursor remembers the count.
+     */
+    public Cursor query(String table, String[] columns, String selection,
+            String[] selectionArgs, String orderBy, String limit,
+            CancellationSignal cancellationSignal) {
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        if (!mMetrics.isEnabled()) {
+            return query(db, table, columns, selection, selectionArgs, orderBy, limit,
+                    cancellationSignal);
+        }
+
+        long startNanos = System.nanoTime();
+        Cursor cursor = query(db, table, columns, selection, selectionArgs, orderBy, limit,
+                cancellationSignal);
+        int rows = cursor.getCount();
+        long elapsedNanos = System.nanoTime() - startNanos;
+        mMetrics.record(Operation.QUERY, elapsedNanos, rows);
+        if (mMetrics.isSlow(elapsedNanos)) {
+            String sql = SQLiteQueryBuilder.buildQueryString(false, table, columns, selection,
+                    null, null, orderBy, limit);
+            recordSlowQuery(db, Operation.QUERY, sql, sql, selectionArgs, elapsedNanos, rows);
+        }
+        return cursor;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static Cursor query(SQLiteDatabase db, String table, String[] columns,
+            String selection, String[] selectionArgs, String orderBy, String limit,
+            CancellationSignal cancellationSignal) {
+        if (cancellationSignal != null) {
+            return db.query(false, table, columns, selection, selectionArgs, null, null,
+                    orderBy, limit, cancellationSignal);
+        }
+        return db.query(table, columns, selection, selectionArgs, null, null, orderBy, limit);
+    }
+
+    /**
+     * Runs a query that returns a single number, such as a count.
+     */
+    public long longForQuery(String sql, String[] selectionArgs) {
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        if (!mMetrics.isEnabled()) {
+            return DatabaseUtils.longForQuery(db, sql, selectionArgs);
+        }
+
+        long startNanos = System.nanoTime();
+        long result = DatabaseUtils.longForQuery(db, sql, selectionArgs);
+        long elapsedNanos = System.nanoTime() - startNanos;
+        mMetrics.record(Operation.QUERY, elapsedNanos, 1);
+        if (mMetrics.isSlow(elapsedNanos)) {
+            recordSlowQuery(db, Operation.QUERY, sql, sql, selectionArgs, elapsedNanos, 1);
+        }
+        return result;
+    }
+
+    /**
+     * Inserts a row into the given table.
+     *
+     * @return the row ID of the new row, or -1 if it could not be inserted
+     */
+    public long insert(String table, ContentValues values) {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        if (!mMetrics.isEnabled()) {
+            return db.insert(table, null, values);
+        }
+
+        long startNanos = System.nanoTime();
+        long id = db.insert(table, null, values);
+        int rows = id == -1 ? 0 : 1;
+        long elapsedNanos = System.nanoTime() - startNanos;
+        recordWrite(Operation.INSERT, elapsedNanos, rows);
+        if (mMetrics.isSlow(elapsedNanos)) {
+            // There are no rows to look up, so there is no plan worth showing
+            mMetrics.recordSlowQuery(Operation.INSERT, "INSERT INTO " + table + " "
+                    + values.keySet(), elapsedNanos, rows, Collections.<String>emptyList());
+        }
+        return id;
+    }
+
+    /**
+     * Updates the rows of the given table that match the selection.
+     *
+     * @return the number of rows updated
+     */
+    public int update(String table, ContentValues values, String selection,
+            String[] selectionArgs) {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        if (!mMetrics.isEnabled()) {
+            return db.update(table, values, selection, selectionArgs);
+        }
+
+        long startNanos = System.nanoTime();
+        int rows = db.update(table, values, selection, selectionArgs);
+        long elapsedNanos = System.nanoTime() - startNanos;
+        recordWrite(Operation.UPDATE, elapsedNanos, rows);
+        if (mMetrics.isSlow(elapsedNanos)) {
+            recordSlowQuery(db, Operation.UPDATE,
+                    "UPDATE " + table + " SET " + values.keySet() + where(selection),
+                    "SELECT rowid FROM " + table + where(selection), selectionArgs,
+                    elapsedNanos, rows);
+        }
+        return rows;
+    }
+
+    /**
+     * Deletes the rows of the given table that match the selection.
+     *
+     * @return the number of rows deleted
+     */
+    public int delete(String table, String selection, String[] selectionArgs) {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        if (!mMetrics.isEnabled()) {
+            return db.delete(table, selection, selectionArgs);
+        }
+
+        long startNanos = System.nanoTime();
+        int rows = db.delete(table, selection, selectionArgs);
+        long elapsedNanos = System.nanoTime() - startNanos;
+        recordWrite(Operation.DELETE, elapsedNanos, rows);
+        if (mMetrics.isSlow(elapsedNanos)) {
+            recordSlowQuery(db, Operation.DELETE, "DELETE FROM " + table + where(selection),
+                    "SELECT rowid FROM " + table + where(selection), selectionArgs,
+                    elapsedNanos, rows);
+        }
+        return rows;
+    }
+
+    /**
+     * Begins a transaction in exclusive mode. While the metrics are turned on, the outermost
+     * transaction on each thread is timed from here until {@link #endTransaction()}.
+     */
+    public void beginTransaction() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        boolean outermost = mMetrics.isEnabled() && !db.inTransaction();
+        long startNanos = outermost ? System.nanoTime() : 0;
+        db.beginTransaction();
+        if (outermost) {
+            mTransaction.set(new Transaction(startNanos));
+        }
+    }
+
+    /**
+     * Marks the current transaction as successful.
+     */
+    public void setTransactionSuccessful() {
+        mDbHelper.getWritableDatabase().setTransactionSuccessful();
+    }
+
+    /**
+     * Ends the current transaction, committing it if it was marked as successful.
+     */
+    public void endTransaction() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        db.endTransaction();
+
+        Transaction transaction = mTransaction.get();
+        if (transaction != null && !db.inTransaction()) {
+            mTransaction.set(null);
+            long elapsedNanos = System.nanoTime() - transaction.startNanos;
+            mMetrics.record(Operation.TRANSACTION, elapsedNanos, transaction.rows);
+            if (mMetrics.isSlow(elapsedNanos)) {
+                mMetrics.recordSlowQuery(Operation.TRANSACTION, "COMMIT", elapsedNanos,
+                        transaction.rows, Collections.<String>emptyList());
+            }
+        }
+    }
+
+    /**
+     * Records a write, and adds its rows to the transaction it is part of. Also used by
+     * {@link PetDao}.
+     */
+    void recordWrite(Operation operation, long elapsedNanos, int rows) {
+        mMetrics.record(operation, elapsedNanos, rows);
+        Transaction transaction = mTransaction.get();
+        if (transaction != null) {
+            transaction.rows += rows;
+        }
+    }
+
+    /**
+     * Looks up the query plan of a slow operation and records it.
+     *
+     * @param sql of the operation, as logged
+     * @param planSql a query with the same plan as the operation, to explain
+     */
+    private void recordSlowQuery(SQLiteDatabase db, Operation operation, String sql,
+            String planSql, String[] selectionArgs, long elapsedNanos, int rows) {
+        mMetrics.recordSlowQuery(operation, sql, elapsedNanos, rows,
+                explainQueryPlan(db, planSql, selectionArgs));
+    }
+
+    /**
+     * Returns the steps of the plan SQLite uses to run the given query, one line per step.
+     */
+    static List<String> explainQueryPlan(SQLiteDatabase db, String sql,
+            String[] selectionArgs) {
+        List<String> plan = new ArrayList<>();
+        try {
+            Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+            try {
+                int detailColumn = cursor.getColumnIndex(PLAN_DETAIL_COLUMN);
+                while (detailColumn != -1 && cursor.moveToNext()) {
+                    plan.add(cursor.getString(detailColumn));
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (SQLiteException e) {
+            // The metrics must never break the operation they are timing
+            Log.w(LOG_TAG, "Cannot explain " + sql, e);
+        }
+        return plan;
+    }
+
+    private static String where(String selection) {
+        return selection == null || selection.isEmpty() ? "" : " WHERE " + selection;
+    }
+}
@@ -15,14 +15,24 @@
  */
 package com.example.android.pets.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
 
+import com.example.android.pets.BuildConfig;
 import com.example.android.pets.data.PetContract.PetEntry;
 
 /**
  * Database helper for Pets app. Manages database creation and version management.
+ *
+ * The database uses write-ahead logging, so readers such as the catalog keep running while a
+ * write (for example a bulk import) is in progress. The PRAGMA tuning is set per build type in
+ * build.gradle.
  */
 public class PetDbHelper extends SQLiteOpenHelper {
 
@@ -34,15 +44,315 @@ public class PetDbHelper extends SQLiteOpenHelper {
     /**
      * Database version. If you change the database schema, you must increment the database version.
      */
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 9;
+
+    /**
+     * Name of the full-text search table over the pet names and breeds. Its docid is the _ID of
+     * the pet, and it is kept in sync with the pets table by triggers.
+     */
+    static final String FTS_TABLE_NAME = PetEntry.TABLE_NAME + "_fts";
+
+    /**
+     * Names of the summary tables with the number of pets of each gender, of each breed and in
+     * each weight range. They are kept up to date by triggers on the pets table, and read
+     * through {@link PetStats}.
+     */
+    static final String GENDER_COUNTS_TABLE_NAME = PetEntry.TABLE_NAME + "_gender_counts";
+    static final String BREED_COUNTS_TABLE_NAME = PetEntry.TABLE_NAME + "_breed_counts";
+    static final String WEIGHT_COUNTS_TABLE_NAME = PetEntry.TABLE_NAME + "_weight_counts";
+
+    /** Column of the summary tables with the number of pets in each group */
+    static final String COLUMN_PET_COUNT = "pet_count";
+
+    /**
+     * Column of the weight summary table with the weight range of each group, as the weight
+     * divided by {@link #WEIGHT_BUCKET_SIZE}.
+     */
+    static final String COLUMN_WEIGHT_BUCKET = "weight_bucket";
+
+    /**
+     * Width of each weight range in the weight summary table, in kilograms. It is part of the
+     * triggers, so changing it needs a new database version.
+     */
+    static final int WEIGHT_BUCKET_SIZE = 5;
+
+    /**
+     * Column of the pets table that marks a pet as deleted. Deleting pets only sets this, so
+     * the delete is a quick single UPDATE, and {@link PetCompactor} removes the rows later.
+     * Deleted pets are hidden by {@link PetProvider} and left out of the summary tables.
+     *
+     * Type: INTEGER, 0 or 1
+     */
+    static final String COLUMN_DELETED = "deleted";
+
+    /** Selection for pets that have not been deleted */
+    static final String SELECTION_NOT_DELETED = COLUMN_DELETED + " = 0";
+
+    /**
+     * The same selection, for queries that list pets rather than find deleted ones. Almost
+     * every pet is not deleted, so the index on {@link #COLUMN_DELETED} narrows nothing down
+     * for them, but SQLite still prefers it to walking the index on the sort column, and then
+     * sorts every pet in a temporary b-tree, which makes paging after a key as slow as OFFSET.
+     * The unary plus turns the column into an expression that no index can serve, and leaves
+     * the result the same.
+     */
+    static final String SELECTION_LISTED = "+" + COLUMN_DELETED + " = 0";
+
+    /**
+     * Column of the pets table with the ID that identifies a pet on every device it is synced
+     * to, as the _ID of the same pet differs from device to device. It is filled in with a
+     * random ID when a pet is added on this device.
+     *
+     * Type: TEXT, unique
+     */
+    static final String COLUMN_SYNC_ID = "sync_id";
+
+    /**
+     * Column of the pets table with the version of the pet on the sync server that this
+     * device last saw, or 0 if the server has never seen it. See {@link PetSyncEngine}.
+     *
+     * Type: INTEGER
+     */
+    static final String COLUMN_SERVER_VERSION = "server_version";
+
+    /**
+     * Name of the change journal, filled in by triggers on the pets table. It holds the latest
+     * change to each pet that has not been sent to the sync server yet, so a sync only sends
+     * the pets that changed since the last one. See {@link PetSyncEngine}.
+     */
+    static final String CHANGES_TABLE_NAME = PetEntry.TABLE_NAME + "_changes";
+
+    /**
+     * Columns of the change journal: the version of the change, which only ever goes up, the
+     * _ID and {@link #COLUMN_SYNC_ID} of the pet, the kind of change, one of the CHANGE_*
+     * values, the {@link #COLUMN_SERVER_VERSION} the change was made to, and when it was
+     * made, in milliseconds since the epoch.
+     */
+    static final String COLUMN_CHANGE_VERSION = "version";
+    static final String COLUMN_CHANGE_PET_ID = "pet_id";
+    static final String COLUMN_CHANGE_OP = "op";
+    static final String COLUMN_CHANGE_BASE_VERSION = "base_version";
+    static final String COLUMN_CHANGE_TIME = "changed_at";
+
+    /** Kinds of change in the change journal */
+    static final int CHANGE_INSERT = 1;
+    static final int CHANGE_UPDATE = 2;
+    static final int CHANGE_DELETE = 3;
+
+    /**
+     * Name of the table with the state of syncing with each sync server: the ID of this
+     * device and the server version of the last change received from the server.
+     */
+    static final String SYNC_STATE_TABLE_NAME = "sync_state";
+    static final String COLUMN_SERVER_URL = "server_url";
+    static final String COLUMN_DEVICE_ID = "device_id";
+    static final String COLUMN_CHECKPOINT = "checkpoint";
+
+    /**
+     * Name of the table with the checkpoint of each import that has not finished: the file,
+     * and the number of its records already committed. {@link PetImporter} moves the
+     * checkpoint forward in the same transaction as each chunk of rows.
+     */
+    static final String IMPORTS_TABLE_NAME = "imports";
+    static final String COLUMN_IMPORT_FILE = "file";
+    static final String COLUMN_IMPORT_RECORDS = "records";
+
+    /** SQL expression for a new random {@link #COLUMN_SYNC_ID} */
+    private static final String SQL_NEW_SYNC_ID = "lower(hex(randomblob(16)))";
+
+    /** SQL expression for the current time, in milliseconds since the epoch */
+    private static final String SQL_NOW_MILLIS =
+            "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)";
+
+    /** The single instance shared by the whole process */
+    private static PetDbHelper sInstance;
+
+    /** Timings of the operations made through {@link #mDatabase} */
+    private final PetDbMetrics mMetrics = new PetDbMetrics();
+
+    /** Timed access to this helper's database */
+    private final PetDatabase mDatabase = new PetDatabase(this, mMetrics);
+
+    /** Fixed statements for the most common writes and counts */
+    private final PetDao mDao = new PetDao(this, mDatabase, mMetrics);
+
+    /**
+     * Returns the {@link PetDbHelper} shared by the whole process, creating it if needed.
+     * Sharing one helper means every caller uses the same pool of database connections.
+     *
+     * @param context of the app
+     */
+    public static synchronized PetDbHelper getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PetDbHelper(context.getApplicationContext());
+        }
+        return sInstance;
+    }
 
     /**
      * Constructs a new instance of {@link PetDbHelper}.
      *
      * @param context of the app
      */
-    public PetDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    private PetDbHelper(Context context) {
+        this(context, DATABASE_NAME);
+    }
+
+    /**
+     * Constructs a helper for a separate database with the same schema, such as a scratch
+     * database for benchmarks. The app itself must use {@link #getInstance(Context)}.
+     *
+     * @param context of the app
+     * @param name of the database file
+     */
+    PetDbHelper(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+
+        // On API 16 and up the framework turns on write-ahead logging before the database is
+        // configured. Older versions turn it on in onOpen() instead.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    /**
+     * Returns timed access to the database, for the reads and writes the app makes while it is
+     * being used. The database is opened on first use.
+     */
+    public PetDatabase getDatabase() {
+        return mDatabase;
+    }
+
+    /**
+     * Returns the fixed statements for inserting, updating, deleting and counting pets,
+     * shared by every thread. The database is opened on first use.
+     */
+    public PetDao getDao() {
+        return mDao;
+    }
+
+    /**
+     * Returns the timings of the operations made through {@link #getDatabase()}.
+     */
+    public PetDbMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * This is called on API 16 and up when the database is opened, before it is created or
+     * upgraded.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+
+        // Let PetCompactor hand the pages of deleted rows back to the file system a few at a
+        // time. This only takes effect on a new database. Older databases are switched over by
+        // PetCompactor with a one-off VACUUM.
+        pragma(db, "auto_vacuum = INCREMENTAL");
+
+        // Before the database is created or upgraded, so migrations run with them too
+        configureConnection(db);
+    }
+
+    /**
+     * This is called every time the database is opened, after it has been created or upgraded.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            // Already configured by onConfigure()
+            return;
+        }
+        if (db.isReadOnly()) {
+            // The database could not be opened for writing, so it cannot change journal mode
+            return;
+        }
+        db.enableWriteAheadLogging();
+        configureConnection(db);
+    }
+
+    /**
+     * Applies the PRAGMAs from the build configuration to the connection the framework
+     * configures the database on, which is the primary connection that all writes and
+     * transactions go through.
+     *
+     * synchronous, cache_size and mmap_size only apply to the connection they are run on.
+     * Only the primary connection commits, so it is the one synchronous matters for. The
+     * connections the framework opens later for reading in parallel get no such hook, so they
+     * keep SQLite's own cache_size and mmap_size, see benchmarkPragmas() in the debug
+     * PetBenchmark.
+     *
+     * wal_autocheckpoint and journal_size_limit are also set per connection, but they only
+     * act on the write-ahead log of the database file, when a commit checkpoints or resets it,
+     * so setting them on the primary connection covers every write.
+     */
+    private static void configureConnection(SQLiteDatabase db) {
+        pragma(db, "synchronous = " + BuildConfig.DB_SYNCHRONOUS);
+        pragma(db, "cache_size = " + BuildConfig.DB_CACHE_SIZE_PAGES);
+        // Ignored by versions of SQLite that do not support memory-mapped I/O
+        pragma(db, "mmap_size = " + BuildConfig.DB_MMAP_SIZE_BYTES);
+
+        // Checkpoint policy: copy the log back into the database once it reaches this many
+        // pages, and truncate the log file back down to the size limit after each checkpoint,
+        // so it cannot grow without bound under sustained writes.
+        pragma(db, "wal_autocheckpoint = " + BuildConfig.DB_WAL_AUTOCHECKPOINT_PAGES);
+        pragma(db, "journal_size_limit = " + BuildConfig.DB_JOURNAL_SIZE_LIMIT_BYTES);
+    }
+
+    /**
+     * Runs a PRAGMA statement. Some PRAGMAs return their new value as a row, which execSQL()
+     * does not allow, so rawQuery() is used for all of them.
+     */
+    static void pragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            // Step the statement all the way through, so that it actually runs
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Opens the database, creating or upgrading it if needed, and runs the given queries, so
+     * the first real query finds the schema already read and the file already in the page
+     * cache. The queries are run the way the app runs them, on the connections kept for
+     * reading rather than the primary connection, which only serves writes and transactions
+     * while the database is in WAL mode. Each connection keeps its own cache of compiled
+     * statements, so the compiled queries are only reused by whichever reader this runs on.
+     * Must not be called on the main thread.
+     *
+     * @param sqls queries the app is about to run, exactly as they will be run, with no
+     *             arguments
+     */
+    public void warmUp(String... sqls) {
+        long startTime = SystemClock.elapsedRealtime();
+        SQLiteDatabase db = getReadableDatabase();
+        for (String sql : sqls) {
+            Cursor cursor = db.rawQuery(sql, null);
+            try {
+                // Step the query, which reads the pages the first rows are on
+                cursor.moveToFirst();
+            } finally {
+                cursor.close();
+            }
+        }
+        Log.i(LOG_TAG, "Database warmed up in " + (SystemClock.elapsedRealtime() - startTime)
+                + "ms");
+    }
+
+    /**
+     * Copies everything in the write-ahead log back into the database and starts the log again
+     * from the beginning. Call this after a large batch of writes, so the log is reset while no
+     * more writes are expected, rather than waiting for readers to let an automatic checkpoint
+     * finish. Must not be called on the main thread.
+     */
+    public void checkpoint() {
+        pragma(getWritableDatabase(), "wal_checkpoint(RESTART)");
     }
 
     /**
@@ -60,13 +370,336 @@ public class PetDbHelper extends SQLiteOpenHelper {
 
         // Execute the SQL statement
         db.execSQL(SQL_CREATE_PETS_TABLE);
+
+        // The statement above creates the version 1 schema, so bring it up to date by running
+        // the same migrations as an existing database would go through.
+        onUpgrade(db, 1, DATABASE_VERSION);
     }
 
     /**
-     * This is called when the database needs to be upgraded.
+     * This is called when the database needs to be upgraded. Each version's migration is applied
+     * in turn, so a database at any older version ends up at the latest one. The framework runs
+     * this inside a transaction, so a failed migration leaves the database unchanged.
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // The database is still at version 1, so there's nothing to do be done here.
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            switch (version) {
+                case 2:
+                    upgradeToVersion2(db);
+                    break;
+                case 3:
+                    upgradeToVersion3(db);
+                    break;
+                case 4:
+                    upgradeToVersion4(db);
+                    break;
+                case 5:
+                    upgradeToVersion5(db);
+                    break;
+                case 6:
+                    upgradeToVersion6(db);
+                    break;
+                case 7:
+                    upgradeToVersion7(db);
+                    break;
+                case 8:
+                    upgradeToVersion8(db);
+                    break;
+                case 9:
+                    upgradeToVersion9(db);
+                    break;
+                default:
+                    throw new IllegalStateException("No migration to database version " + version);
+            }
+        }
+    }
+
+    /**
+     * Version 2 adds indexes for looking up pets by name, breed and gender, so that filtering
+     * on those columns no longer scans the whole pets table.
+     */
+    private void upgradeToVersion2(SQLiteDatabase db) {
+        // Case-insensitive name lookups and sorting, e.g. "name = ? COLLATE NOCASE"
+        db.execSQL("CREATE INDEX " + PetEntry.TABLE_NAME + "_name_index ON "
+                + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_PET_NAME + " COLLATE NOCASE);");
+
+        db.execSQL("CREATE INDEX " + PetEntry.TABLE_NAME + "_breed_index ON "
+                + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_PET_BREED + ");");
+
+        // Filtering by gender, optionally with a weight range or sorted by weight
+        db.execSQL("CREATE INDEX " + PetEntry.TABLE_NAME + "_gender_weight_index ON "
+                + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_PET_GENDER + ", "
+                + PetEntry.COLUMN_PET_WEIGHT + ");");
+    }
+
+    /**
+     * Version 3 adds a full-text search table over the pet names and breeds, fills it from the
+     * existing pets, and adds triggers that keep it in sync with the pets table.
+     *
+     * FTS4 is used as it is available on every API level the app supports.
+     */
+    private void upgradeToVersion3(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE " + FTS_TABLE_NAME + " USING fts4("
+                + PetEntry.COLUMN_PET_NAME + ", "
+                + PetEntry.COLUMN_PET_BREED + ");");
+
+        db.execSQL("INSERT INTO " + FTS_TABLE_NAME + " (docid, "
+                + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ") SELECT "
+                + PetEntry._ID + ", " + PetEntry.COLUMN_PET_NAME + ", "
+                + PetEntry.COLUMN_PET_BREED + " FROM " + PetEntry.TABLE_NAME + ";");
+
+        db.execSQL("CREATE TRIGGER " + FTS_TABLE_NAME + "_insert AFTER INSERT ON "
+                + PetEntry.TABLE_NAME + " BEGIN INSERT INTO " + FTS_TABLE_NAME + " (docid, "
+                + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ") VALUES (new."
+                + PetEntry._ID + ", new." + PetEntry.COLUMN_PET_NAME + ", new."
+                + PetEntry.COLUMN_PET_BREED + "); END;");
+
+        db.execSQL("CREATE TRIGGER " + FTS_TABLE_NAME + "_update AFTER UPDATE OF "
+                + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + " ON "
+                + PetEntry.TABLE_NAME + " BEGIN UPDATE " + FTS_TABLE_NAME + " SET "
+                + PetEntry.COLUMN_PET_NAME + " = new." + PetEntry.COLUMN_PET_NAME + ", "
+                + PetEntry.COLUMN_PET_BREED + " = new." + PetEntry.COLUMN_PET_BREED
+                + " WHERE docid = old." + PetEntry._ID + "; END;");
+
+        db.execSQL("CREATE TRIGGER " + FTS_TABLE_NAME + "_delete AFTER DELETE ON "
+                + PetEntry.TABLE_NAME + " BEGIN DELETE FROM " + FTS_TABLE_NAME
+                + " WHERE docid = old." + PetEntry._ID + "; END;");
+    }
+
+    /**
+     * Version 4 adds summary tables with the number of pets of each gender, of each breed and
+     * in each weight range, fills them from the existing pets, and adds triggers that keep them
+     * up to date. Statistics are then read from a handful of summary rows rather than by
+     * scanning the pets table. Pets without a breed are counted under an empty breed.
+     */
+    private void upgradeToVersion4(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + GENDER_COUNTS_TABLE_NAME + " ("
+                + PetEntry.COLUMN_PET_GENDER + " INTEGER PRIMARY KEY, "
+                + COLUMN_PET_COUNT + " INTEGER NOT NULL);");
+        db.execSQL("CREATE TABLE " + BREED_COUNTS_TABLE_NAME + " ("
+                + PetEntry.COLUMN_PET_BREED + " TEXT PRIMARY KEY, "
+                + COLUMN_PET_COUNT + " INTEGER NOT NULL);");
+        db.execSQL("CREATE TABLE " + WEIGHT_COUNTS_TABLE_NAME + " ("
+                + COLUMN_WEIGHT_BUCKET + " INTEGER PRIMARY KEY, "
+                + COLUMN_PET_COUNT + " INTEGER NOT NULL);");
+
+        String breedKey = "IFNULL(" + PetEntry.COLUMN_PET_BREED + ", '')";
+        String weightKey = PetEntry.COLUMN_PET_WEIGHT + " / " + WEIGHT_BUCKET_SIZE;
+        db.execSQL("INSERT INTO " + GENDER_COUNTS_TABLE_NAME + " SELECT "
+                + PetEntry.COLUMN_PET_GENDER + ", COUNT(*) FROM " + PetEntry.TABLE_NAME
+                + " GROUP BY 1;");
+        db.execSQL("INSERT INTO " + BREED_COUNTS_TABLE_NAME + " SELECT " + breedKey
+                + ", COUNT(*) FROM " + PetEntry.TABLE_NAME + " GROUP BY 1;");
+        db.execSQL("INSERT INTO " + WEIGHT_COUNTS_TABLE_NAME + " SELECT " + weightKey
+                + ", COUNT(*) FROM " + PetEntry.TABLE_NAME + " GROUP BY 1;");
+
+        db.execSQL("CREATE TRIGGER " + PetEntry.TABLE_NAME + "_counts_insert AFTER INSERT ON "
+                + PetEntry.TABLE_NAME + " BEGIN "
+                + countPets("new.", 1)
+                + "END;");
+
+        db.execSQL("CREATE TRIGGER " + PetEntry.TABLE_NAME + "_counts_update AFTER UPDATE OF "
+                + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_BREED + ", "
+                + PetEntry.COLUMN_PET_WEIGHT + " ON " + PetEntry.TABLE_NAME + " BEGIN "
+                + countPets("old.", -1)
+                + countPets("new.", 1)
+                + "END;");
+
+        db.execSQL("CREATE TRIGGER " + PetEntry.TABLE_NAME + "_counts_delete AFTER DELETE ON "
+                + PetEntry.TABLE_NAME + " BEGIN "
+                + countPets("old.", -1)
+                + "END;");
+    }
+
+    /**
+     * Version 5 adds the {@link #COLUMN_DELETED} flag, with an index so that
+     * {@link PetCompactor} can find the deleted pets without a scan, and replaces the summary
+     * table triggers with ones that leave out deleted pets.
+     */
+    private void upgradeToVersion5(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN " + COLUMN_DELETED
+                + " INTEGER NOT NULL DEFAULT 0;");
+
+        db.execSQL("CREATE INDEX " + PetEntry.TABLE_NAME + "_deleted_index ON "
+                + PetEntry.TABLE_NAME + " (" + COLUMN_DELETED + ");");
+
+        db.execSQL("DROP TRIGGER " + PetEntry.TABLE_NAME + "_counts_insert;");
+        db.execSQL("DROP TRIGGER " + PetEntry.TABLE_NAME + "_counts_update;");
+        db.execSQL("DROP TRIGGER " + PetEntry.TABLE_NAME + "_counts_delete;");
+
+        db.execSQL("CREATE TRIGGER " + PetEntry.TABLE_NAME + "_counts_insert AFTER INSERT ON "
+                + PetEntry.TABLE_NAME + " WHEN new." + SELECTION_NOT_DELETED + " BEGIN "
+                + countPets("new.", 1)
+                + "END;");
+
+        // Marking a pet as deleted is an update, so each update takes the old row out of the
+        // counts and puts the new one in, unless either of them is deleted
+        String updatedColumns = PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_BREED
+                + ", " + PetEntry.COLUMN_PET_WEIGHT + ", " + COLUMN_DELETED;
+        db.execSQL("CREATE TRIGGER " + PetEntry.TABLE_NAME + "_counts_update_old AFTER UPDATE OF "
+                + updatedColumns + " ON " + PetEntry.TABLE_NAME
+                + " WHEN old." + SELECTION_NOT_DELETED + " BEGIN "
+                + countPets("old.", -1)
+                + "END;");
+        db.execSQL("CREATE TRIGGER " + PetEntry.TABLE_NAME + "_counts_update_new AFTER UPDATE OF "
+                + updatedColumns + " ON " + PetEntry.TABLE_NAME
+                + " WHEN new." + SELECTION_NOT_DELETED + " BEGIN "
+                + countPets("new.", 1)
+                + "END;");
+
+        // Pets removed by PetCompactor were taken out of the counts when they were marked
+        db.execSQL("CREATE TRIGGER " + PetEntry.TABLE_NAME + "_counts_delete AFTER DELETE ON "
+                + PetEntry.TABLE_NAME + " WHEN old." + SELECTION_NOT_DELETED + " BEGIN "
+                + countPets("old.", -1)
+                + "END;");
+    }
+
+    /**
+     * Version 6 adds the URI of a photo of each pet. Only the URI is stored, the image itself
+     * is a file, so rows stay small enough for cursor windows and scans stay fast.
+     */
+    private void upgradeToVersion6(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN "
+                + PetEntry.COLUMN_PET_PHOTO_URI + " TEXT;");
+    }
+
+    /**
+     * Version 7 adds an index on the weight, so the catalog can be sorted by weight, and read
+     * a page at a time from any point in the list, without sorting the whole pets table. The
+     * index holds the _ID of each pet, so it also serves the _ID that breaks ties in the sort.
+     */
+    private void upgradeToVersion7(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX " + PetEntry.TABLE_NAME + "_weight_index ON "
+                + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_PET_WEIGHT + ");");
+    }
+
+    /**
+     * Version 8 adds what {@link PetSyncEngine} needs to sync the pets between devices: a
+     * sync ID and the server version of each pet, the change journal and the sync state.
+     * Every existing pet is put in the journal, so the first sync sends them all.
+     *
+     * The journal only holds the latest change to each pet, as each new change replaces the
+     * one before it. The journal holds its own copy of the sync ID, so the deletion of a pet
+     * can still be sent after {@link PetCompactor} has removed the row. The _ID of a pet is
+     * never reused, as the pets table uses AUTOINCREMENT.
+     */
+    private void upgradeToVersion8(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN " + COLUMN_SYNC_ID
+                + " TEXT;");
+        db.execSQL("ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN "
+                + COLUMN_SERVER_VERSION + " INTEGER NOT NULL DEFAULT 0;");
+        db.execSQL("UPDATE " + PetEntry.TABLE_NAME + " SET " + COLUMN_SYNC_ID + " = "
+                + SQL_NEW_SYNC_ID + ";");
+        db.execSQL("CREATE UNIQUE INDEX " + PetEntry.TABLE_NAME + "_sync_id_index ON "
+                + PetEntry.TABLE_NAME + " (" + COLUMN_SYNC_ID + ");");
+
+        // AUTOINCREMENT, so a version is never reused after its change has been sent
+        db.execSQL("CREATE TABLE " + CHANGES_TABLE_NAME + " ("
+                + COLUMN_CHANGE_VERSION + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COLUMN_CHANGE_PET_ID + " INTEGER NOT NULL UNIQUE, "
+                + COLUMN_SYNC_ID + " TEXT NOT NULL, "
+                + COLUMN_CHANGE_OP + " INTEGER NOT NULL, "
+                + COLUMN_CHANGE_BASE_VERSION + " INTEGER NOT NULL, "
+                + COLUMN_CHANGE_TIME + " INTEGER NOT NULL);");
+
+        db.execSQL("CREATE TABLE " + SYNC_STATE_TABLE_NAME + " ("
+                + COLUMN_SERVER_URL + " TEXT PRIMARY KEY, "
+                + COLUMN_DEVICE_ID + " TEXT NOT NULL, "
+                + COLUMN_CHECKPOINT + " INTEGER NOT NULL DEFAULT 0);");
+
+        db.execSQL("INSERT INTO " + CHANGES_TABLE_NAME + " (" + COLUMN_CHANGE_PET_ID + ", "
+                + COLUMN_SYNC_ID + ", " + COLUMN_CHANGE_OP + ", " + COLUMN_CHANGE_BASE_VERSION
+                + ", " + COLUMN_CHANGE_TIME + ") SELECT " + PetEntry._ID + ", " + COLUMN_SYNC_ID
+                + ", " + CHANGE_INSERT + ", 0, " + SQL_NOW_MILLIS + " FROM "
+                + PetEntry.TABLE_NAME + " WHERE " + SELECTION_NOT_DELETED + ";");
+
+        // Pets added on this device get a new sync ID, while pets received from the server
+        // already have one. Setting the sync ID does not fire the update trigger below.
+        db.execSQL("CREATE TRIGGER " + CHANGES_TABLE_NAME + "_insert AFTER INSERT ON "
+                + PetEntry.TABLE_NAME + " BEGIN "
+                + "UPDATE " + PetEntry.TABLE_NAME + " SET " + COLUMN_SYNC_ID + " = "
+                + SQL_NEW_SYNC_ID + " WHERE " + PetEntry._ID + " = new." + PetEntry._ID
+                + " AND " + COLUMN_SYNC_ID + " IS NULL; "
+                + "INSERT OR REPLACE INTO " + CHANGES_TABLE_NAME + " (" + COLUMN_CHANGE_PET_ID
+                + ", " + COLUMN_SYNC_ID + ", " + COLUMN_CHANGE_OP + ", "
+                + COLUMN_CHANGE_BASE_VERSION + ", " + COLUMN_CHANGE_TIME + ") SELECT "
+                + PetEntry._ID + ", " + COLUMN_SYNC_ID + ", " + CHANGE_INSERT + ", "
+                + COLUMN_SERVER_VERSION + ", " + SQL_NOW_MILLIS + " FROM " + PetEntry.TABLE_NAME
+                + " WHERE " + PetEntry._ID + " = new." + PetEntry._ID + "; "
+                + "END;");
+
+        // Marking a pet as deleted is an update, and is journaled as a delete. The photo is
+        // not synced, as it is a file on this device, and nor are the sync columns.
+        db.execSQL("CREATE TRIGGER " + CHANGES_TABLE_NAME + "_update AFTER UPDATE OF "
+                + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ", "
+                + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT + ", "
+                + COLUMN_DELETED + " ON " + PetEntry.TABLE_NAME
+                + " WHEN old." + SELECTION_NOT_DELETED + " BEGIN "
+                + journalChange("new.", "CASE WHEN new." + COLUMN_DELETED + " THEN "
+                        + CHANGE_DELETE + " ELSE " + CHANGE_UPDATE + " END")
+                + "END;");
+
+        // Pets are only removed once they have been marked as deleted, and journaled then
+        db.execSQL("CREATE TRIGGER " + CHANGES_TABLE_NAME + "_delete AFTER DELETE ON "
+                + PetEntry.TABLE_NAME + " WHEN old." + SELECTION_NOT_DELETED + " BEGIN "
+                + journalChange("old.", String.valueOf(CHANGE_DELETE))
+                + "END;");
+    }
+
+    /**
+     * Version 9 adds the table of import checkpoints, which were kept in shared preferences.
+     * The preferences were saved after each chunk had been committed, so a crash in between
+     * left a checkpoint behind the rows, and resuming imported those rows again. Checkpoints
+     * still in the preferences are picked up by {@link PetImporter} when the import resumes.
+     */
+    private void upgradeToVersion9(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + IMPORTS_TABLE_NAME + " ("
+                + COLUMN_IMPORT_FILE + " TEXT PRIMARY KEY, "
+                + COLUMN_IMPORT_RECORDS + " INTEGER NOT NULL);");
+    }
+
+    /**
+     * Returns a trigger statement that puts a change to the pet row with the given prefix
+     * ("new." or "old.") in the change journal, in place of any earlier change to the pet.
+     */
+    private static String journalChange(String row, String op) {
+        return "INSERT OR REPLACE INTO " + CHANGES_TABLE_NAME + " (" + COLUMN_CHANGE_PET_ID
+                + ", " + COLUMN_SYNC_ID + ", " + COLUMN_CHANGE_OP + ", "
+                + COLUMN_CHANGE_BASE_VERSION + ", " + COLUMN_CHANGE_TIME + ") VALUES ("
+                + row + PetEntry._ID + ", " + row + COLUMN_SYNC_ID + ", " + op + ", "
+                + row + COLUMN_SERVER_VERSION + ", " + SQL_NOW_MILLIS + "); ";
+    }
+
+    /**
+     * Returns trigger statements that add the given amount to the gender, breed and weight
+     * counts of the pet row with the given prefix ("new." or "old.").
+     */
+    private static String countPets(String row, int amount) {
+        return addToCount(GENDER_COUNTS_TABLE_NAME, PetEntry.COLUMN_PET_GENDER,
+                row + PetEntry.COLUMN_PET_GENDER, amount)
+                + addToCount(BREED_COUNTS_TABLE_NAME, PetEntry.COLUMN_PET_BREED,
+                        "IFNULL(" + row + PetEntry.COLUMN_PET_BREED + ", '')", amount)
+                + addToCount(WEIGHT_COUNTS_TABLE_NAME, COLUMN_WEIGHT_BUCKET,
+                        row + PetEntry.COLUMN_PET_WEIGHT + " / " + WEIGHT_BUCKET_SIZE, amount);
+    }
+
+    /**
+     * Returns trigger statements that add the given amount to the count of one group in a
+     * summary table, creating the group if needed and removing it once it is empty. Upserts
+     * are not used, as they are not available in the SQLite of older devices.
+     */
+    private static String addToCount(String table, String keyColumn, String key, int amount) {
+        String statements = "";
+        if (amount > 0) {
+            statements += "INSERT OR IGNORE INTO " + table + " VALUES (" + key + ", 0); ";
+        }
+        statements += "UPDATE " + table + " SET " + COLUMN_PET_COUNT + " = " + COLUMN_PET_COUNT
+                + " + (" + amount + ") WHERE " + keyColumn + " = " + key + "; ";
+        if (amount < 0) {
+            statements += "DELETE FROM " + table + " WHERE " + keyColumn + " = " + key
+                    + " AND " + COLUMN_PET_COUNT + " <= 0; ";
+        }
+        return statements;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.util.Log;
+
+import com.example.android.pets.BuildConfig;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timings of the database operations made through {@link PetDatabase}.
+ *
+ * For each kind of operation it keeps a latency histogram, the number of rows read or written
+ * and the total time spent. Operations slower than the slow query threshold are logged along
+ * with their query plan, and the most recent of them are kept for the dump.
+ *
+ * Recording is turned on in debug builds and off in release builds, see build.gradle, and can
+ * be switched at runtime. While it is off, {@link PetDatabase} skips the timing altogether, so
+ * the only cost is reading {@link #isEnabled()}.
+ *
+ * All of the methods are thread safe.
+ */
+public final class PetDbMetrics {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = PetDbMetrics.class.getSimpleName();
+
+    /** Number of slow queries kept for the dump, the oldest are dropped first */
+    private static final int MAX_SLOW_QUERIES = 50;
+
+    /**
+     * Number of histogram buckets. Bucket 0 counts operations under 1µs, and bucket i those
+     * from 2^(i-1)µs up to 2^iµs. The last bucket counts everything from about 8 seconds up.
+     */
+    private static final int HISTOGRAM_BUCKETS = 25;
+
+    /**
+     * Kinds of operations that are timed.
+     */
+    public enum Operation {
+        QUERY, INSERT, UPDATE, DELETE, TRANSACTION
+    }
+
+    /**
+     * A single operation that took longer than the slow query threshold.
+     */
+    public static final class SlowQuery {
+
+        /** When the operation finished, in milliseconds since the epoch */
+        public final long timeMillis;
+
+        public final Operation operation;
+
+        /** SQL of the operation, with ? in place of the arguments */
+        public final String sql;
+
+        /** Time the operation took, in nanoseconds */
+        public final long elapsedNanos;
+
+        /** Number of rows read or written */
+        public final int rows;
+
+        /** Lines of EXPLAIN QUERY PLAN output, empty if the operation has no plan */
+        public final List<String> plan;
+
+        SlowQuery(long timeMillis, Operation operation, String sql, long elapsedNanos, int rows,
+                List<String> plan) {
+            this.timeMillis = timeMillis;
+            this.operation = operation;
+            this.sql = sql;
+            this.elapsedNanos = elapsedNanos;
+            this.rows = rows;
+            this.plan = plan;
+        }
+    }
+
+    /**
+     * Latency histogram and totals of one kind of operation.
+     */
+    private static final class Histogram {
+
+        final long[] buckets = new long[HISTOGRAM_BUCKETS];
+        long count;
+        long rows;
+        long totalNanos;
+        long maxNanos;
+
+        void add(long elapsedNanos, int rows) {
+            // Index of the highest bit of the time in microseconds
+            long micros = elapsedNanos / 1000;
+            int bucket = 64 - Long.numberOfLeadingZeros(micros);
+            buckets[Math.min(bucket, HISTOGRAM_BUCKETS - 1)]++;
+            count++;
+            this.rows += rows;
+            totalNanos += elapsedNanos;
+            maxNanos = Math.max(maxNanos, elapsedNanos);
+        }
+
+        /**
+         * Returns an upper bound, in microseconds, of the given percentile of the latencies.
+         * Each bucket is twice as wide as the one before, so this is within a factor of two.
+         */
+        long getPercentileMicros(double percentile) {
+            long target = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < HISTOGRAM_BUCKETS - 1; i++) {
+                seen += buckets[i];
+                if (seen >= target) {
+                    return Math.min(1L << i, TimeUnit.NANOSECONDS.toMicros(maxNanos));
+                }
+            }
+            return TimeUnit.NANOSECONDS.toMicros(maxNanos);
+        }
+    }
+
+    /** Whether operations are being recorded */
+    private volatile boolean mEnabled = BuildConfig.DB_METRICS_ENABLED;
+
+    /** Operations that take at least this long are logged with their query plan */
+    private volatile long mSlowQueryThresholdNanos =
+            TimeUnit.MILLISECONDS.toNanos(BuildConfig.DB_SLOW_QUERY_MILLIS);
+
+    /** Histogram of each kind of operation, indexed by {@link Operation#ordinal()} */
+    private final Histogram[] mHistograms = new Histogram[Operation.values().length];
+
+    /** The most recent slow queries, oldest first */
+    private final ArrayDeque<SlowQuery> mSlowQueries = new ArrayDeque<>(MAX_SLOW_QUERIES);
+
+    /** Time the metrics were last reset, in milliseconds since the epoch */
+    private long mSinceMillis;
+
+    /**
+     * Constructs a new, empty {@link PetDbMetrics}. The app shares the one held by
+     * {@link PetDbHelper}.
+     */
+    PetDbMetrics() {
+        reset();
+    }
+
+    /**
+     * Returns whether operations are being recorded.
+     */
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Turns recording on or off. The metrics recorded so far are kept.
+     */
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    /**
+     * Returns the time from which operations are logged as slow, in milliseconds.
+     */
+    public long getSlowQueryThresholdMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(mSlowQueryThresholdNanos);
+    }
+
+    /**
+     * Sets the time from which operations are logged as slow, in milliseconds.
+     */
+    public void setSlowQueryThresholdMillis(long thresholdMillis) {
+        mSlowQueryThresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    }
+
+    /**
+     * Returns whether an operation that took the given time counts as slow.
+     */
+    boolean isSlow(long elapsedNanos) {
+        return elapsedNanos >= mSlowQueryThresholdNanos;
+    }
+
+    /**
+     * Adds a finished operation to the histogram of its kind.
+     *
+     * @param operation kind of operation
+     * @param elapsedNanos time the operation took
+     * @param rows number of rows read or written
+     */
+    synchronized void record(Operation operation, long elapsedNanos, int rows) {
+        mHistograms[operation.ordinal()].add(elapsedNanos, rows);
+    }
+
+    /**
+     * Logs a slow operation and keeps it for the dump. Only the SQL is logged, never the
+     * arguments, as they hold the details of the pets.
+     */
+    void recordSlowQuery(Operation operation, String sql, long elapsedNanos, int rows,
+            List<String> plan) {
+        SlowQuery slowQuery = new SlowQuery(System.currentTimeMillis(), operation, sql,
+                elapsedNanos, rows, plan);
+        Log.w(LOG_TAG, "Slow " + operation + " took "
+                + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + "ms for " + rows + " rows: "
+                + sql + (plan.isEmpty() ? "" : "\n  plan: " + plan));
+        synchronized (this) {
+            if (mSlowQueries.size() == MAX_SLOW_QUERIES) {
+                mSlowQueries.removeFirst();
+            }
+            mSlowQueries.addLast(slowQuery);
+        }
+    }
+
+    /**
+     * Clears all of the recorded operations and slow queries.
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < mHistograms.length; i++) {
+            mHistograms[i] = new Histogram();
+        }
+        mSlowQueries.clear();
+        mSinceMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Writes a human readable summary of the metrics, for the debug screen and for
+     * "adb shell dumpsys activity provider com.example.android.pets".
+     */
+    public synchronized void dump(PrintWriter writer) {
+        writer.println("Database metrics since " + formatTime(mSinceMillis)
+                + (mEnabled ? "" : " (recording is off)"));
+        writer.println("Slow query threshold: " + getSlowQueryThresholdMillis() + "ms");
+        writer.println();
+        writer.println(String.format(Locale.US, "%-12s %8s %10s %9s %9s %9s %9s %9s",
+                "operation", "count", "rows", "mean_ms", "p50_ms", "p90_ms", "p99_ms", "max_ms"));
+        for (Operation operation : Operation.values()) {
+            Histogram histogram = mHistograms[operation.ordinal()];
+            writer.println(String.format(Locale.US,
+                    "%-12s %8d %10d %9.2f %9.2f %9.2f %9.2f %9.2f",
+                    operation.name().toLowerCase(Locale.US), histogram.count, histogram.rows,
+                    getMeanMillis(histogram),
+                    histogram.getPercentileMicros(50) / 1000.0,
+                    histogram.getPercentileMicros(90) / 1000.0,
+                    histogram.getPercentileMicros(99) / 1000.0,
+                    histogram.maxNanos / 1e6));
+        }
+
+        writer.println();
+        writer.println("Slow queries, most recent last (" + mSlowQueries.size() + "):");
+        for (SlowQuery slowQuery : mSlowQueries) {
+            writer.println(String.format(Locale.US, "%s %s %.1fms %d rows",
+                    formatTime(slowQuery.timeMillis), slowQuery.operation,
+                    slowQuery.elapsedNanos / 1e6, slowQuery.rows));
+            writer.println("  " + slowQuery.sql);
+            for (String line : slowQuery.plan) {
+                writer.println("    " + line);
+            }
+        }
+        writer.flush();
+    }
+
+    /**
+     * Returns the metrics as a JSON document, so they can be exported and compared over time.
+     */
+    public synchronized JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("since", mSinceMillis);
+        json.put("enabled", mEnabled);
+        json.put("slow_query_threshold_ms", getSlowQueryThresholdMillis());
+
+        JSONObject operations = new JSONObject();
+        for (Operation operation : Operation.values()) {
+            Histogram histogram = mHistograms[operation.ordinal()];
+            JSONObject operationJson = new JSONObject();
+            operationJson.put("count", histogram.count);
+            operationJson.put("rows", histogram.rows);
+            operationJson.put("total_ms", histogram.totalNanos / 1e6);
+            operationJson.put("mean_ms", getMeanMillis(histogram));
+            operationJson.put("p50_ms", histogram.getPercentileMicros(50) / 1000.0);
+            operationJson.put("p90_ms", histogram.getPercentileMicros(90) / 1000.0);
+            operationJson.put("p99_ms", histogram.getPercentileMicros(99) / 1000.0);
+            operationJson.put("max_ms", histogram.maxNanos / 1e6);
+
+            // Only the buckets with something in them, keyed by their upper bound
+            JSONArray buckets = new JSONArray();
+            for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+                if (histogram.buckets[i] != 0) {
+                    JSONObject bucket = new JSONObject();
+                    bucket.put("under_us", i < HISTOGRAM_BUCKETS - 1 ? 1L << i : Long.MAX_VALUE);
+                    bucket.put("count", histogram.buckets[i]);
+                    buckets.put(bucket);
+                }
+            }
+            operationJson.put("histogram", buckets);
+            operations.put(operation.name().toLowerCase(Locale.US), operationJson);
+        }
+        json.put("operations", operations);
+
+        JSONArray slowQueries = new JSONArray();
+        for (SlowQuery slowQuery : mSlowQueries) {
+            JSONObject slowQueryJson = new JSONObject();
+            slowQueryJson.put("time", slowQuery.timeMillis);
+            slowQueryJson.put("operation", slowQuery.operation.name().toLowerCase(Locale.US));
+            slowQueryJson.put("sql", slowQuery.sql);
+            slowQueryJson.put("elapsed_ms", slowQuery.elapsedNanos / 1e6);
+            slowQueryJson.put("rows", slowQuery.rows);
+            slowQueryJson.put("plan", new JSONArray(slowQuery.plan));
+            slowQueries.put(slowQueryJson);
+        }
+        json.put("slow_queries", slowQueries);
+        return json;
+    }
+
+    private static double getMeanMillis(Histogram histogram) {
+        return histogram.count == 0 ? 0 : histogram.totalNanos / 1e6 / histogram.count;
+    }
+
+    private static String formatTime(long timeMillis) {
+        return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US).format(new Date(timeMillis));
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.v4.app.JobIntentService;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Background job that exports the pets table once a day, for reporting.
+ *
+ * Exports are gzipped CSV files named after the day they were made, in the "exports" directory
+ * of the app's external files. Only the most recent {@link #MAX_EXPORTS} are kept.
+ */
+public class PetExportService extends JobIntentService {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = PetExportService.class.getSimpleName();
+
+    /** Unique job ID for this service */
+    private static final int JOB_ID = 1000;
+
+    /** Name of the directory exports are written to */
+    private static final String EXPORT_DIR = "exports";
+
+    /** Prefix and suffix of the export file names */
+    private static final String EXPORT_PREFIX = "pets-";
+    private static final String EXPORT_SUFFIX = ".csv.gz";
+
+    /** Number of exports kept before the oldest are deleted */
+    private static final int MAX_EXPORTS = 7;
+
+    /**
+     * Schedules an export to run about once a day, unless one is already scheduled, so this
+     * can be called every time the app starts. Scheduling again would replace the earlier
+     * alarm and push the export a day further back, so with the app started every day it
+     * would never run. The alarm is forgotten when the device restarts or the app is force
+     * stopped, and is then scheduled again on the next start.
+     *
+     * @param context of the app
+     * @return whether the export was scheduled, false if it already was
+     */
+    public static boolean scheduleNightlyExport(Context context) {
+        if (isNightlyExportScheduled(context)) {
+            return false;
+        }
+        PendingIntent operation = PendingIntent.getBroadcast(context, 0,
+                new Intent(context, AlarmReceiver.class), 0);
+        AlarmManager alarmManager =
+                (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        // Inexact, so the system can run the export alongside other work while the device is
+        // already awake
+        alarmManager.setInexactRepeating(AlarmManager.ELAPSED_REALTIME,
+                SystemClock.elapsedRealtime() + AlarmManager.INTERVAL_DAY,
+                AlarmManager.INTERVAL_DAY, operation);
+        return true;
+    }
+
+    /**
+     * Returns whether the nightly export has been scheduled, by looking for the alarm's
+     * PendingIntent without creating it.
+     *
+     * @param context of the app
+     */
+    static boolean isNightlyExportScheduled(Context context) {
+        return PendingIntent.getBroadcast(context, 0, new Intent(context, AlarmReceiver.class),
+                PendingIntent.FLAG_NO_CREATE) != null;
+    }
+
+    /**
+     * Queues an export to run in the background straight away.
+     *
+     * @param context of the app
+     */
+    public static void enqueueExport(Context context) {
+        enqueueWork(context, PetExportService.class, JOB_ID,
+                new Intent(context, PetExportService.class));
+    }
+
+    /**
+     * Exports every pet to a new file in the exports directory, then deletes old exports.
+     * Must not be called on the main thread.
+     *
+     * @param context of the app
+     * @return the outcome of the export
+     * @throws IOException if the export cannot be written
+     */
+    public static PetExporter.Result export(Context context) throws IOException {
+        File dir = context.getExternalFilesDir(EXPORT_DIR);
+        if (dir == null) {
+            throw new IOException("External storage is not available");
+        }
+
+        String date = new SimpleDateFormat("yyyy-MM-dd", Locale.US).format(new Date());
+        File file = new File(dir, EXPORT_PREFIX + date + EXPORT_SUFFIX);
+        PetExporter.Result result = new PetExporter(context)
+                .export(file, PetExporter.Format.CSV, true /* gzip */);
+
+        deleteOldExports(dir);
+        return result;
+    }
+
+    /**
+     * Deletes all but the most recent {@link #MAX_EXPORTS} exports in the given directory.
+     */
+    private static void deleteOldExports(File dir) {
+        String[] names = dir.list();
+        if (names == null) {
+            return;
+        }
+
+        // Sort the exports oldest first. The dates in the names sort in the same order.
+        String[] exports = new String[names.length];
+        int count = 0;
+        for (String name : names) {
+            if (name.startsWith(EXPORT_PREFIX) && name.endsWith(EXPORT_SUFFIX)) {
+                exports[count++] = name;
+            }
+        }
+        Arrays.sort(exports, 0, count);
+
+        for (int i = 0; i < count - MAX_EXPORTS; i++) {
+            if (!new File(dir, exports[i]).delete()) {
+                Log.w(LOG_TAG, "Failed to delete old export " + exports[i]);
+            }
+        }
+    }
+
+    @Override
+    protected void onHandleWork(@NonNull Intent intent) {
+        try {
+            export(this);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to export pets", e);
+        }
+    }
+
+    /**
+     * Receives the daily alarm and hands the export over to the service.
+     */
+    public static class AlarmReceiver extends BroadcastReceiver {
+
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            enqueueExport(context);
+        }
+    }
+}
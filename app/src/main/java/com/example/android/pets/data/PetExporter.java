@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.JsonWriter;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Exports the pets table to CSV or JSON files, in the same format {@link PetImporter} reads.
+ *
+ * The table is read in chunks of {@link #CHUNK_SIZE} rows, each starting after the last _ID of
+ * the chunk before (keyset pagination), and written straight out through a buffered stream, so
+ * memory use stays the same however many pets there are. The export is written to a temporary
+ * file that only replaces the destination once it is complete.
+ *
+ * The export is not a snapshot: pets written while it runs may or may not be included. Exports
+ * do blocking I/O and must not be run on the main thread.
+ */
+public final class PetExporter {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = PetExporter.class.getSimpleName();
+
+    /** Number of rows read from the database at a time */
+    private static final int CHUNK_SIZE = 1000;
+
+    /** Size of the output buffer, in bytes */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Columns written for each pet, in order. Photos are not exported. */
+    static final String[] PROJECTION = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT };
+
+    /** Selection for the chunk after a given _ID, leaving out deleted pets */
+    private static final String SELECTION_AFTER_ID = PetEntry._ID + " > ? AND "
+            + PetDbHelper.SELECTION_LISTED;
+
+    /**
+     * File formats that can be exported.
+     */
+    public enum Format {
+        CSV,
+        JSON
+    }
+
+    /**
+     * Outcome of a completed export.
+     */
+    public static final class Result {
+
+        /** Number of pets exported */
+        public final int rowsExported;
+
+        /** Size of the exported file, in bytes */
+        public final long bytesWritten;
+
+        /** Time spent exporting, in milliseconds */
+        public final long elapsedMillis;
+
+        Result(int rowsExported, long bytesWritten, long elapsedMillis) {
+            this.rowsExported = rowsExported;
+            this.bytesWritten = bytesWritten;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /**
+         * Returns the number of rows exported per second.
+         */
+        public double getRowsPerSecond() {
+            return elapsedMillis == 0 ? rowsExported : rowsExported * 1000.0 / elapsedMillis;
+        }
+    }
+
+    /** Database helper shared with the rest of the app */
+    private final PetDbHelper mDbHelper;
+
+    /**
+     * Constructs a new {@link PetExporter}.
+     *
+     * @param context of the app
+     */
+    public PetExporter(Context context) {
+        this(PetDbHelper.getInstance(context));
+    }
+
+    /**
+     * Constructs a {@link PetExporter} for a separate database, such as a scratch database
+     * for benchmarks.
+     */
+    PetExporter(PetDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * Exports every pet to the given file.
+     *
+     * @param file to write, replaced if it already exists
+     * @param format to write the pets in
+     * @param gzip whether to compress the file with gzip
+     * @return the outcome of the export
+     * @throws IOException if the file cannot be written. The destination is left untouched.
+     */
+    public Result export(File file, Format format, boolean gzip) throws IOException {
+        long startTime = SystemClock.elapsedRealtime();
+        File tempFile = new File(file.getPath() + ".tmp");
+
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile), BUFFER_SIZE);
+        int rowsExported;
+        boolean successful = false;
+        try {
+            if (gzip) {
+                out = new GZIPOutputStream(out, BUFFER_SIZE);
+            }
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), BUFFER_SIZE);
+            RowWriter rows = format == Format.JSON
+                    ? new JsonRowWriter(writer) : new CsvRowWriter(writer);
+            rowsExported = writeAll(rows);
+            rows.finish();
+            writer.flush();
+            successful = true;
+        } finally {
+            out.close();
+            if (!successful) {
+                tempFile.delete();
+            }
+        }
+
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Cannot rename " + tempFile + " to " + file);
+        }
+
+        Result result = new Result(rowsExported, file.length(),
+                SystemClock.elapsedRealtime() - startTime);
+        Log.i(LOG_TAG, "Exported " + result.rowsExported + " pets to " + file.getName() + " ("
+                + result.bytesWritten + " bytes) in " + result.elapsedMillis + "ms ("
+                + (int) result.getRowsPerSecond() + " rows/s)");
+        return result;
+    }
+
+    /**
+     * Reads the pets table a chunk at a time, in _ID order, and writes every row.
+     *
+     * @return the number of rows written
+     */
+    private int writeAll(RowWriter rows) throws IOException {
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        String limit = String.valueOf(CHUNK_SIZE);
+        String[] selectionArgs = new String[1];
+        long lastId = -1;
+        int rowsWritten = 0;
+        int chunkRows;
+        do {
+            chunkRows = 0;
+            selectionArgs[0] = String.valueOf(lastId);
+            Cursor cursor = db.query(PetEntry.TABLE_NAME, PROJECTION, SELECTION_AFTER_ID,
+                    selectionArgs, null, null, PetEntry._ID, limit);
+            try {
+                while (cursor.moveToNext()) {
+                    lastId = cursor.getLong(0);
+                    rows.write(cursor);
+                    chunkRows++;
+                }
+            } finally {
+                cursor.close();
+            }
+            rowsWritten += chunkRows;
+        } while (chunkRows == CHUNK_SIZE);
+        return rowsWritten;
+    }
+
+    /**
+     * Writes rows of a cursor with the columns in {@link #PROJECTION} to a file.
+     */
+    private interface RowWriter {
+
+        /** Writes the current row of the cursor */
+        void write(Cursor cursor) throws IOException;
+
+        /** Writes anything needed after the last row */
+        void finish() throws IOException;
+    }
+
+    /**
+     * Writes rows as CSV with a header row. Text is quoted when it contains a comma, quote or
+     * line break.
+     */
+    private static final class CsvRowWriter implements RowWriter {
+        private final Writer mWriter;
+
+        CsvRowWriter(Writer writer) throws IOException {
+            mWriter = writer;
+            for (int i = 0; i < PROJECTION.length; i++) {
+                if (i > 0) {
+                    mWriter.write(',');
+                }
+                mWriter.write(PROJECTION[i]);
+            }
+            mWriter.write('\n');
+        }
+
+        @Override
+        public void write(Cursor cursor) throws IOException {
+            mWriter.write(Long.toString(cursor.getLong(0)));
+            mWriter.write(',');
+            writeText(cursor.getString(1));
+            mWriter.write(',');
+            writeText(cursor.getString(2));
+            mWriter.write(',');
+            mWriter.write(Integer.toString(cursor.getInt(3)));
+            mWriter.write(',');
+            mWriter.write(Integer.toString(cursor.getInt(4)));
+            mWriter.write('\n');
+        }
+
+        private void writeText(String text) throws IOException {
+            if (text == null) {
+                return;
+            }
+            boolean quote = false;
+            for (int i = 0; i < text.length() && !quote; i++) {
+                char c = text.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) {
+                mWriter.write(text);
+                return;
+            }
+            mWriter.write('"');
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '"') {
+                    mWriter.write('"');
+                }
+                mWriter.write(c);
+            }
+            mWriter.write('"');
+        }
+
+        @Override
+        public void finish() {
+        }
+    }
+
+    /**
+     * Writes rows as a JSON array of objects keyed by column name.
+     */
+    private static final class JsonRowWriter implements RowWriter {
+        private final JsonWriter mWriter;
+
+        JsonRowWriter(Writer writer) throws IOException {
+            mWriter = new JsonWriter(writer);
+            mWriter.beginArray();
+        }
+
+        @Override
+        public void write(Cursor cursor) throws IOException {
+            mWriter.beginObject();
+            mWriter.name(PROJECTION[0]).value(cursor.getLong(0));
+            mWriter.name(PROJECTION[1]).value(cursor.getString(1));
+            mWriter.name(PROJECTION[2]).value(cursor.getString(2));
+            mWriter.name(PROJECTION[3]).value(cursor.getInt(3));
+            mWriter.name(PROJECTION[4]).value(cursor.getInt(4));
+            mWriter.endObject();
+        }
+
+        @Override
+        public void finish() throws IOException {
+            mWriter.endArray();
+            mWriter.flush();
+        }
+    }
+}
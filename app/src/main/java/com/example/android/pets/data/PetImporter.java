@@ -0,0 +1,536 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Imports pets in bulk from CSV or JSON files.
+ *
+ * Records are streamed from the file one at a time and bound into a single compiled INSERT
+ * statement, which is committed in chunks of {@link #CHUNK_SIZE} rows. Each chunk also saves
+ * the number of records read so far to the imports table, in the same transaction, so the
+ * checkpoint is never ahead of or behind the rows. If an import fails part way through,
+ * running it again on the same file skips the records that were already imported.
+ *
+ * CSV files must start with a header row naming the columns, e.g. "name,breed,gender,weight".
+ * Fields may be quoted with double quotes, and quoted fields may span lines. JSON files must
+ * contain an array of objects with the same keys. Gender is one of the {@link PetEntry}
+ * GENDER_* values. Records that are missing a name or have an invalid gender or weight are
+ * skipped.
+ *
+ * Imports do blocking I/O and must not be run on the main thread.
+ */
+public final class PetImporter {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = PetImporter.class.getSimpleName();
+
+    /** Number of rows inserted in each transaction */
+    private static final int CHUNK_SIZE = 500;
+
+    /**
+     * Name of the preferences file the import checkpoints were kept in before they moved to
+     * the imports table
+     */
+    private static final String PREFS_NAME = "pet_import";
+
+    /** Statement used to insert each row */
+    private static final String SQL_INSERT_PET = "INSERT INTO " + PetEntry.TABLE_NAME + " ("
+            + PetEntry.COLUMN_PET_NAME + ", "
+            + PetEntry.COLUMN_PET_BREED + ", "
+            + PetEntry.COLUMN_PET_GENDER + ", "
+            + PetEntry.COLUMN_PET_WEIGHT + ") VALUES (?, ?, ?, ?)";
+
+    /** Statement used to move the checkpoint of an import forward */
+    private static final String SQL_SAVE_CHECKPOINT = "INSERT OR REPLACE INTO "
+            + PetDbHelper.IMPORTS_TABLE_NAME + " (" + PetDbHelper.COLUMN_IMPORT_FILE + ", "
+            + PetDbHelper.COLUMN_IMPORT_RECORDS + ") VALUES (?, ?)";
+
+    /** Selection for the checkpoint of a file */
+    private static final String SELECTION_IMPORT_FILE = PetDbHelper.COLUMN_IMPORT_FILE + " = ?";
+
+    /**
+     * Receives progress updates while an import is running.
+     */
+    public interface ProgressListener {
+
+        /**
+         * Called on the importing thread after each chunk is committed.
+         *
+         * @param recordsRead number of records read from the file so far
+         * @param rowsInserted number of rows inserted into the database so far
+         */
+        void onProgress(int recordsRead, int rowsInserted);
+    }
+
+    /**
+     * Outcome of a completed import.
+     */
+    public static final class Result {
+
+        /** Number of rows inserted by this run */
+        public final int rowsInserted;
+
+        /** Number of invalid records skipped by this run */
+        public final int recordsSkipped;
+
+        /** Number of records skipped because an earlier run had already imported them */
+        public final int recordsResumed;
+
+        /** Time spent importing, in milliseconds */
+        public final long elapsedMillis;
+
+        Result(int rowsInserted, int recordsSkipped, int recordsResumed, long elapsedMillis) {
+            this.rowsInserted = rowsInserted;
+            this.recordsSkipped = recordsSkipped;
+            this.recordsResumed = recordsResumed;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /**
+         * Returns the number of rows inserted per second.
+         */
+        public double getRowsPerSecond() {
+            return elapsedMillis == 0 ? rowsInserted : rowsInserted * 1000.0 / elapsedMillis;
+        }
+    }
+
+    /** Context of the app */
+    private final Context mContext;
+
+    /** Database helper of the database the pets are imported into */
+    private final PetDbHelper mDbHelper;
+
+    /** Checkpoints of unfinished imports saved by earlier versions of the app */
+    private final SharedPreferences mLegacyCheckpoints;
+
+    /** Number of rows inserted in each transaction */
+    private int mChunkSize = CHUNK_SIZE;
+
+    /**
+     * Constructs a new {@link PetImporter}.
+     *
+     * @param context of the app
+     */
+    public PetImporter(Context context) {
+        this(context, PetDbHelper.getInstance(context));
+    }
+
+    /**
+     * Constructs a {@link PetImporter} for a separate database, such as a scratch database
+     * for benchmarks.
+     */
+    PetImporter(Context context, PetDbHelper dbHelper) {
+        mContext = context.getApplicationContext();
+        mDbHelper = dbHelper;
+        mLegacyCheckpoints = mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Sets the number of rows inserted in each transaction, so benchmarks can compare
+     * committing every row on its own.
+     */
+    void setChunkSize(int chunkSize) {
+        mChunkSize = chunkSize;
+    }
+
+    /**
+     * Imports all of the pets in the given file. Files ending in ".json" are read as JSON, and
+     * all other files as CSV.
+     *
+     * @param file to import
+     * @param listener to notify of progress, or null
+     * @return the outcome of the import
+     * @throws IOException if the file cannot be read or is malformed. Rows from chunks that were
+     *                     already committed stay in the database, and the next import of the
+     *                     same file resumes after them.
+     */
+    public Result importFile(File file, ProgressListener listener) throws IOException {
+        String checkpointKey = file.getAbsolutePath() + ":" + file.lastModified();
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        int resumeFrom = readCheckpoint(db, checkpointKey);
+
+        long startTime = SystemClock.elapsedRealtime();
+        int recordsRead = 0;
+        int rowsInserted = 0;
+        int recordsSkipped = 0;
+
+        SQLiteStatement insert = db.compileStatement(SQL_INSERT_PET);
+        SQLiteStatement saveCheckpoint = db.compileStatement(SQL_SAVE_CHECKPOINT);
+        saveCheckpoint.bindString(1, checkpointKey);
+
+        Reader in;
+        try {
+            in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        } catch (IOException e) {
+            insert.close();
+            saveCheckpoint.close();
+            throw e;
+        }
+        RecordReader records = file.getName().endsWith(".json")
+                ? new JsonRecordReader(in) : new CsvRecordReader(in);
+
+        PetRecord record = new PetRecord();
+        try {
+            // Skip over anything a previous run already committed
+            while (recordsRead < resumeFrom && records.next(record)) {
+                recordsRead++;
+            }
+
+            boolean more = true;
+            while (more) {
+                int chunkInserted = 0;
+                int chunkSkipped = 0;
+                int chunkRead = 0;
+
+                db.beginTransaction();
+                try {
+                    while (chunkRead < mChunkSize && (more = records.next(record))) {
+                        chunkRead++;
+                        if (!record.isValid()) {
+                            chunkSkipped++;
+                            continue;
+                        }
+                        insert.clearBindings();
+                        insert.bindString(1, record.name);
+                        if (TextUtils.isEmpty(record.breed)) {
+                            insert.bindNull(2);
+                        } else {
+                            insert.bindString(2, record.breed);
+                        }
+                        insert.bindLong(3, record.gender);
+                        insert.bindLong(4, record.weight);
+                        if (insert.executeInsert() != -1) {
+                            chunkInserted++;
+                        }
+                    }
+                    // Move the checkpoint past the chunk, committed along with its rows
+                    saveCheckpoint.bindLong(2, recordsRead + chunkRead);
+                    saveCheckpoint.executeInsert();
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+
+                recordsRead += chunkRead;
+                rowsInserted += chunkInserted;
+                recordsSkipped += chunkSkipped;
+
+                if (listener != null) {
+                    listener.onProgress(recordsRead, rowsInserted);
+                }
+            }
+        } finally {
+            insert.close();
+            saveCheckpoint.close();
+            records.close();
+
+            if (rowsInserted != 0) {
+                // Notify once for the whole import, rather than once per row
+                mContext.getContentResolver().notifyChange(PetEntry.CONTENT_URI, null);
+            }
+        }
+
+        // Fold the import back into the database now, rather than leaving a large log behind
+        mDbHelper.checkpoint();
+
+        // The whole file has been imported, so there is nothing left to resume
+        db.delete(PetDbHelper.IMPORTS_TABLE_NAME, SELECTION_IMPORT_FILE,
+                new String[] { checkpointKey });
+        mLegacyCheckpoints.edit().remove(checkpointKey).apply();
+
+        Result result = new Result(rowsInserted, recordsSkipped, resumeFrom,
+                SystemClock.elapsedRealtime() - startTime);
+        Log.i(LOG_TAG, "Imported " + result.rowsInserted + " pets from " + file.getName()
+                + " in " + result.elapsedMillis + "ms (" + (int) result.getRowsPerSecond()
+                + " rows/s), skipped " + result.recordsSkipped + " invalid records");
+        return result;
+    }
+
+    /**
+     * Returns the number of records of the file with the given checkpoint key that have
+     * already been imported, or 0 if none have.
+     */
+    private int readCheckpoint(SQLiteDatabase db, String checkpointKey) {
+        Cursor cursor = db.query(PetDbHelper.IMPORTS_TABLE_NAME,
+                new String[] { PetDbHelper.COLUMN_IMPORT_RECORDS }, SELECTION_IMPORT_FILE,
+                new String[] { checkpointKey }, null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                return cursor.getInt(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        // The import may have been interrupted before the checkpoints moved to the database
+        return mLegacyCheckpoints.getInt(checkpointKey, 0);
+    }
+
+    /**
+     * A single pet read from an import file. One instance is reused for every record.
+     */
+    private static final class PetRecord {
+        String name;
+        String breed;
+        int gender;
+        int weight;
+        boolean malformed;
+
+        void clear() {
+            name = null;
+            breed = null;
+            gender = PetEntry.GENDER_UNKNOWN;
+            weight = 0;
+            malformed = false;
+        }
+
+        boolean isValid() {
+            return !malformed && PetValidator.check(name, gender, weight) == null;
+        }
+
+        /**
+         * Sets the field for the given column from its text value.
+         */
+        void set(String column, String value) {
+            if (PetEntry.COLUMN_PET_NAME.equals(column)) {
+                name = value;
+            } else if (PetEntry.COLUMN_PET_BREED.equals(column)) {
+                breed = value;
+            } else if (PetEntry.COLUMN_PET_GENDER.equals(column)) {
+                gender = parseInt(value, PetEntry.GENDER_UNKNOWN);
+            } else if (PetEntry.COLUMN_PET_WEIGHT.equals(column)) {
+                weight = parseInt(value, 0);
+            }
+        }
+
+        private int parseInt(String value, int defaultValue) {
+            if (TextUtils.isEmpty(value)) {
+                return defaultValue;
+            }
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                malformed = true;
+                return defaultValue;
+            }
+        }
+    }
+
+    /**
+     * Reads records one at a time from an import file.
+     */
+    private interface RecordReader extends Closeable {
+
+        /**
+         * Reads the next record into the given object.
+         *
+         * @return false if there are no more records
+         */
+        boolean next(PetRecord record) throws IOException;
+    }
+
+    /**
+     * Reads records from a CSV file with a header row. Fields may be quoted with double quotes,
+     * and a quoted field may contain line breaks, which are read as "\n". A quoted field left
+     * open at the end of the file is malformed.
+     */
+    private static final class CsvRecordReader implements RecordReader {
+        private final BufferedReader mReader;
+        private final List<String> mFields = new ArrayList<>();
+        private final StringBuilder mField = new StringBuilder();
+        private String[] mColumns;
+
+        CsvRecordReader(Reader reader) {
+            mReader = reader instanceof BufferedReader
+                    ? (BufferedReader) reader : new BufferedReader(reader);
+        }
+
+        @Override
+        public boolean next(PetRecord record) throws IOException {
+            if (mColumns == null) {
+                String header = readRecord();
+                if (header == null) {
+                    return false;
+                }
+                split(header);
+                mColumns = new String[mFields.size()];
+                for (int i = 0; i < mColumns.length; i++) {
+                    mColumns[i] = mFields.get(i).trim().toLowerCase(Locale.US);
+                }
+            }
+
+            String line;
+            do {
+                line = readRecord();
+                if (line == null) {
+                    return false;
+                }
+            } while (line.trim().isEmpty());
+
+            split(line);
+            record.clear();
+            int count = Math.min(mColumns.length, mFields.size());
+            for (int i = 0; i < count; i++) {
+                record.set(mColumns[i], mFields.get(i));
+            }
+            return true;
+        }
+
+        /**
+         * Reads the lines of the next record, joined with "\n" while a quoted field is open.
+         *
+         * @return the record, or null at the end of the file
+         * @throws IOException if the file ends inside a quoted field
+         */
+        private String readRecord() throws IOException {
+            String line = mReader.readLine();
+            if (line == null || !hasOddQuotes(line)) {
+                return line;
+            }
+            // Every quote opens or closes a quoted field, and an escaped quote is two quotes,
+            // so the field stays open until a line with an odd number of quotes closes it
+            mField.setLength(0);
+            mField.append(line);
+            boolean open = true;
+            while (open) {
+                line = mReader.readLine();
+                if (line == null) {
+                    throw new IOException("Quoted field is not closed at the end of the file");
+                }
+                mField.append('\n').append(line);
+                open = !hasOddQuotes(line);
+            }
+            return mField.toString();
+        }
+
+        private static boolean hasOddQuotes(String line) {
+            boolean odd = false;
+            for (int i = 0; i < line.length(); i++) {
+                if (line.charAt(i) == '"') {
+                    odd = !odd;
+                }
+            }
+            return odd;
+        }
+
+        /**
+         * Splits a record into {@link #mFields}.
+         */
+        private void split(String line) {
+            mFields.clear();
+            mField.setLength(0);
+            boolean quoted = false;
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (quoted) {
+                    if (c == '"') {
+                        if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                            // An escaped quote
+                            mField.append('"');
+                            i++;
+                        } else {
+                            quoted = false;
+                        }
+                    } else {
+                        mField.append(c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    mFields.add(mField.toString());
+                    mField.setLength(0);
+                } else {
+                    mField.append(c);
+                }
+            }
+            mFields.add(mField.toString());
+        }
+
+        @Override
+        public void close() throws IOException {
+            mReader.close();
+        }
+    }
+
+    /**
+     * Reads records from a JSON array of objects.
+     */
+    private static final class JsonRecordReader implements RecordReader {
+        private final JsonReader mReader;
+        private boolean mStarted;
+
+        JsonRecordReader(Reader reader) {
+            mReader = new JsonReader(reader);
+        }
+
+        @Override
+        public boolean next(PetRecord record) throws IOException {
+            if (!mStarted) {
+                mReader.beginArray();
+                mStarted = true;
+            }
+            if (!mReader.hasNext()) {
+                mReader.endArray();
+                return false;
+            }
+
+            record.clear();
+            mReader.beginObject();
+            while (mReader.hasNext()) {
+                String column = mReader.nextName();
+                if (mReader.peek() == JsonToken.NULL) {
+                    mReader.nextNull();
+                } else if (mReader.peek() == JsonToken.BEGIN_ARRAY
+                        || mReader.peek() == JsonToken.BEGIN_OBJECT) {
+                    mReader.skipValue();
+                } else {
+                    // nextString() also accepts numbers and booleans
+                    record.set(column, mReader.nextString());
+                }
+            }
+            mReader.endObject();
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mReader.close();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.net.Uri;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Keeps the photos of pets as files in the app's private storage. The pets table only holds
+ * the URI of each photo, in {@link PetContract.PetEntry#COLUMN_PET_PHOTO_URI}.
+ *
+ * Photos are never changed once stored, so a new photo of a pet is a new file. Files that are
+ * no longer used by any pet are deleted by {@link PetCompactor}.
+ */
+public final class PetPhotoStore {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = PetPhotoStore.class.getSimpleName();
+
+    /** Name of the directory the photos are kept in */
+    private static final String PHOTO_DIR = "photos";
+
+    /**
+     * How old an unused photo must be before it is deleted, so a photo that has just been
+     * stored is not deleted before the pet using it is saved.
+     */
+    private static final long ORPHAN_MIN_AGE_MILLIS = DateUtils.HOUR_IN_MILLIS;
+
+    /** Size of the buffer used to copy photos */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final Context mContext;
+
+    /** Directory the photos are kept in */
+    private final File mPhotoDir;
+
+    /**
+     * Constructs a new {@link PetPhotoStore}.
+     *
+     * @param context of the app
+     */
+    public PetPhotoStore(Context context) {
+        mContext = context.getApplicationContext();
+        mPhotoDir = new File(mContext.getFilesDir(), PHOTO_DIR);
+    }
+
+    /**
+     * Copies a photo, for example one picked from the gallery, into the store. Must not be
+     * called on the main thread.
+     *
+     * @param source URI of the photo to copy
+     * @return the URI of the stored photo, to save in the pets table
+     * @throws IOException if the photo cannot be read or stored
+     */
+    public Uri importPhoto(Uri source) throws IOException {
+        if (!mPhotoDir.isDirectory() && !mPhotoDir.mkdirs()) {
+            throw new IOException("Cannot create " + mPhotoDir);
+        }
+
+        InputStream in = mContext.getContentResolver().openInputStream(source);
+        if (in == null) {
+            throw new IOException("Cannot open " + source);
+        }
+
+        File file = new File(mPhotoDir, UUID.randomUUID().toString());
+        File tempFile = new File(file.getPath() + ".tmp");
+        boolean successful = false;
+        try {
+            OutputStream out = new FileOutputStream(tempFile);
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, count);
+                }
+            } finally {
+                out.close();
+            }
+            successful = tempFile.renameTo(file);
+            if (!successful) {
+                throw new IOException("Cannot rename " + tempFile + " to " + file);
+            }
+        } finally {
+            in.close();
+            if (!successful) {
+                tempFile.delete();
+            }
+        }
+        return Uri.fromFile(file);
+    }
+
+    /**
+     * Deletes the stored photos that are not in the given set of photo URIs, other than ones
+     * stored in the last {@link #ORPHAN_MIN_AGE_MILLIS}.
+     *
+     * @param photoUris URIs of the photos still used by pets
+     * @return the number of photos deleted
+     */
+    int deleteUnusedPhotos(Set<String> photoUris) {
+        File[] files = mPhotoDir.listFiles();
+        if (files == null) {
+            return 0;
+        }
+
+        long cutoff = System.currentTimeMillis() - ORPHAN_MIN_AGE_MILLIS;
+        int deleted = 0;
+        for (File file : files) {
+            if (file.lastModified() > cutoff || photoUris.contains(Uri.fromFile(file).toString())) {
+                continue;
+            }
+            if (file.delete()) {
+                deleted++;
+            } else {
+                Log.w(LOG_TAG, "Failed to delete unused photo " + file);
+            }
+        }
+        return deleted;
+    }
+}
@@ -0,0 +1,727 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.UriMatcher;
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * {@link ContentProvider} for Pets app.
+ */
+public class PetProvider extends ContentProvider {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = PetProvider.class.getSimpleName();
+
+    /** URI matcher code for the content URI for the pets table */
+    private static final int PETS = 100;
+
+    /** URI matcher code for the content URI for a single pet in the pets table */
+    private static final int PET_ID = 101;
+
+    /** URI matcher code for the content URI for searching the pets table */
+    private static final int SEARCH = 102;
+
+    /** URI matcher code for the content URI for the number of pets */
+    private static final int PET_COUNT = 103;
+
+    /**
+     * Queries the catalog makes as soon as it starts, compiled ahead of time by
+     * {@link PetDbHelper#warmUp(String...)}: the first page of pets and the number of pets.
+     */
+    static final String[] WARM_UP_QUERIES = {
+            buildQueryString(new PetQuery.Builder()
+                    .setPageSize(PetQuery.DEFAULT_PAGE_SIZE)
+                    .build()),
+            PetStats.SQL_PET_COUNT };
+
+    /** Columns held by {@link Pet}, so a query for only these can be answered by the cache */
+    private static final Set<String> CACHED_COLUMNS =
+            new HashSet<>(Arrays.asList(Pet.PROJECTION));
+
+    /**
+     * UriMatcher object to match a content URI to a corresponding code.
+     * The input passed into the constructor represents the code to return for the root URI.
+     * It's common to use NO_MATCH as the input for this case.
+     */
+    private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
+
+    // Static initializer. This is run the first time anything is called from this class.
+    static {
+        // The content URI of the form "content://com.example.android.pets/pets" will map to the
+        // integer code {@link #PETS}. This URI is used to provide access to MULTIPLE rows
+        // of the pets table.
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS, PETS);
+
+        // The content URI of the form "content://com.example.android.pets/pets/#" will map to the
+        // integer code {@link #PET_ID}. This URI is used to provide access to ONE single row
+        // of the pets table.
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/#", PET_ID);
+
+        // The content URI of the form "content://com.example.android.pets/pets/search/terr" will
+        // map to the integer code {@link #SEARCH}. This URI is used to provide access to the pets
+        // whose name or breed match the search text in the last path segment.
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_SEARCH + "/*", SEARCH);
+
+        // The content URI of the form "content://com.example.android.pets/pets/count" will map
+        // to the integer code {@link #PET_COUNT}. This URI is used to provide the number of
+        // pets without reading the pets table.
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_COUNT, PET_COUNT);
+    }
+
+    /**
+     * Database helper object. This is the helper shared by the whole process, so every reader
+     * and writer uses the same connection.
+     */
+    private PetDbHelper mDbHelper;
+
+    /** Timed access to the database of {@link #mDbHelper} */
+    private PetDatabase mDatabase;
+
+    /** Fixed statements for single pets, see {@link PetDao} */
+    private PetDao mDao;
+
+    /** Cache of single pets, kept up to date by every write through this provider */
+    private PetCache mPetCache;
+
+    /** Statistics read from the summary tables, such as the number of pets */
+    private PetStats mPetStats;
+
+    /**
+     * Whether the current thread is inside {@link #applyBatch(ArrayList)}. Change notifications
+     * are held back until the whole batch has been committed.
+     */
+    private final ThreadLocal<Boolean> mApplyingBatch = new ThreadLocal<>();
+
+    /** Whether a change notification was held back during the current thread's batch */
+    private final ThreadLocal<Boolean> mBatchChanged = new ThreadLocal<>();
+
+    /**
+     * IDs of the pets written to by the current thread's batch. They are removed from
+     * {@link #mPetCache} only once the batch has been committed, as until then other threads
+     * still read the old pets from the database and would cache them again.
+     */
+    private final ThreadLocal<Set<Long>> mBatchWrittenIds = new ThreadLocal<>();
+
+    /** Whether the current thread's batch wrote to pets given by a selection, not an ID */
+    private final ThreadLocal<Boolean> mBatchWroteAll = new ThreadLocal<>();
+
+    @Override
+    public boolean onCreate() {
+        // Opening the database is deferred until the first query or write.
+        mDbHelper = PetDbHelper.getInstance(getContext());
+        mDatabase = mDbHelper.getDatabase();
+        mDao = mDbHelper.getDao();
+
+        // Let the cache use 1/64th of the memory available to the app, which is 256KB on a
+        // device with the minimum of 16MB per app.
+        ActivityManager activityManager =
+                (ActivityManager) getContext().getSystemService(Context.ACTIVITY_SERVICE);
+        int maxBytes = activityManager.getMemoryClass() * 1024 * 1024 / 64;
+        mPetCache = PetCache.withMaxBytes(mDbHelper, maxBytes);
+        mPetStats = new PetStats(mDbHelper);
+
+        // Open the database in the background straight away, while the first activity is
+        // still being created, so its first query does not have to wait for it. It runs on
+        // the thread pool rather than the serial executor, so it never waits behind other
+        // tasks.
+        new WarmUpTask(mDbHelper).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        return true;
+    }
+
+    /**
+     * {@link AsyncTask} that warms up the database with {@link #WARM_UP_QUERIES}. Like every
+     * AsyncTask, it runs at background priority, so it does not hold up the first activity.
+     */
+    private static class WarmUpTask extends AsyncTask<Void, Void, Void> {
+
+        private final PetDbHelper mDbHelper;
+
+        WarmUpTask(PetDbHelper dbHelper) {
+            mDbHelper = dbHelper;
+        }
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            try {
+                mDbHelper.warmUp(WARM_UP_QUERIES);
+            } catch (SQLException e) {
+                // The first real query opens the database again and reports the problem
+                Log.e(LOG_TAG, "Failed to warm up the database", e);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Returns the cache of single pets used by this provider.
+     */
+    public PetCache getPetCache() {
+        return mPetCache;
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+            String sortOrder) {
+        return query(uri, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    /**
+     * Called by the framework on API 16 and up, so that the query can be cancelled while SQLite
+     * is still running it.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+            String sortOrder, CancellationSignal cancellationSignal) {
+        // Single pets are served from the cache where possible
+        if (sUriMatcher.match(uri) == PET_ID && isCachedProjection(projection)) {
+            return queryCachedPet(ContentUris.parseId(uri), projection);
+        }
+
+        // The number of pets comes from the summary tables rather than the pets table
+        if (sUriMatcher.match(uri) == PET_COUNT) {
+            return queryPetCount();
+        }
+
+        // Figure out if the URI matcher can match the URI to a specific code
+        int match = sUriMatcher.match(uri);
+        switch (match) {
+            case PETS:
+                // For the PETS code, query the pets table directly with the given
+                // projection, selection, selection arguments, and sort order, narrowed down
+                // by any PetQuery in the URI.
+                PetQuery petQuery = PetQuery.fromUri(uri);
+                if (petQuery.isPage() && sortOrder != null) {
+                    throw new IllegalArgumentException(
+                            "A page of pets cannot be sorted differently from its query " + uri);
+                }
+                selection = and(selection, petQuery.getSelection());
+                selectionArgs = appendArgs(selectionArgs, petQuery.getSelectionArgs());
+                if (sortOrder == null) {
+                    sortOrder = petQuery.getSortOrder();
+                }
+                break;
+            case PET_ID:
+                // For the PET_ID code, extract out the ID from the URI.
+                // For an example URI such as "content://com.example.android.pets/pets/3",
+                // the selection will be "_id=?" and the selection argument will be a
+                // String array containing the actual ID of 3 in this case.
+                selection = PetEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                break;
+            case SEARCH:
+                // Search results are ranked rather than sorted, so only the filters of a
+                // PetQuery apply to them
+                PetQuery filters = PetQuery.fromUri(uri);
+                if (filters.isPage()) {
+                    throw new IllegalArgumentException("Search results cannot be paged " + uri);
+                }
+                selection = and(selection, filters.getSelection());
+                selectionArgs = appendArgs(selectionArgs, filters.getSelectionArgs());
+
+                // For the SEARCH code, look the search text up in the full-text search table,
+                // rather than scanning the pets table with LIKE.
+                String searchText = uri.getLastPathSegment();
+                String matchAny = PetSearch.toMatchExpression(searchText, null);
+                if (matchAny == null) {
+                    // There are no words to search for, so return all of the pets
+                    break;
+                }
+                selectionArgs = prependArg(matchAny, selectionArgs);
+                selection = selection == null
+                        ? PetSearch.SELECTION
+                        : PetSearch.SELECTION + " AND (" + selection + ")";
+                if (sortOrder == null) {
+                    // Rank pets matching on their name first. The ORDER BY argument comes after
+                    // all of the WHERE arguments.
+                    String matchName = PetSearch.toMatchExpression(searchText,
+                            PetEntry.COLUMN_PET_NAME);
+                    selectionArgs = appendArg(selectionArgs, matchName);
+                    sortOrder = PetSearch.SORT_ORDER;
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Cannot query unknown URI " + uri);
+        }
+
+        // Pets marked as deleted are waiting to be removed by PetCompactor
+        selection = excludeDeleted(selection);
+
+        // Query the database, timed into the database metrics
+        Cursor cursor = mDatabase.query(PetEntry.TABLE_NAME, projection, selection,
+                selectionArgs, sortOrder, getLimit(uri), cancellationSignal);
+
+        // Set notification URI on the Cursor,
+        // so we know what content URI the Cursor was created for.
+        // If the data at this URI changes, then we know we need to update the Cursor.
+        cursor.setNotificationUri(getContext().getContentResolver(), PetEntry.CONTENT_URI);
+
+        // Return the cursor
+        return cursor;
+    }
+
+    /**
+     * Returns the LIMIT clause given in the {@link PetContract#QUERY_PARAMETER_LIMIT} query
+     * parameter of the URI, or null if there is none.
+     */
+    private static String getLimit(Uri uri) {
+        String limit = uri.getQueryParameter(PetContract.QUERY_PARAMETER_LIMIT);
+        if (limit != null && !TextUtils.isDigitsOnly(limit)) {
+            throw new IllegalArgumentException("Invalid limit in " + uri);
+        }
+        return limit;
+    }
+
+    /**
+     * Returns whether all of the columns in the given projection are held in {@link Pet}.
+     */
+    private static boolean isCachedProjection(String[] projection) {
+        if (projection == null) {
+            return false;
+        }
+        for (String column : projection) {
+            if (!CACHED_COLUMNS.contains(column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a cursor with the given columns of the pet with the given ID, read through
+     * {@link PetCache}. The cursor is empty if there is no such pet.
+     */
+    private Cursor queryCachedPet(long id, String[] projection) {
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        Pet pet = mPetCache.getPet(id);
+        if (pet != null) {
+            MatrixCursor.RowBuilder row = cursor.newRow();
+            for (String column : projection) {
+                row.add(pet.getValue(column));
+            }
+        }
+        cursor.setNotificationUri(getContext().getContentResolver(), PetEntry.CONTENT_URI);
+        return cursor;
+    }
+
+    /**
+     * Returns a cursor with a single row holding the number of pets in its
+     * {@link PetEntry#_COUNT} column.
+     */
+    private Cursor queryPetCount() {
+        MatrixCursor cursor = new MatrixCursor(new String[] { PetEntry._COUNT }, 1);
+        cursor.addRow(new Object[] { mPetStats.getPetCount() });
+        cursor.setNotificationUri(getContext().getContentResolver(), PetEntry.CONTENT_URI);
+        return cursor;
+    }
+
+    /**
+     * Returns the SQL of the catalog query for the given {@link PetQuery}, exactly as
+     * {@link #query(Uri, String[], String, String[], String, CancellationSignal)} runs it.
+     */
+    static String buildQueryString(PetQuery petQuery) {
+        return SQLiteQueryBuilder.buildQueryString(false, PetEntry.TABLE_NAME, Pet.PROJECTION,
+                excludeDeleted(petQuery.getSelection()), null, null, petQuery.getSortOrder(),
+                petQuery.getLimit());
+    }
+
+    /**
+     * Returns both of the given selections combined, either of which may be empty.
+     */
+    private static String and(String selection, String other) {
+        if (TextUtils.isEmpty(other)) {
+            return selection;
+        }
+        if (TextUtils.isEmpty(selection)) {
+            return other;
+        }
+        return "(" + selection + ") AND (" + other + ")";
+    }
+
+    /**
+     * Returns the given selection restricted to pets that have not been deleted, written so
+     * that SQLite does not pick the index on the deleted flag, see
+     * {@link PetDbHelper#SELECTION_LISTED}.
+     */
+    static String excludeDeleted(String selection) {
+        return TextUtils.isEmpty(selection)
+                ? PetDbHelper.SELECTION_LISTED
+                : PetDbHelper.SELECTION_LISTED + " AND (" + selection + ")";
+    }
+
+    /**
+     * Returns a copy of the given selection arguments with the given argument added first.
+     */
+    private static String[] prependArg(String arg, String[] args) {
+        if (args == null) {
+            return new String[] { arg };
+        }
+        String[] result = new String[args.length + 1];
+        result[0] = arg;
+        System.arraycopy(args, 0, result, 1, args.length);
+        return result;
+    }
+
+    /**
+     * Returns the given selection arguments followed by the other ones, either of which may
+     * be null.
+     */
+    private static String[] appendArgs(String[] args, String[] others) {
+        if (others == null) {
+            return args;
+        }
+        if (args == null) {
+            return others;
+        }
+        String[] result = new String[args.length + others.length];
+        System.arraycopy(args, 0, result, 0, args.length);
+        System.arraycopy(others, 0, result, args.length, others.length);
+        return result;
+    }
+
+    /**
+     * Returns a copy of the given selection arguments with the given argument added last.
+     */
+    private static String[] appendArg(String[] args, String arg) {
+        String[] result = new String[args.length + 1];
+        System.arraycopy(args, 0, result, 0, args.length);
+        result[args.length] = arg;
+        return result;
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues contentValues) {
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
+            case PETS:
+                return insertPet(uri, contentValues);
+            default:
+                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+    }
+
+    /**
+     * Insert a pet into the database with the given content values. Return the new content URI
+     * for that specific row in the database.
+     */
+    private Uri insertPet(Uri uri, ContentValues values) {
+        checkPet(values, false);
+
+        // Insert the new pet with the given values
+        long id = mDao.insert(values);
+        // If the ID is -1, then the insertion failed. Log an error and return null.
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+
+        // The new pet is likely to be looked at next, so cache it straight away, unless it is
+        // part of a batch that has not been committed yet
+        if (!Boolean.TRUE.equals(mApplyingBatch.get())) {
+            Integer weight = values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
+            mPetCache.put(new Pet(id, values.getAsString(PetEntry.COLUMN_PET_NAME),
+                    values.getAsString(PetEntry.COLUMN_PET_BREED),
+                    values.getAsInteger(PetEntry.COLUMN_PET_GENDER),
+                    weight == null ? 0 : weight,
+                    values.getAsString(PetEntry.COLUMN_PET_PHOTO_URI)));
+        }
+
+        // Notify all listeners that the data has changed for the pet content URI
+        notifyChange(uri);
+
+        // Return the new URI with the ID (of the newly inserted row) appended at the end
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    /**
+     * Inserts all of the given pets in a single transaction, so the journal is only synced to
+     * disk once, and notifies listeners once at the end rather than once per row.
+     *
+     * If any of the rows is invalid, none of them are inserted.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        final int match = sUriMatcher.match(uri);
+        if (match != PETS) {
+            throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+
+        // Check all of the rows before touching the database
+        for (ContentValues value : values) {
+            checkPet(value, false);
+        }
+
+        int rowsInserted = 0;
+        mDatabase.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                if (mDao.insert(value) != -1) {
+                    rowsInserted++;
+                }
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+
+        if (rowsInserted != 0) {
+            notifyChange(uri);
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Applies all of the operations in a single transaction, so they are either all committed
+     * or none are, and the journal is only synced once. The pets written to are removed from
+     * the cache, and listeners are notified, once at the end rather than once per operation,
+     * and only if the batch was committed.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        mApplyingBatch.set(true);
+        mBatchChanged.set(false);
+        mBatchWrittenIds.set(new HashSet<Long>());
+        mBatchWroteAll.set(false);
+        boolean committed = false;
+        try {
+            boolean successful = false;
+            mDatabase.beginTransaction();
+            try {
+                ContentProviderResult[] results = super.applyBatch(operations);
+                mDatabase.setTransactionSuccessful();
+                successful = true;
+                return results;
+            } finally {
+                mDatabase.endTransaction();
+                committed = successful;
+            }
+        } finally {
+            mApplyingBatch.set(false);
+            Set<Long> writtenIds = mBatchWrittenIds.get();
+            mBatchWrittenIds.set(null);
+            if (committed) {
+                if (mBatchWroteAll.get()) {
+                    mPetCache.invalidateAll();
+                } else {
+                    for (long id : writtenIds) {
+                        mPetCache.invalidate(id);
+                    }
+                }
+                if (mBatchChanged.get()) {
+                    notifyChange(PetEntry.CONTENT_URI);
+                }
+            }
+        }
+    }
+
+    /**
+     * Notifies all listeners that the data at the given URI has changed, or holds the
+     * notification back until the end of the batch if one is being applied.
+     */
+    private void notifyChange(Uri uri) {
+        if (Boolean.TRUE.equals(mApplyingBatch.get())) {
+            mBatchChanged.set(true);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Sanity checks the attributes of a pet with {@link PetValidator}, throwing an
+     * {@link IllegalArgumentException} if any of them are missing or invalid, so that an
+     * invalid pet never reaches the database.
+     *
+     * @param update whether the values are an update, so only the attributes present are
+     *               checked, rather than a new pet
+     */
+    private static void checkPet(ContentValues values, boolean update) {
+        PetValidator.Error error = PetValidator.check(values, update);
+        if (error != null) {
+            throw new IllegalArgumentException("Pet is invalid: " + error);
+        }
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues contentValues, String selection,
+            String[] selectionArgs) {
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
+            case PETS:
+                return updatePet(uri, contentValues, selection, selectionArgs);
+            case PET_ID:
+                // For the PET_ID code, the ID in the URI says which row to update, and
+                // updatePet() goes straight to the fixed statement for a single pet
+                return updatePet(uri, contentValues, null, null);
+            default:
+                throw new IllegalArgumentException("Update is not supported for " + uri);
+        }
+    }
+
+    /**
+     * Update pets in the database with the given content values. Apply the changes to the rows
+     * specified in the selection and selection arguments (which could be 0 or 1 or more pets).
+     * Return the number of rows that were successfully updated.
+     */
+    private int updatePet(Uri uri, ContentValues values, String selection,
+            String[] selectionArgs) {
+        // Check the attributes that are being changed
+        checkPet(values, true);
+
+        // If there are no values to update, then don't try to update the database
+        if (values.size() == 0) {
+            return 0;
+        }
+
+        // Otherwise, perform the update on the database and get the number of rows affected.
+        // Deleted pets cannot be changed.
+        int rowsUpdated;
+        if (sUriMatcher.match(uri) == PET_ID) {
+            rowsUpdated = mDao.update(ContentUris.parseId(uri), values);
+        } else {
+            rowsUpdated = mDatabase.update(PetEntry.TABLE_NAME, values,
+                    excludeDeleted(selection), selectionArgs);
+        }
+
+        // Drop the updated pets from the cache before anyone is told to read them again
+        if (rowsUpdated != 0) {
+            invalidateCache(uri);
+        }
+
+        // If 1 or more rows were updated, then notify all listeners that the data at the
+        // given URI has changed
+        if (rowsUpdated != 0) {
+            notifyChange(uri);
+        }
+
+        // Return the number of rows updated
+        return rowsUpdated;
+    }
+
+    /**
+     * Deletes the pets at the given URI that match the selection. Deleting only marks the pets,
+     * in a single UPDATE statement, so even deleting every pet returns quickly and listeners
+     * see the change straight away. The rows are removed later by {@link PetCompactor}.
+     */
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        // Mark the matching pets as deleted, and track the number of rows that were deleted
+        int rowsDeleted;
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
+            case PETS:
+                // Delete all rows that match the selection and selection args
+                ContentValues values = new ContentValues(1);
+                values.put(PetDbHelper.COLUMN_DELETED, 1);
+                rowsDeleted = mDatabase.update(PetEntry.TABLE_NAME, values,
+                        excludeDeleted(selection), selectionArgs);
+                break;
+            case PET_ID:
+                // Delete a single row given by the ID in the URI, through the fixed
+                // statement
+                rowsDeleted = mDao.delete(ContentUris.parseId(uri));
+                break;
+            default:
+                throw new IllegalArgumentException("Deletion is not supported for " + uri);
+        }
+
+        // If 1 or more rows were deleted, then notify all listeners that the data at the
+        // given URI has changed, and remove the rows in the background
+        if (rowsDeleted != 0) {
+            invalidateCache(uri);
+            notifyChange(uri);
+            PetCompactionService.enqueueCompaction(getContext());
+        }
+
+        // Return the number of rows deleted
+        return rowsDeleted;
+    }
+
+    /**
+     * Removes the pets written to through the given URI from {@link #mPetCache}, or holds
+     * them back until the end of the batch if one is being applied.
+     */
+    private void invalidateCache(Uri uri) {
+        boolean batch = Boolean.TRUE.equals(mApplyingBatch.get());
+        if (sUriMatcher.match(uri) == PET_ID) {
+            long id = ContentUris.parseId(uri);
+            if (batch) {
+                mBatchWrittenIds.get().add(id);
+            } else {
+                mPetCache.invalidate(id);
+            }
+        } else if (batch) {
+            mBatchWroteAll.set(true);
+        } else {
+            mPetCache.invalidateAll();
+        }
+    }
+
+    /**
+     * Writes the database metrics, so they can be read from any build with
+     * "adb shell dumpsys activity provider com.example.android.pets/.data.PetProvider".
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mDbHelper.getMetrics().dump(writer);
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
+            case PETS:
+            case SEARCH:
+                return PetEntry.CONTENT_LIST_TYPE;
+            case PET_ID:
+                return PetEntry.CONTENT_ITEM_TYPE;
+            case PET_COUNT:
+                return PetEntry.CONTENT_COUNT_TYPE;
+            default:
+                throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
+        }
+    }
+}
@@ -0,0 +1,503 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.text.TextUtils;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A query for a filtered, sorted list of pets, read a page at a time. The query is passed to
+ * {@link PetProvider} as query parameters of the pets content URI, see {@link #toUri(Uri)},
+ * and the provider compiles it to a WHERE clause with arguments, so the filtering and sorting
+ * is all done by SQLite, using the indexes on the pets table.
+ *
+ * Pages are read with keyset pagination: rather than skipping the rows of the earlier pages
+ * with OFFSET, each page starts after the sort key of the last row of the page before, see
+ * {@link #getKey(Cursor)}. SQLite seeks straight to that key in the index, so a page deep
+ * into a long list is as quick to read as the first one. Every sort ends with the _ID of the
+ * pet, so that each row has a unique key even when several pets share a name or weight.
+ */
+public final class PetQuery {
+
+    /** Gender filter for pets of any gender */
+    public static final int ANY_GENDER = -1;
+
+    /** Weight filter bound for no bound */
+    public static final int NO_WEIGHT_LIMIT = -1;
+
+    /** Page size for reading every pet at once */
+    public static final int NO_PAGE_LIMIT = 0;
+
+    /** Number of pets in each page of the catalog, enough to fill the screen */
+    public static final int DEFAULT_PAGE_SIZE = 50;
+
+    /** Query parameters of the content URI the query is passed to {@link PetProvider} in */
+    private static final String PARAMETER_GENDER = "gender";
+    private static final String PARAMETER_BREED = "breed";
+    private static final String PARAMETER_MIN_WEIGHT = "min_weight";
+    private static final String PARAMETER_MAX_WEIGHT = "max_weight";
+    private static final String PARAMETER_SORT = "sort";
+    private static final String PARAMETER_AFTER = "after";
+    private static final String PARAMETER_AFTER_ID = "after_id";
+    private static final String PARAMETER_UNTIL = "until";
+    private static final String PARAMETER_UNTIL_ID = "until_id";
+
+    /**
+     * Orders the list of pets can be sorted in, all ascending.
+     */
+    public enum Sort {
+        /** In the order the pets were added */
+        ID(PetEntry._ID, ""),
+
+        /** By name, ignoring case, using the name index */
+        NAME(PetEntry.COLUMN_PET_NAME, " COLLATE NOCASE"),
+
+        /** By weight, using the weight index */
+        WEIGHT(PetEntry.COLUMN_PET_WEIGHT, "");
+
+        /** Column sorted on */
+        final String column;
+
+        /** COLLATE clause of the column's index, to compare keys the same way it does */
+        final String collation;
+
+        Sort(String column, String collation) {
+            this.column = column;
+            this.collation = collation;
+        }
+    }
+
+    /**
+     * The sort key of a row: the value of the sorted column and the _ID of the pet. A page
+     * starts after the key of the last row of the page before it.
+     */
+    public static final class Key {
+
+        private final String value;
+        private final long id;
+
+        /**
+         * @param value of the sorted column, as text
+         * @param id of the pet
+         */
+        public Key(String value, long id) {
+            this.value = value;
+            this.id = id;
+        }
+
+        /**
+         * Returns the value of the sorted column, as text.
+         */
+        public String getValue() {
+            return value;
+        }
+
+        /**
+         * Returns the _ID of the pet.
+         */
+        public long getId() {
+            return id;
+        }
+    }
+
+    private final int mGender;
+    private final String mBreed;
+    private final int mMinWeight;
+    private final int mMaxWeight;
+    private final Sort mSort;
+    private final Key mAfter;
+    private final Key mUntil;
+    private final int mPageSize;
+
+    /** WHERE clause compiled from the filters and the page bounds, or null if there is none */
+    private final String mSelection;
+
+    /** Arguments of {@link #mSelection} */
+    private final String[] mSelectionArgs;
+
+    private PetQuery(Builder builder) {
+        mGender = builder.gender;
+        mBreed = builder.breed;
+        mMinWeight = builder.minWeight;
+        mMaxWeight = builder.maxWeight;
+        mSort = builder.sort;
+        mAfter = builder.after;
+        mUntil = builder.until;
+        mPageSize = builder.pageSize;
+
+        // Compile the query to a WHERE clause. Every value is passed as an argument rather
+        // than in the SQL, so the statement can be reused whatever the values.
+        List<String> clauses = new ArrayList<>();
+        List<String> args = new ArrayList<>();
+        if (mGender != ANY_GENDER) {
+            clauses.add(PetEntry.COLUMN_PET_GENDER + " = ?");
+            args.add(String.valueOf(mGender));
+        }
+        if (mBreed != null) {
+            clauses.add(PetEntry.COLUMN_PET_BREED + " = ?");
+            args.add(mBreed);
+        }
+        if (mMinWeight != NO_WEIGHT_LIMIT) {
+            clauses.add(PetEntry.COLUMN_PET_WEIGHT + " >= ?");
+            args.add(String.valueOf(mMinWeight));
+        }
+        if (mMaxWeight != NO_WEIGHT_LIMIT) {
+            clauses.add(PetEntry.COLUMN_PET_WEIGHT + " <= ?");
+            args.add(String.valueOf(mMaxWeight));
+        }
+        if (mAfter != null) {
+            addKeyBound(clauses, args, mAfter, ">");
+        }
+        if (mUntil != null) {
+            addKeyBound(clauses, args, mUntil, "<");
+        }
+        mSelection = clauses.isEmpty() ? null : TextUtils.join(" AND ", clauses);
+        mSelectionArgs = args.isEmpty() ? null : args.toArray(new String[args.size()]);
+    }
+
+    /**
+     * Adds the clause for rows after (">") or up to and including ("<") the given key.
+     *
+     * Row values such as "(name, _id) > (?, ?)" are not available in the SQLite of older
+     * devices, so the comparison is spelled out. It starts with a plain range on the sorted
+     * column, which SQLite uses to seek in the index, and only compares the _ID of the rows
+     * with the same value as the key.
+     */
+    private void addKeyBound(List<String> clauses, List<String> args, Key key, String op) {
+        String idOp = op.equals(">") ? ">" : "<=";
+        if (mSort == Sort.ID) {
+            clauses.add(PetEntry._ID + " " + idOp + " ?");
+            args.add(String.valueOf(key.id));
+            return;
+        }
+        String value = mSort.column + " " + op + "= ?" + mSort.collation;
+        String beyond = mSort.column + " " + op + " ?" + mSort.collation;
+        clauses.add(value + " AND (" + beyond + " OR " + PetEntry._ID + " " + idOp + " ?)");
+        args.add(key.value);
+        args.add(key.value);
+        args.add(String.valueOf(key.id));
+    }
+
+    /**
+     * Returns the gender pets are filtered on, or {@link #ANY_GENDER}.
+     */
+    public int getGender() {
+        return mGender;
+    }
+
+    /**
+     * Returns the breed pets are filtered on, or null for any breed.
+     */
+    public String getBreed() {
+        return mBreed;
+    }
+
+    /**
+     * Returns the lowest weight of the pets, or {@link #NO_WEIGHT_LIMIT}.
+     */
+    public int getMinWeight() {
+        return mMinWeight;
+    }
+
+    /**
+     * Returns the highest weight of the pets, or {@link #NO_WEIGHT_LIMIT}.
+     */
+    public int getMaxWeight() {
+        return mMaxWeight;
+    }
+
+    /**
+     * Returns the order of the pets.
+     */
+    public Sort getSort() {
+        return mSort;
+    }
+
+    /**
+     * Returns the key the page starts after, or null if it starts at the first pet.
+     */
+    public Key getAfter() {
+        return mAfter;
+    }
+
+    /**
+     * Returns the key of the last row of the page, or null if it ends after
+     * {@link #getPageSize()} rows.
+     */
+    public Key getUntil() {
+        return mUntil;
+    }
+
+    /**
+     * Returns the largest number of pets in the page, or {@link #NO_PAGE_LIMIT}.
+     */
+    public int getPageSize() {
+        return mPageSize;
+    }
+
+    /**
+     * Returns whether the query starts or ends at a key, rather than at either end of the list.
+     */
+    public boolean isPage() {
+        return mAfter != null || mUntil != null;
+    }
+
+    /**
+     * Returns the sort key of the row the cursor is on. The cursor must have the _ID column
+     * and the column of the sort, as {@link Pet#PROJECTION} does.
+     */
+    public Key getKey(Cursor cursor) {
+        long id = cursor.getLong(cursor.getColumnIndexOrThrow(PetEntry._ID));
+        String value = mSort == Sort.ID
+                ? String.valueOf(id)
+                : cursor.getString(cursor.getColumnIndexOrThrow(mSort.column));
+        return new Key(value, id);
+    }
+
+    /**
+     * Returns a builder with the same filters, sort, page bounds and page size as this query.
+     */
+    public Builder buildUpon() {
+        return new Builder()
+                .setGender(mGender)
+                .setBreed(mBreed)
+                .setWeightRange(mMinWeight, mMaxWeight)
+                .setSort(mSort)
+                .setAfter(mAfter)
+                .setUntil(mUntil)
+                .setPageSize(mPageSize);
+    }
+
+    /**
+     * Returns the given pets content URI with this query added as query parameters, to query
+     * {@link PetProvider} with. The page size is passed as the
+     * {@link PetContract#QUERY_PARAMETER_LIMIT} parameter.
+     */
+    public Uri toUri(Uri uri) {
+        Uri.Builder builder = uri.buildUpon();
+        if (mGender != ANY_GENDER) {
+            builder.appendQueryParameter(PARAMETER_GENDER, String.valueOf(mGender));
+        }
+        if (mBreed != null) {
+            builder.appendQueryParameter(PARAMETER_BREED, mBreed);
+        }
+        if (mMinWeight != NO_WEIGHT_LIMIT) {
+            builder.appendQueryParameter(PARAMETER_MIN_WEIGHT, String.valueOf(mMinWeight));
+        }
+        if (mMaxWeight != NO_WEIGHT_LIMIT) {
+            builder.appendQueryParameter(PARAMETER_MAX_WEIGHT, String.valueOf(mMaxWeight));
+        }
+        builder.appendQueryParameter(PARAMETER_SORT, mSort.name().toLowerCase(Locale.US));
+        if (mAfter != null) {
+            builder.appendQueryParameter(PARAMETER_AFTER, mAfter.value);
+            builder.appendQueryParameter(PARAMETER_AFTER_ID, String.valueOf(mAfter.id));
+        }
+        if (mUntil != null) {
+            builder.appendQueryParameter(PARAMETER_UNTIL, mUntil.value);
+            builder.appendQueryParameter(PARAMETER_UNTIL_ID, String.valueOf(mUntil.id));
+        }
+        if (mPageSize != NO_PAGE_LIMIT) {
+            builder.appendQueryParameter(PetContract.QUERY_PARAMETER_LIMIT,
+                    String.valueOf(mPageSize));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the query passed in the query parameters of the given URI, see
+     * {@link #toUri(Uri)}. A URI without any is a query for every pet, in the order they were
+     * added.
+     *
+     * @throws IllegalArgumentException if the query parameters are not valid
+     */
+    public static PetQuery fromUri(Uri uri) {
+        Builder builder = new Builder()
+                .setGender(getInt(uri, PARAMETER_GENDER, ANY_GENDER))
+                .setBreed(uri.getQueryParameter(PARAMETER_BREED))
+                .setWeightRange(getInt(uri, PARAMETER_MIN_WEIGHT, NO_WEIGHT_LIMIT),
+                        getInt(uri, PARAMETER_MAX_WEIGHT, NO_WEIGHT_LIMIT))
+                .setAfter(getKey(uri, PARAMETER_AFTER, PARAMETER_AFTER_ID))
+                .setUntil(getKey(uri, PARAMETER_UNTIL, PARAMETER_UNTIL_ID))
+                .setPageSize(getInt(uri, PetContract.QUERY_PARAMETER_LIMIT, NO_PAGE_LIMIT));
+
+        String sort = uri.getQueryParameter(PARAMETER_SORT);
+        if (sort != null) {
+            try {
+                builder.setSort(Sort.valueOf(sort.toUpperCase(Locale.US)));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid sort in " + uri);
+            }
+        }
+
+        if (builder.gender != ANY_GENDER && !PetEntry.isValidGender(builder.gender)) {
+            throw new IllegalArgumentException("Invalid gender in " + uri);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the whole number, 0 or more, in the given query parameter of the URI, or the
+     * given default if there is none.
+     */
+    private static int getInt(Uri uri, String parameter, int defaultValue) {
+        String value = uri.getQueryParameter(parameter);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value.isEmpty() || value.length() > 9 || !TextUtils.isDigitsOnly(value)) {
+            throw new IllegalArgumentException("Invalid " + parameter + " in " + uri);
+        }
+        return Integer.parseInt(value);
+    }
+
+    /**
+     * Returns the key in the given query parameters of the URI, or null if there is none.
+     */
+    private static Key getKey(Uri uri, String valueParameter, String idParameter) {
+        String value = uri.getQueryParameter(valueParameter);
+        String id = uri.getQueryParameter(idParameter);
+        if (value == null && id == null) {
+            return null;
+        }
+        if (value == null || id == null || id.isEmpty() || id.length() > 18
+                || !TextUtils.isDigitsOnly(id)) {
+            throw new IllegalArgumentException("Invalid " + valueParameter + " in " + uri);
+        }
+        return new Key(value, Long.parseLong(id));
+    }
+
+    /**
+     * Returns the WHERE clause of the query, or null if it has no filters or page bounds.
+     */
+    String getSelection() {
+        return mSelection;
+    }
+
+    /**
+     * Returns the arguments of {@link #getSelection()}, or null if there are none.
+     */
+    String[] getSelectionArgs() {
+        return mSelectionArgs;
+    }
+
+    /**
+     * Returns the ORDER BY clause of the query. It matches the page bounds, and can be served
+     * straight from an index.
+     */
+    String getSortOrder() {
+        if (mSort == Sort.ID) {
+            return PetEntry._ID;
+        }
+        return mSort.column + mSort.collation + ", " + PetEntry._ID;
+    }
+
+    /**
+     * Returns the LIMIT clause of the query, or null if it has none.
+     */
+    String getLimit() {
+        return mPageSize == NO_PAGE_LIMIT ? null : String.valueOf(mPageSize);
+    }
+
+    /**
+     * Builds a {@link PetQuery}. By default, it is for every pet, in the order they were added.
+     */
+    public static final class Builder {
+
+        private int gender = ANY_GENDER;
+        private String breed;
+        private int minWeight = NO_WEIGHT_LIMIT;
+        private int maxWeight = NO_WEIGHT_LIMIT;
+        private Sort sort = Sort.ID;
+        private Key after;
+        private Key until;
+        private int pageSize = NO_PAGE_LIMIT;
+
+        /**
+         * Only includes pets of the given gender, one of the PetEntry GENDER_* values, or
+         * {@link #ANY_GENDER}.
+         */
+        public Builder setGender(int gender) {
+            this.gender = gender;
+            return this;
+        }
+
+        /**
+         * Only includes pets of exactly the given breed, or of any breed if it is null.
+         */
+        public Builder setBreed(String breed) {
+            this.breed = breed;
+            return this;
+        }
+
+        /**
+         * Only includes pets weighing from the given minimum up to and including the given
+         * maximum, in kg. Either can be {@link #NO_WEIGHT_LIMIT}.
+         */
+        public Builder setWeightRange(int minWeight, int maxWeight) {
+            this.minWeight = minWeight;
+            this.maxWeight = maxWeight;
+            return this;
+        }
+
+        /**
+         * Sets the order of the pets. Any page bounds must be keys of the same sort.
+         */
+        public Builder setSort(Sort sort) {
+            if (sort == null) {
+                throw new IllegalArgumentException("Sort is required");
+            }
+            this.sort = sort;
+            return this;
+        }
+
+        /**
+         * Starts the page after the given key, or at the first pet if it is null.
+         */
+        public Builder setAfter(Key after) {
+            this.after = after;
+            return this;
+        }
+
+        /**
+         * Ends the page at the row with the given key, including it, or after the page size
+         * if it is null. A page that has been read once keeps the same rows when it is read
+         * again after a change, however many pets have been added or removed within it.
+         */
+        public Builder setUntil(Key until) {
+            this.until = until;
+            return this;
+        }
+
+        /**
+         * Sets the largest number of pets in the page, or {@link #NO_PAGE_LIMIT}.
+         */
+        public Builder setPageSize(int pageSize) {
+            this.pageSize = pageSize;
+            return this;
+        }
+
+        public PetQuery build() {
+            return new PetQuery(this);
+        }
+    }
+}
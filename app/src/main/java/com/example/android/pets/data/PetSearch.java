@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * Builds full-text search queries against the pet search table created by {@link PetDbHelper}.
+ */
+final class PetSearch {
+
+    /**
+     * WHERE clause matching the pets found by a search. Its single argument is a MATCH
+     * expression from {@link #toMatchExpression(String, String)}.
+     */
+    static final String SELECTION = PetEntry._ID + " IN (SELECT docid FROM "
+            + PetDbHelper.FTS_TABLE_NAME + " WHERE " + PetDbHelper.FTS_TABLE_NAME + " MATCH ?)";
+
+    /**
+     * ORDER BY clause that puts pets whose name matches before pets where only the breed
+     * matches. Its single argument is a MATCH expression restricted to the name column.
+     */
+    static final String SORT_ORDER = SELECTION + " DESC, " + PetEntry._ID;
+
+    private PetSearch() {}
+
+    /**
+     * Turns text typed by the user into an FTS MATCH expression that finds rows containing a word
+     * starting with each of the words in the text.
+     *
+     * Anything other than letters and digits is treated as a word separator, so the text can never
+     * contain FTS query syntax. Words are lower cased so they are not taken for AND, OR, NOT or
+     * NEAR operators. Only ASCII letters are lower cased: the search table's simple tokenizer
+     * folds no other case, so a word like "Élodie" is stored with its capital and must be
+     * searched for with it, just as a LIKE on the names would.
+     *
+     * @param searchText typed by the user
+     * @param column to restrict the match to, or null to match any column
+     * @return the MATCH expression, or null if the text does not contain any words
+     */
+    static String toMatchExpression(String searchText, String column) {
+        StringBuilder expression = new StringBuilder();
+        String[] words = toLowerCaseAscii(searchText).split("[^\\p{L}\\p{N}]+");
+        for (String word : words) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (expression.length() > 0) {
+                expression.append(' ');
+            }
+            if (column != null) {
+                expression.append(column).append(':');
+            }
+            expression.append(word).append('*');
+        }
+        return expression.length() == 0 ? null : expression.toString();
+    }
+
+    /**
+     * Lower cases the ASCII letters of the text, as the simple tokenizer does, leaving every
+     * other character as it is.
+     */
+    private static String toLowerCaseAscii(String text) {
+        char[] chars = text.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            char c = chars[i];
+            if (c >= 'A' && c <= 'Z') {
+                chars[i] = (char) (c + ('a' - 'A'));
+            }
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.SparseIntArray;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Statistics about the pets in the shelter.
+ *
+ * Everything is read from the summary tables that {@link PetDbHelper} keeps up to date with
+ * triggers, so the cost of a read depends on the number of genders, breeds or weight ranges,
+ * never on the number of pets. Reads must not be run on the main thread.
+ */
+public final class PetStats {
+
+    /** Width of each weight range in {@link #getWeightHistogram()}, in kilograms */
+    public static final int WEIGHT_BUCKET_SIZE = PetDbHelper.WEIGHT_BUCKET_SIZE;
+
+    /** Query for the total number of pets, summed over the few gender groups */
+    static final String SQL_PET_COUNT = "SELECT IFNULL(SUM("
+            + PetDbHelper.COLUMN_PET_COUNT + "), 0) FROM " + PetDbHelper.GENDER_COUNTS_TABLE_NAME;
+
+    /** Database helper shared with the rest of the app */
+    private final PetDbHelper mDbHelper;
+
+    /**
+     * Constructs a new {@link PetStats}.
+     *
+     * @param context of the app
+     */
+    public PetStats(Context context) {
+        this(PetDbHelper.getInstance(context));
+    }
+
+    /**
+     * Constructs a {@link PetStats} reading the given database.
+     */
+    PetStats(PetDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * Returns the number of pets in the shelter.
+     */
+    public int getPetCount() {
+        return mDbHelper.getDao().countPets();
+    }
+
+    /**
+     * Returns the number of pets of each gender, indexed by the PetEntry GENDER_* values.
+     */
+    public int[] getCountsByGender() {
+        int[] counts = new int[3];
+        Cursor cursor = query(PetDbHelper.GENDER_COUNTS_TABLE_NAME, PetEntry.COLUMN_PET_GENDER);
+        try {
+            while (cursor.moveToNext()) {
+                int gender = cursor.getInt(0);
+                if (PetEntry.isValidGender(gender)) {
+                    counts[gender] = cursor.getInt(1);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the number of pets of each breed, the most common breed first. Pets without a
+     * breed are counted under an empty string.
+     */
+    public Map<String, Integer> getCountsByBreed() {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        Cursor cursor = query(PetDbHelper.BREED_COUNTS_TABLE_NAME, PetEntry.COLUMN_PET_BREED,
+                PetDbHelper.COLUMN_PET_COUNT + " DESC, " + PetEntry.COLUMN_PET_BREED);
+        try {
+            while (cursor.moveToNext()) {
+                counts.put(cursor.getString(0), cursor.getInt(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the number of pets in each weight range, keyed by the lowest weight in the range.
+     * Each range is {@link #WEIGHT_BUCKET_SIZE} kilograms wide, and empty ranges are left out.
+     */
+    public SparseIntArray getWeightHistogram() {
+        SparseIntArray counts = new SparseIntArray();
+        Cursor cursor = query(PetDbHelper.WEIGHT_COUNTS_TABLE_NAME,
+                PetDbHelper.COLUMN_WEIGHT_BUCKET);
+        try {
+            while (cursor.moveToNext()) {
+                counts.put(cursor.getInt(0) * WEIGHT_BUCKET_SIZE, cursor.getInt(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return counts;
+    }
+
+    /**
+     * Returns every group in a summary table, with its key in column 0 and the number of pets
+     * in column 1, sorted by key.
+     */
+    private Cursor query(String table, String keyColumn) {
+        return query(table, keyColumn, keyColumn);
+    }
+
+    private Cursor query(String table, String keyColumn, String orderBy) {
+        return mDbHelper.getDatabase().query(table,
+                new String[] { keyColumn, PetDbHelper.COLUMN_PET_COUNT }, null, null, orderBy,
+                null, null);
+    }
+}
@@ -0,0 +1,763 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.ContentProvider;
+import android.content.ContentProviderClient;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Syncs the pets with a sync server, so that every device syncing with the same server ends
+ * up with the same pets.
+ *
+ * Only changes are sent and received, never the whole table. Changes made on this device are
+ * collected in the change journal by triggers (see {@link PetDbHelper}), and the server gives
+ * each change it accepts a version, so a device asks for the changes since the last version it
+ * has seen, its checkpoint. The journal holds the latest change to each pet, so a pet edited
+ * several times between syncs is sent once.
+ *
+ * A sync first receives the changes from other devices, then sends the changes from this one.
+ * The server turns a change away as a conflict if the pet has changed on the server since the
+ * version the change was made to. Conflicts are settled by the last writer winning: whichever
+ * change was made later is kept, and the server's change is kept if they were made at the
+ * same time, so every device settles the conflict the same way.
+ *
+ * Requests are JSON, compressed with gzip, and changes are arrays rather than objects, so the
+ * attribute names are not repeated on every change:
+ *
+ * - POST {server}/changes, with {"device": id, "changes": [[sync ID, op, base version,
+ *   time, name, breed, gender, weight], ...]} where op is {@link #OP_UPSERT} or
+ *   {@link #OP_DELETE} (a deletion leaves out the attributes). The server answers with
+ *   {"applied": [[sync ID, version], ...], "conflicts": [remote change, ...]}.
+ * - GET {server}/changes?since=version&amp;limit=count&amp;device=id, answered with
+ *   {"changes": [remote change, ...], "next": version, "more": boolean}. The server leaves out
+ *   the changes made by the asking device.
+ *
+ * where a remote change is [sync ID, version, time, deleted, name, breed, gender, weight].
+ *
+ * Requests that fail with a network error or a server error are tried again after a delay
+ * that doubles each time, with some randomness so devices do not all retry at once. Every
+ * batch of changes is applied in one transaction along with the checkpoint, so a sync that
+ * fails part way carries on from where it stopped.
+ *
+ * Syncing does network and database I/O and must not be run on the main thread.
+ */
+public final class PetSyncEngine {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = PetSyncEngine.class.getSimpleName();
+
+    /** Kinds of change sent to the server */
+    static final int OP_UPSERT = 0;
+    static final int OP_DELETE = 1;
+
+    /** Path of the changes on the server */
+    static final String PATH_CHANGES = "changes";
+
+    /** Query parameters for receiving changes */
+    static final String PARAM_SINCE = "since";
+    static final String PARAM_LIMIT = "limit";
+    static final String PARAM_DEVICE = "device";
+
+    /** Largest number of changes sent or received in one request */
+    private static final int BATCH_SIZE = 200;
+
+    /** Number of times a request is tried before the sync gives up */
+    private static final int MAX_ATTEMPTS = 5;
+
+    /** Delay before the first retry of a request, and the longest delay between retries */
+    private static final long INITIAL_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 60 * 1000;
+
+    /** Time allowed to connect to the server, and to wait for it to answer */
+    private static final int TIMEOUT_MILLIS = 30 * 1000;
+
+    /** HTTP status codes that are worth retrying, besides server errors */
+    private static final int HTTP_REQUEST_TIMEOUT = 408;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    /** Selection for the pet with a given sync ID */
+    private static final String SELECTION_SYNC_ID = PetDbHelper.COLUMN_SYNC_ID + " = ?";
+
+    /**
+     * Query for the next batch of changes to send, after a given journal version. The pet is
+     * missing if it has been removed since it was deleted.
+     */
+    private static final String SQL_PENDING_CHANGES = "SELECT c."
+            + PetDbHelper.COLUMN_CHANGE_VERSION + ", c." + PetDbHelper.COLUMN_SYNC_ID
+            + ", c." + PetDbHelper.COLUMN_CHANGE_OP + ", c."
+            + PetDbHelper.COLUMN_CHANGE_BASE_VERSION + ", c." + PetDbHelper.COLUMN_CHANGE_TIME
+            + ", p." + PetEntry.COLUMN_PET_NAME + ", p." + PetEntry.COLUMN_PET_BREED
+            + ", p." + PetEntry.COLUMN_PET_GENDER + ", p." + PetEntry.COLUMN_PET_WEIGHT
+            + " FROM " + PetDbHelper.CHANGES_TABLE_NAME + " c LEFT JOIN "
+            + PetEntry.TABLE_NAME + " p ON p." + PetEntry._ID + " = c."
+            + PetDbHelper.COLUMN_CHANGE_PET_ID + " WHERE c." + PetDbHelper.COLUMN_CHANGE_VERSION
+            + " > ? ORDER BY c." + PetDbHelper.COLUMN_CHANGE_VERSION + " LIMIT " + BATCH_SIZE;
+
+    /**
+     * Outcome of a completed sync.
+     */
+    public static final class Result {
+
+        /** Number of changes sent to and received from the server */
+        public final int changesSent;
+        public final int changesReceived;
+
+        /** Number of changes made both on this device and on the server */
+        public final int conflicts;
+
+        /** Number of requests made to the server, including retries */
+        public final int requests;
+
+        /** Number of compressed bytes sent and received in request and response bodies */
+        public final long bytesSent;
+        public final long bytesReceived;
+
+        /** Time spent syncing, in milliseconds */
+        public final long elapsedMillis;
+
+        Result(int changesSent, int changesReceived, int conflicts, int requests,
+                long bytesSent, long bytesReceived, long elapsedMillis) {
+            this.changesSent = changesSent;
+            this.changesReceived = changesReceived;
+            this.conflicts = conflicts;
+            this.requests = requests;
+            this.bytesSent = bytesSent;
+            this.bytesReceived = bytesReceived;
+            this.elapsedMillis = elapsedMillis;
+        }
+    }
+
+    /** Context of the app */
+    private final Context mContext;
+
+    /** Database helper of the pets being synced */
+    private final PetDbHelper mDbHelper;
+
+    /** URL of the sync server, without a trailing slash */
+    private final String mServerUrl;
+
+    /** Whether the pets are the app's own, so that the provider has to hear about changes */
+    private final boolean mNotifyProvider;
+
+    /** Randomness added to the delay between retries */
+    private final Random mRandom = new Random();
+
+    /** Delay before the first retry of a request */
+    private long mInitialBackoffMillis = INITIAL_BACKOFF_MILLIS;
+
+    /** ID of this device on the server, and the server version of the last change received */
+    private String mDeviceId;
+    private long mCheckpoint;
+
+    /** Counts for the sync in progress */
+    private int mConflicts;
+    private int mRequests;
+    private long mBytesSent;
+    private long mBytesReceived;
+
+    /** Whether the sync in progress has changed any pets, or deleted any */
+    private boolean mPetsChanged;
+    private boolean mPetsDeleted;
+
+    /** Whether a change has won a conflict since the journal was last read */
+    private boolean mLocalChangeWon;
+
+    /**
+     * Constructs a new {@link PetSyncEngine} for the app's pets.
+     *
+     * @param context   of the app
+     * @param serverUrl of the sync server
+     */
+    public PetSyncEngine(Context context, String serverUrl) {
+        this(context, PetDbHelper.getInstance(context), serverUrl);
+    }
+
+    /**
+     * Constructs a {@link PetSyncEngine} for the given database.
+     */
+    PetSyncEngine(Context context, PetDbHelper dbHelper, String serverUrl) {
+        mContext = context.getApplicationContext();
+        mDbHelper = dbHelper;
+        mServerUrl = serverUrl.endsWith("/")
+                ? serverUrl.substring(0, serverUrl.length() - 1) : serverUrl;
+        mNotifyProvider = dbHelper == PetDbHelper.getInstance(context);
+    }
+
+    /**
+     * Sets the delay before the first retry of a request, so that the benchmark does not
+     * spend its time waiting.
+     */
+    void setInitialBackoffMillis(long initialBackoffMillis) {
+        mInitialBackoffMillis = initialBackoffMillis;
+    }
+
+    /**
+     * Receives the changes made on other devices since the last sync, then sends the changes
+     * made on this device.
+     *
+     * @return the outcome of the sync
+     * @throws IOException if the server could not be reached, even after retrying, or it
+     *                     turned the sync away. The changes synced until then are kept.
+     */
+    public synchronized Result sync() throws IOException {
+        long startTime = SystemClock.elapsedRealtime();
+        mConflicts = 0;
+        mRequests = 0;
+        mBytesSent = 0;
+        mBytesReceived = 0;
+        mPetsChanged = false;
+        mPetsDeleted = false;
+
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        try {
+            loadState(db);
+            int changesReceived = receiveChanges(db);
+            int changesSent = sendChanges(db);
+
+            Result result = new Result(changesSent, changesReceived, mConflicts, mRequests,
+                    mBytesSent, mBytesReceived, SystemClock.elapsedRealtime() - startTime);
+            Log.i(LOG_TAG, "Sent " + result.changesSent + " and received "
+                    + result.changesReceived + " changes with " + result.conflicts
+                    + " conflicts in " + result.requests + " requests, " + result.bytesSent
+                    + " bytes up and " + result.bytesReceived + " bytes down in "
+                    + result.elapsedMillis + "ms");
+            return result;
+        } finally {
+            if (mPetsChanged && mNotifyProvider) {
+                notifyPetsChanged();
+            }
+        }
+    }
+
+    /**
+     * Reads the device ID and checkpoint for the server, giving this device a new ID the
+     * first time it syncs with the server.
+     */
+    private void loadState(SQLiteDatabase db) {
+        Cursor cursor = db.query(PetDbHelper.SYNC_STATE_TABLE_NAME,
+                new String[] { PetDbHelper.COLUMN_DEVICE_ID, PetDbHelper.COLUMN_CHECKPOINT },
+                PetDbHelper.COLUMN_SERVER_URL + " = ?", new String[] { mServerUrl },
+                null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                mDeviceId = cursor.getString(0);
+                mCheckpoint = cursor.getLong(1);
+                return;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        mDeviceId = UUID.randomUUID().toString();
+        mCheckpoint = 0;
+        ContentValues values = new ContentValues(3);
+        values.put(PetDbHelper.COLUMN_SERVER_URL, mServerUrl);
+        values.put(PetDbHelper.COLUMN_DEVICE_ID, mDeviceId);
+        values.put(PetDbHelper.COLUMN_CHECKPOINT, mCheckpoint);
+        db.insertOrThrow(PetDbHelper.SYNC_STATE_TABLE_NAME, null, values);
+    }
+
+    /**
+     * Receives the changes made on other devices since the checkpoint, a batch at a time.
+     *
+     * @return the number of changes received
+     */
+    private int receiveChanges(SQLiteDatabase db) throws IOException {
+        int changesReceived = 0;
+        boolean more = true;
+        while (more) {
+            Uri uri = Uri.parse(mServerUrl).buildUpon()
+                    .appendPath(PATH_CHANGES)
+                    .appendQueryParameter(PARAM_SINCE, Long.toString(mCheckpoint))
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(BATCH_SIZE))
+                    .appendQueryParameter(PARAM_DEVICE, mDeviceId)
+                    .build();
+            JSONObject response = request(uri, null);
+
+            long checkpoint;
+            db.beginTransaction();
+            try {
+                long journalVersion = getJournalVersion(db);
+                JSONArray changes = response.getJSONArray("changes");
+                for (int i = 0; i < changes.length(); i++) {
+                    applyRemoteChange(db, RemoteChange.fromJson(changes.getJSONArray(i)));
+                }
+                changesReceived += changes.length();
+                dropEchoes(db, journalVersion);
+
+                checkpoint = response.getLong("next");
+                more = response.optBoolean("more") && checkpoint > mCheckpoint;
+                ContentValues values = new ContentValues(1);
+                values.put(PetDbHelper.COLUMN_CHECKPOINT, checkpoint);
+                db.update(PetDbHelper.SYNC_STATE_TABLE_NAME, values,
+                        PetDbHelper.COLUMN_SERVER_URL + " = ?", new String[] { mServerUrl });
+                db.setTransactionSuccessful();
+            } catch (JSONException e) {
+                throw new IOException("Malformed changes from the sync server", e);
+            } finally {
+                db.endTransaction();
+            }
+            mCheckpoint = checkpoint;
+        }
+        return changesReceived;
+    }
+
+    /**
+     * Sends the changes in the journal, a batch at a time. Changes turned away as conflicts
+     * that this device wins are sent again once the rest have been sent.
+     *
+     * @return the number of changes sent
+     */
+    private int sendChanges(SQLiteDatabase db) throws IOException {
+        Uri uri = Uri.parse(mServerUrl).buildUpon().appendPath(PATH_CHANGES).build();
+        int changesSent = 0;
+        // Changes that win a conflict are sent again, now made on top of the server's
+        // version. Another device can win them in the meantime, so only go round once more.
+        for (int pass = 0; pass < 2; pass++) {
+            mLocalChangeWon = false;
+            long lastVersion = 0;
+            List<LocalChange> batch;
+            while (!(batch = readPendingChanges(db, lastVersion)).isEmpty()) {
+                lastVersion = batch.get(batch.size() - 1).version;
+
+                JSONArray changes = new JSONArray();
+                Map<String, LocalChange> bySyncId = new HashMap<>();
+                for (LocalChange change : batch) {
+                    changes.put(change.toJson());
+                    bySyncId.put(change.syncId, change);
+                }
+                JSONObject body = new JSONObject();
+                try {
+                    body.put(PARAM_DEVICE, mDeviceId);
+                    body.put("changes", changes);
+                } catch (JSONException e) {
+                    throw new IllegalStateException(e);
+                }
+                JSONObject response = request(uri, body);
+
+                db.beginTransaction();
+                try {
+                    long journalVersion = getJournalVersion(db);
+                    JSONArray applied = response.getJSONArray("applied");
+                    for (int i = 0; i < applied.length(); i++) {
+                        JSONArray change = applied.getJSONArray(i);
+                        LocalChange sent = bySyncId.get(change.getString(0));
+                        if (sent != null) {
+                            markSent(db, sent, change.getLong(1));
+                        }
+                    }
+                    JSONArray conflicts = response.getJSONArray("conflicts");
+                    for (int i = 0; i < conflicts.length(); i++) {
+                        applyRemoteChange(db, RemoteChange.fromJson(conflicts.getJSONArray(i)));
+                    }
+                    dropEchoes(db, journalVersion);
+                    db.setTransactionSuccessful();
+                } catch (JSONException e) {
+                    throw new IOException("Malformed answer from the sync server", e);
+                } finally {
+                    db.endTransaction();
+                }
+                changesSent += batch.size();
+            }
+            if (!mLocalChangeWon) {
+                break;
+            }
+        }
+        return changesSent;
+    }
+
+    /**
+     * Reads the next batch of changes to send, after the given journal version.
+     */
+    private static List<LocalChange> readPendingChanges(SQLiteDatabase db, long afterVersion) {
+        List<LocalChange> changes = new ArrayList<>(BATCH_SIZE);
+        Cursor cursor = db.rawQuery(SQL_PENDING_CHANGES,
+                new String[] { Long.toString(afterVersion) });
+        try {
+            while (cursor.moveToNext()) {
+                changes.add(new LocalChange(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        return changes;
+    }
+
+    /**
+     * Records that the server has accepted a change. The change is removed from the journal,
+     * unless the pet has been changed again since it was read, in which case the newer change
+     * is now made on top of the server's version.
+     */
+    private static void markSent(SQLiteDatabase db, LocalChange change, long serverVersion) {
+        String[] versionArgs = { Long.toString(change.version) };
+        db.delete(PetDbHelper.CHANGES_TABLE_NAME,
+                PetDbHelper.COLUMN_CHANGE_VERSION + " = ?", versionArgs);
+
+        String[] syncIdArgs = { change.syncId };
+        ContentValues values = new ContentValues(1);
+        values.put(PetDbHelper.COLUMN_SERVER_VERSION, serverVersion);
+        db.update(PetEntry.TABLE_NAME, values, SELECTION_SYNC_ID, syncIdArgs);
+
+        values = new ContentValues(1);
+        values.put(PetDbHelper.COLUMN_CHANGE_BASE_VERSION, serverVersion);
+        db.update(PetDbHelper.CHANGES_TABLE_NAME, values, SELECTION_SYNC_ID, syncIdArgs);
+    }
+
+    /**
+     * Applies a change from the server to the pet with the same sync ID, adding the pet if
+     * this device does not have it yet. If the pet also has a change waiting to be sent, the
+     * later of the two changes is kept.
+     */
+    private void applyRemoteChange(SQLiteDatabase db, RemoteChange remote) {
+        if (!remote.deleted
+                && PetValidator.check(remote.name, remote.gender, remote.weight) != null) {
+            Log.w(LOG_TAG, "Skipping invalid pet " + remote.syncId + " from the sync server");
+            return;
+        }
+
+        String[] syncIdArgs = { remote.syncId };
+        long pendingTime = -1;
+        Cursor cursor = db.query(PetDbHelper.CHANGES_TABLE_NAME,
+                new String[] { PetDbHelper.COLUMN_CHANGE_TIME }, SELECTION_SYNC_ID, syncIdArgs,
+                null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                pendingTime = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (pendingTime >= 0) {
+            mConflicts++;
+            if (pendingTime > remote.time) {
+                // This device wins. Its change is sent again, on top of the server's version.
+                ContentValues values = new ContentValues(1);
+                values.put(PetDbHelper.COLUMN_SERVER_VERSION, remote.version);
+                db.update(PetEntry.TABLE_NAME, values, SELECTION_SYNC_ID, syncIdArgs);
+                values = new ContentValues(1);
+                values.put(PetDbHelper.COLUMN_CHANGE_BASE_VERSION, remote.version);
+                db.update(PetDbHelper.CHANGES_TABLE_NAME, values, SELECTION_SYNC_ID,
+                        syncIdArgs);
+                mLocalChangeWon = true;
+                return;
+            }
+            // The server wins, so the change waiting to be sent is dropped
+            db.delete(PetDbHelper.CHANGES_TABLE_NAME, SELECTION_SYNC_ID, syncIdArgs);
+        }
+
+        ContentValues values = new ContentValues(6);
+        values.put(PetDbHelper.COLUMN_SERVER_VERSION, remote.version);
+        values.put(PetDbHelper.COLUMN_DELETED, remote.deleted ? 1 : 0);
+        if (!remote.deleted) {
+            values.put(PetEntry.COLUMN_PET_NAME, remote.name);
+            values.put(PetEntry.COLUMN_PET_BREED, remote.breed);
+            values.put(PetEntry.COLUMN_PET_GENDER, remote.gender);
+            values.put(PetEntry.COLUMN_PET_WEIGHT, remote.weight);
+        }
+        if (db.update(PetEntry.TABLE_NAME, values, SELECTION_SYNC_ID, syncIdArgs) != 0) {
+            mPetsChanged = true;
+            mPetsDeleted |= remote.deleted;
+        } else if (!remote.deleted) {
+            values.put(PetDbHelper.COLUMN_SYNC_ID, remote.syncId);
+            db.insertOrThrow(PetEntry.TABLE_NAME, null, values);
+            mPetsChanged = true;
+        }
+    }
+
+    /**
+     * Returns the version of the latest change put in the journal, or 0 if there has been none.
+     */
+    private static long getJournalVersion(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(seq), 0) FROM sqlite_sequence"
+                + " WHERE name = ?", new String[] { PetDbHelper.CHANGES_TABLE_NAME });
+    }
+
+    /**
+     * Removes the changes journaled after the given version. Called in the same transaction
+     * as applying changes from the server, so that these are not sent back to it.
+     */
+    private static void dropEchoes(SQLiteDatabase db, long journalVersion) {
+        db.delete(PetDbHelper.CHANGES_TABLE_NAME, PetDbHelper.COLUMN_CHANGE_VERSION + " > ?",
+                new String[] { Long.toString(journalVersion) });
+    }
+
+    /**
+     * Makes a request to the server, trying it again after a growing delay if it fails with
+     * a network error or a server error.
+     *
+     * @param uri  of the request
+     * @param body to POST, or null to GET
+     */
+    private JSONObject request(Uri uri, JSONObject body) throws IOException {
+        byte[] payload = body == null ? null : gzip(body.toString().getBytes("UTF-8"));
+        long backoffMillis = mInitialBackoffMillis;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return send(uri, payload);
+            } catch (RejectedException e) {
+                throw e;
+            } catch (IOException e) {
+                if (attempt == MAX_ATTEMPTS) {
+                    throw e;
+                }
+                // Wait between half and all of the backoff
+                long delayMillis = backoffMillis / 2
+                        + (long) (mRandom.nextDouble() * (backoffMillis / 2));
+                Log.w(LOG_TAG, "Sync request failed, retrying in " + delayMillis + "ms: "
+                        + e.getMessage());
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Sync interrupted");
+                }
+                backoffMillis = Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Makes a single request to the server.
+     *
+     * @param payload compressed body to POST, or null to GET
+     * @throws RejectedException if the server turned the request away, so it is not retried
+     */
+    private JSONObject send(Uri uri, byte[] payload) throws IOException {
+        mRequests++;
+        HttpURLConnection connection = (HttpURLConnection) new URL(uri.toString())
+                .openConnection();
+        try {
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            // Asking for gzip explicitly stops HttpURLConnection from decompressing the
+            // response itself, so the bytes received can be counted
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            if (payload != null) {
+                connection.setRequestMethod("POST");
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", "application/json");
+                connection.setRequestProperty("Content-Encoding", "gzip");
+                connection.setFixedLengthStreamingMode(payload.length);
+                OutputStream out = connection.getOutputStream();
+                try {
+                    out.write(payload);
+                } finally {
+                    out.close();
+                }
+                mBytesSent += payload.length;
+            }
+
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                if (status >= HttpURLConnection.HTTP_INTERNAL_ERROR
+                        || status == HTTP_REQUEST_TIMEOUT || status == HTTP_TOO_MANY_REQUESTS) {
+                    throw new IOException("Sync server failed with " + status);
+                }
+                throw new RejectedException("Sync server turned the request away with "
+                        + status);
+            }
+
+            byte[] response = readFully(connection.getInputStream());
+            mBytesReceived += response.length;
+            if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+                response = readFully(new GZIPInputStream(new ByteArrayInputStream(response)));
+            }
+            return new JSONObject(new String(response, "UTF-8"));
+        } catch (JSONException e) {
+            throw new RejectedException("Malformed answer from the sync server", e);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Tells the provider that pets have changed behind its back, so it drops any cached pets
+     * and the lists showing them are reloaded.
+     */
+    private void notifyPetsChanged() {
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(PetContract.CONTENT_AUTHORITY);
+        if (client != null) {
+            try {
+                ContentProvider provider = client.getLocalContentProvider();
+                if (provider instanceof PetProvider) {
+                    ((PetProvider) provider).getPetCache().invalidateAll();
+                }
+            } finally {
+                client.release();
+            }
+        }
+        mContext.getContentResolver().notifyChange(PetEntry.CONTENT_URI, null);
+
+        if (mPetsDeleted) {
+            PetCompactionService.enqueueCompaction(mContext);
+        }
+    }
+
+    /**
+     * Compresses the given bytes with gzip.
+     */
+    static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        GZIPOutputStream out = new GZIPOutputStream(buffer);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Reads the rest of the given stream and closes it.
+     */
+    static byte[] readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                buffer.write(chunk, 0, read);
+            }
+            return buffer.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * A change in the journal waiting to be sent.
+     */
+    private static final class LocalChange {
+
+        final long version;
+        final String syncId;
+        final boolean deleted;
+        final long baseVersion;
+        final long time;
+        final String name;
+        final String breed;
+        final int gender;
+        final int weight;
+
+        /**
+         * Reads the change at the current row of a cursor over {@link #SQL_PENDING_CHANGES}.
+         */
+        LocalChange(Cursor cursor) {
+            version = cursor.getLong(0);
+            syncId = cursor.getString(1);
+            // The pet has gone if it was removed after being deleted
+            deleted = cursor.getInt(2) == PetDbHelper.CHANGE_DELETE || cursor.isNull(5);
+            baseVersion = cursor.getLong(3);
+            time = cursor.getLong(4);
+            name = cursor.getString(5);
+            breed = cursor.getString(6);
+            gender = cursor.getInt(7);
+            weight = cursor.getInt(8);
+        }
+
+        JSONArray toJson() {
+            JSONArray change = new JSONArray()
+                    .put(syncId)
+                    .put(deleted ? OP_DELETE : OP_UPSERT)
+                    .put(baseVersion)
+                    .put(time);
+            if (!deleted) {
+                change.put(name)
+                        .put(breed == null ? JSONObject.NULL : breed)
+                        .put(gender)
+                        .put(weight);
+            }
+            return change;
+        }
+    }
+
+    /**
+     * A change received from the server.
+     */
+    private static final class RemoteChange {
+
+        final String syncId;
+        final long version;
+        final long time;
+        final boolean deleted;
+        final String name;
+        final String breed;
+        final int gender;
+        final int weight;
+
+        private RemoteChange(JSONArray change) throws JSONException {
+            syncId = change.getString(0);
+            version = change.getLong(1);
+            time = change.getLong(2);
+            deleted = change.getInt(3) != 0;
+            name = deleted ? null : change.getString(4);
+            breed = deleted || change.isNull(5) ? null : change.getString(5);
+            gender = deleted ? PetEntry.GENDER_UNKNOWN : change.getInt(6);
+            weight = deleted ? 0 : change.getInt(7);
+        }
+
+        static RemoteChange fromJson(JSONArray change) throws JSONException {
+            return new RemoteChange(change);
+        }
+    }
+
+    /**
+     * Thrown when the server turns a request away, as trying it again would not help.
+     */
+    private static final class RejectedException extends IOException {
+
+        RejectedException(String message) {
+            super(message);
+        }
+
+        RejectedException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
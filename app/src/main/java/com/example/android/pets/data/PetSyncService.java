@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.content.Intent;
+import android.database.SQLException;
+import android.support.annotation.NonNull;
+import android.support.v4.app.JobIntentService;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.pets.BuildConfig;
+
+import java.io.IOException;
+
+/**
+ * Background job that syncs the pets with the sync server set in the build, see
+ * {@link PetSyncEngine}.
+ */
+public class PetSyncService extends JobIntentService {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = PetSyncService.class.getSimpleName();
+
+    /** Unique job ID for this service */
+    private static final int JOB_ID = 1002;
+
+    /**
+     * Returns whether the build has a sync server to sync with.
+     */
+    public static boolean isEnabled() {
+        return !TextUtils.isEmpty(BuildConfig.SYNC_SERVER_URL);
+    }
+
+    /**
+     * Queues a sync to run in the background. Queueing it again while one is waiting is
+     * cheap, as a sync with no changes either way is a single request.
+     *
+     * @param context of the app
+     */
+    public static void enqueueSync(Context context) {
+        enqueueWork(context, PetSyncService.class, JOB_ID,
+                new Intent(context, PetSyncService.class));
+    }
+
+    @Override
+    protected void onHandleWork(@NonNull Intent intent) {
+        if (!isEnabled()) {
+            return;
+        }
+        try {
+            new PetSyncEngine(this, BuildConfig.SYNC_SERVER_URL).sync();
+        } catch (IOException | SQLException e) {
+            // The changes stay in the journal, and are sent by the next sync
+            Log.e(LOG_TAG, "Failed to sync the pets", e);
+        }
+    }
+}
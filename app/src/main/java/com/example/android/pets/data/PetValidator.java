@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.text.TextUtils;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * Checks the attributes of a pet against the constraints of the pets table in
+ * {@link PetContract}, so that invalid pets are turned away before any database work, rather
+ * than failing inside SQLite:
+ *
+ * - the name is required and must not be blank
+ * - the gender must be one of the PetEntry GENDER_* values
+ * - the weight is optional, and must be a whole number of kg, 0 or more
+ * - any breed is valid, including none
+ *
+ * The same checks are used by the editor, the provider and the importer. The checks on plain
+ * values do not allocate, so they are cheap enough to run on every row of a bulk import.
+ */
+public final class PetValidator {
+
+    /** Returned by {@link #toWholeNumber(Object)} for a value that is not a whole number */
+    private static final long NOT_A_WHOLE_NUMBER = Long.MIN_VALUE;
+
+    /**
+     * Reasons a pet is invalid.
+     */
+    public enum Error {
+        /** The name is missing or blank */
+        NAME_REQUIRED,
+
+        /** The gender is not one of the PetEntry GENDER_* values */
+        GENDER_INVALID,
+
+        /** The weight is not a whole number */
+        WEIGHT_NOT_A_NUMBER,
+
+        /** The weight is less than 0 kg */
+        WEIGHT_NEGATIVE
+    }
+
+    private PetValidator() {
+    }
+
+    /**
+     * Checks the attributes of a pet.
+     *
+     * @return the first problem found, or null if the pet is valid
+     */
+    public static Error check(String name, int gender, int weight) {
+        if (name == null || TextUtils.getTrimmedLength(name) == 0) {
+            return Error.NAME_REQUIRED;
+        }
+        if (!PetEntry.isValidGender(gender)) {
+            return Error.GENDER_INVALID;
+        }
+        if (weight < 0) {
+            return Error.WEIGHT_NEGATIVE;
+        }
+        return null;
+    }
+
+    /**
+     * Checks the attributes of a pet about to be written to the pets table.
+     *
+     * @param values to be written
+     * @param update whether the values are an update, in which case only the attributes being
+     *               changed are checked, rather than a new pet
+     * @return the first problem found, or null if the values are valid
+     */
+    public static Error check(ContentValues values, boolean update) {
+        if (!update || values.containsKey(PetEntry.COLUMN_PET_NAME)) {
+            String name = values.getAsString(PetEntry.COLUMN_PET_NAME);
+            if (name == null || TextUtils.getTrimmedLength(name) == 0) {
+                return Error.NAME_REQUIRED;
+            }
+        }
+
+        if (!update || values.containsKey(PetEntry.COLUMN_PET_GENDER)) {
+            Integer gender = values.getAsInteger(PetEntry.COLUMN_PET_GENDER);
+            if (gender == null || !PetEntry.isValidGender(gender)) {
+                return Error.GENDER_INVALID;
+            }
+        }
+
+        if (values.containsKey(PetEntry.COLUMN_PET_WEIGHT)) {
+            // A missing weight is 0 kg, but a weight that is there must be a whole number.
+            // getAsInteger() would quietly truncate 2.5 to 2, and turn text that is not a
+            // number into null.
+            long weight = toWholeNumber(values.get(PetEntry.COLUMN_PET_WEIGHT));
+            if (weight == NOT_A_WHOLE_NUMBER) {
+                return Error.WEIGHT_NOT_A_NUMBER;
+            }
+            if (weight < 0) {
+                return Error.WEIGHT_NEGATIVE;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the given value as a whole number that fits in an int, or
+     * {@link #NOT_A_WHOLE_NUMBER} if it is null, has a fraction, or is not a number at all.
+     */
+    private static long toWholeNumber(Object value) {
+        long number;
+        if (value instanceof Integer || value instanceof Long || value instanceof Short
+                || value instanceof Byte) {
+            number = ((Number) value).longValue();
+        } else if (value instanceof Double || value instanceof Float) {
+            double doubleValue = ((Number) value).doubleValue();
+            if (doubleValue != Math.rint(doubleValue)
+                    || Math.abs(doubleValue) > Integer.MAX_VALUE) {
+                // Also true of NaN and the infinities
+                return NOT_A_WHOLE_NUMBER;
+            }
+            number = (long) doubleValue;
+        } else if (value instanceof String) {
+            try {
+                number = Long.parseLong(((String) value).trim());
+            } catch (NumberFormatException e) {
+                return NOT_A_WHOLE_NUMBER;
+            }
+        } else {
+            return NOT_A_WHOLE_NUMBER;
+        }
+        if (number > Integer.MAX_VALUE || number < Integer.MIN_VALUE) {
+            return NOT_A_WHOLE_NUMBER;
+        }
+        return number;
+    }
+
+    /**
+     * Parses the weight of a pet as typed in by the user. A blank weight is 0 kg, as the
+     * weight is optional.
+     *
+     * @return the weight, or -1 if the text is not a whole number of kg that fits in an int
+     */
+    public static int parseWeight(CharSequence text) {
+        int start = 0;
+        int end = text.length();
+        while (start < end && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+
+        long weight = 0;
+        for (int i = start; i < end; i++) {
+            int digit = Character.digit(text.charAt(i), 10);
+            if (digit < 0) {
+                return -1;
+            }
+            weight = weight * 10 + digit;
+            if (weight > Integer.MAX_VALUE) {
+                return -1;
+            }
+        }
+        return (int) weight;
+    }
+
+    /**
+     * Builds the values of a pet for the pets table, checking them as it goes.
+     */
+    public static final class Builder {
+
+        private String name;
+        private String breed;
+        private int gender = PetEntry.GENDER_UNKNOWN;
+        private int weight;
+        private String photoUri;
+
+        /** First problem found while setting the attributes, or null if there is none */
+        private Error error;
+
+        /**
+         * Sets the name. Leading and trailing whitespace is removed.
+         */
+        public Builder setName(String name) {
+            this.name = name == null ? null : name.trim();
+            return this;
+        }
+
+        /**
+         * Sets the breed. Leading and trailing whitespace is removed, and a blank breed is
+         * stored as unknown.
+         */
+        public Builder setBreed(String breed) {
+            String trimmed = breed == null ? null : breed.trim();
+            this.breed = TextUtils.isEmpty(trimmed) ? null : trimmed;
+            return this;
+        }
+
+        /**
+         * Sets the gender, one of the PetEntry GENDER_* values.
+         */
+        public Builder setGender(int gender) {
+            this.gender = gender;
+            return this;
+        }
+
+        /**
+         * Sets the weight in kg from text typed in by the user, see
+         * {@link PetValidator#parseWeight(CharSequence)}.
+         */
+        public Builder setWeight(CharSequence text) {
+            int parsed = parseWeight(text);
+            if (parsed < 0) {
+                if (error == null) {
+                    error = Error.WEIGHT_NOT_A_NUMBER;
+                }
+                parsed = 0;
+            }
+            weight = parsed;
+            return this;
+        }
+
+        /**
+         * Sets the URI of the pet's photo, or null if there is no photo.
+         */
+        public Builder setPhotoUri(String photoUri) {
+            this.photoUri = photoUri;
+            return this;
+        }
+
+        /**
+         * Returns the first problem with the pet, or null if it is valid.
+         */
+        public Error getError() {
+            return error != null ? error : check(name, gender, weight);
+        }
+
+        /**
+         * Returns the values of the pet, to insert as a new pet or to update an existing one
+         * with.
+         *
+         * @throws IllegalArgumentException if the pet is not valid
+         */
+        public ContentValues build() {
+            Error error = getError();
+            if (error != null) {
+                throw new IllegalArgumentException("Invalid pet: " + error);
+            }
+            ContentValues values = new ContentValues(5);
+            values.put(PetEntry.COLUMN_PET_NAME, name);
+            values.put(PetEntry.COLUMN_PET_BREED, breed);
+            values.put(PetEntry.COLUMN_PET_GENDER, gender);
+            values.put(PetEntry.COLUMN_PET_WEIGHT, weight);
+            values.put(PetEntry.COLUMN_PET_PHOTO_URI, photoUri);
+            return values;
+        }
+    }
+}
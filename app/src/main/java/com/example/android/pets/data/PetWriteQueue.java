@@ -0,0 +1,372 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Single background writer for all pet inserts, updates and deletes.
+ *
+ * Callers return straight away while their write waits briefly in the queue. Writes to the same
+ * pet that arrive while an earlier one is still queued are coalesced into one, and everything
+ * queued is then applied through {@link PetProvider} in a single transaction. Results are
+ * delivered to callbacks on the main thread.
+ *
+ * Values are checked with {@link PetValidator} before they are queued, and invalid writes fail
+ * straight away, so they never share a transaction with valid ones. If a batch still fails, its
+ * writes are applied again one at a time, so only the ones that cannot be written are lost.
+ */
+public final class PetWriteQueue {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = PetWriteQueue.class.getSimpleName();
+
+    /** How long a write waits for others to batch with, in milliseconds */
+    private static final long BATCH_DELAY_MILLIS = 50;
+
+    /** Most writes applied in one transaction */
+    private static final int MAX_BATCH_SIZE = 100;
+
+    /**
+     * Receives the result of a queued write on the main thread.
+     */
+    public interface Callback {
+
+        /**
+         * Called once the write has been committed, or has failed.
+         *
+         * @param uri of the pet that was written, or null if the write failed or did not
+         *            match any pet
+         */
+        void onWriteFinished(Uri uri);
+    }
+
+    /** The single instance shared by the whole process */
+    private static PetWriteQueue sInstance;
+
+    /** Resolver the writes are applied through */
+    private final ContentResolver mContentResolver;
+
+    /** Handler for the writer thread */
+    private final Handler mWriteHandler;
+
+    /** Handler for delivering callbacks on the main thread */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Writes waiting to be applied, in the order they were queued. Writes to existing pets are
+     * keyed by the pet's URI so later writes replace earlier ones. Inserts each have their own
+     * key. Guarded by {@code this}.
+     */
+    private final LinkedHashMap<Object, PendingWrite> mPending = new LinkedHashMap<>();
+
+    /** Whether a flush has been scheduled on the writer thread. Guarded by {@code this}. */
+    private boolean mFlushScheduled;
+
+    /** Largest number of writes that have been waiting at once. Guarded by {@code this}. */
+    private int mPeakQueueDepth;
+
+    /** Writes applied to the database since the queue was created, and writes coalesced away */
+    private int mWritesApplied;
+    private int mWritesCoalesced;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    private PetWriteQueue(Context context) {
+        mContentResolver = context.getApplicationContext().getContentResolver();
+        HandlerThread thread = new HandlerThread("PetWriter");
+        thread.start();
+        mWriteHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Returns the write queue shared by the whole process, creating it if needed.
+     *
+     * @param context of the app
+     */
+    public static synchronized PetWriteQueue getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PetWriteQueue(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Queues a new pet to be inserted.
+     *
+     * @param values of the new pet
+     * @param callback to receive the content URI of the new pet, or null
+     */
+    public void insert(ContentValues values, Callback callback) {
+        if (!isValid(values, false, callback)) {
+            return;
+        }
+        ContentProviderOperation operation = ContentProviderOperation
+                .newInsert(PetEntry.CONTENT_URI)
+                .withValues(values)
+                .build();
+        enqueue(new Object(), new PendingWrite(null, values, operation, callback));
+    }
+
+    /**
+     * Queues changes to an existing pet. If changes to the same pet are already waiting, the
+     * two are merged into one update, with these values taking precedence.
+     *
+     * @param petUri content URI of the pet
+     * @param values to change
+     * @param callback to receive the content URI of the pet, or null
+     */
+    public void update(Uri petUri, ContentValues values, Callback callback) {
+        if (!isValid(values, true, callback)) {
+            return;
+        }
+        synchronized (this) {
+            Object key = petUri;
+            PendingWrite pending = mPending.get(petUri);
+            if (pending != null && pending.values == null) {
+                // The pet is already waiting to be deleted. Queue the update after the delete
+                // rather than replacing it, so the delete still happens.
+                key = new Object();
+            } else if (pending != null) {
+                ContentValues merged = new ContentValues(pending.values);
+                merged.putAll(values);
+                values = merged;
+            }
+            ContentProviderOperation operation = ContentProviderOperation
+                    .newUpdate(petUri)
+                    .withValues(values)
+                    .build();
+            enqueue(key, new PendingWrite(petUri, values, operation, callback));
+        }
+    }
+
+    /**
+     * Queues an existing pet to be deleted. Any changes to the pet still waiting are dropped.
+     * Passing {@link PetEntry#CONTENT_URI} deletes every pet.
+     *
+     * @param petUri content URI of the pet, or of all pets
+     * @param callback to receive the content URI of the deleted pet, or null
+     */
+    public void delete(Uri petUri, Callback callback) {
+        ContentProviderOperation operation = ContentProviderOperation.newDelete(petUri).build();
+        enqueue(petUri, new PendingWrite(petUri, null, operation, callback));
+    }
+
+    /**
+     * Returns the number of writes waiting to be applied.
+     */
+    public synchronized int getQueueDepth() {
+        return mPending.size();
+    }
+
+    /**
+     * Returns the largest number of writes that have been waiting at once.
+     */
+    public synchronized int getPeakQueueDepth() {
+        return mPeakQueueDepth;
+    }
+
+    /**
+     * Returns the number of writes that have been applied to the database.
+     */
+    public synchronized int getWritesApplied() {
+        return mWritesApplied;
+    }
+
+    /**
+     * Returns the number of writes that were merged into a later write to the same pet.
+     */
+    public synchronized int getWritesCoalesced() {
+        return mWritesCoalesced;
+    }
+
+    /**
+     * Checks the values of a write with {@link PetValidator}, failing the write straight away
+     * if they are invalid.
+     *
+     * @param update whether the values are an update, rather than a new pet
+     * @return whether the write can be queued
+     */
+    private boolean isValid(ContentValues values, boolean update, Callback callback) {
+        PetValidator.Error error = PetValidator.check(values, update);
+        if (error == null) {
+            return true;
+        }
+        Log.e(LOG_TAG, "Not writing invalid pet: " + error);
+        deliver(new PendingWrite(null, values, null, callback), null);
+        return false;
+    }
+
+    private void enqueue(Object key, PendingWrite write) {
+        synchronized (this) {
+            PendingWrite replaced = mPending.remove(key);
+            if (replaced != null) {
+                // The later write supersedes the earlier one, but whoever queued the earlier
+                // one still hears when the pet has been written
+                write.replacedCallbacks.addAll(replaced.replacedCallbacks);
+                write.replacedCallbacks.add(replaced.callback);
+                mWritesCoalesced++;
+            }
+            mPending.put(key, write);
+            mPeakQueueDepth = Math.max(mPeakQueueDepth, mPending.size());
+
+            if (mPending.size() >= MAX_BATCH_SIZE) {
+                // Don't let the queue grow any further before writing it out
+                mWriteHandler.removeCallbacks(mFlushRunnable);
+                mWriteHandler.post(mFlushRunnable);
+                mFlushScheduled = true;
+            } else if (!mFlushScheduled) {
+                mWriteHandler.postDelayed(mFlushRunnable, BATCH_DELAY_MILLIS);
+                mFlushScheduled = true;
+            }
+        }
+    }
+
+    /**
+     * Applies queued writes in batches until the queue is empty. Runs on the writer thread.
+     */
+    private void flush() {
+        while (true) {
+            List<PendingWrite> batch = new ArrayList<>();
+            synchronized (this) {
+                Iterator<Map.Entry<Object, PendingWrite>> iterator =
+                        mPending.entrySet().iterator();
+                while (iterator.hasNext() && batch.size() < MAX_BATCH_SIZE) {
+                    batch.add(iterator.next().getValue());
+                    iterator.remove();
+                }
+                if (batch.isEmpty()) {
+                    mFlushScheduled = false;
+                    return;
+                }
+            }
+            apply(batch);
+        }
+    }
+
+    /**
+     * Applies a batch of writes in one transaction and delivers their results. If the batch
+     * fails, each write is applied again on its own.
+     */
+    private void apply(List<PendingWrite> batch) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(batch.size());
+        for (PendingWrite write : batch) {
+            operations.add(write.operation);
+        }
+
+        ContentProviderResult[] results = null;
+        try {
+            results = mContentResolver.applyBatch(PetContract.CONTENT_AUTHORITY, operations);
+            synchronized (this) {
+                mWritesApplied += batch.size();
+            }
+        } catch (RemoteException | OperationApplicationException | RuntimeException e) {
+            // The whole batch was rolled back
+            Log.e(LOG_TAG, "Failed to write " + batch.size() + " pets", e);
+        }
+
+        if (results == null && batch.size() > 1) {
+            // Don't let one bad write take the others down with it
+            for (PendingWrite write : batch) {
+                apply(Collections.singletonList(write));
+            }
+            return;
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            PendingWrite write = batch.get(i);
+            Uri uri = null;
+            if (results != null) {
+                ContentProviderResult result = results[i];
+                if (result.uri != null) {
+                    uri = result.uri;
+                } else if (result.count != null && result.count > 0) {
+                    uri = write.petUri;
+                }
+            }
+            deliver(write, uri);
+        }
+    }
+
+    private void deliver(final PendingWrite write, final Uri uri) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Callback callback : write.replacedCallbacks) {
+                    if (callback != null) {
+                        callback.onWriteFinished(uri);
+                    }
+                }
+                if (write.callback != null) {
+                    write.callback.onWriteFinished(uri);
+                }
+            }
+        });
+    }
+
+    /**
+     * A write waiting in the queue.
+     */
+    private static final class PendingWrite {
+
+        /** URI of the existing pet being written, or null for an insert */
+        final Uri petUri;
+
+        /** Values being written, or null for a delete */
+        final ContentValues values;
+
+        /** Operation applying the write, or null if the write was never queued */
+        final ContentProviderOperation operation;
+
+        final Callback callback;
+
+        /** Callbacks of earlier writes to the same pet that this write replaced */
+        final List<Callback> replacedCallbacks = new ArrayList<>();
+
+        PendingWrite(Uri petUri, ContentValues values, ContentProviderOperation operation,
+                Callback callback) {
+            this.petUri = petUri;
+            this.values = values;
+            this.operation = operation;
+            this.callback = callback;
+        }
+    }
+}
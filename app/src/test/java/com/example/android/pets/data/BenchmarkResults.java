@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Results of one of the JVM benchmark suites, written as a JSON document so runs can be
+ * compared over time.
+ *
+ * The table sizes to benchmark come from the "pets.benchmark.sizes" system property, and the
+ * results are written to the directory in "pets.benchmark.dir". Both are set by
+ * app/build.gradle, see its testOptions.
+ */
+final class BenchmarkResults {
+
+    /** Table sizes benchmarked when the system property is not set */
+    private static final String DEFAULT_SIZES = "1000";
+
+    /** Name of the suite, which is also the name of its results file */
+    private final String mSuite;
+
+    private final JSONArray mResults = new JSONArray();
+
+    BenchmarkResults(String suite) {
+        mSuite = suite;
+    }
+
+    /**
+     * Returns the numbers of pets to run the benchmarks with.
+     */
+    static int[] getSizes() {
+        String[] sizeStrings = System.getProperty("pets.benchmark.sizes", DEFAULT_SIZES)
+                .split(",");
+        int[] sizes = new int[sizeStrings.length];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = Integer.parseInt(sizeStrings[i].trim());
+        }
+        return sizes;
+    }
+
+    /**
+     * Records the mean, median and 99th percentile of the given times, in nanoseconds.
+     */
+    void recordLatencies(String benchmark, int rows, long[] times) {
+        long total = 0;
+        for (long time : times) {
+            total += time;
+        }
+        Arrays.sort(times);
+        record(benchmark, rows, "mean", total / 1e3 / times.length, "us");
+        record(benchmark, rows, "p50", times[times.length / 2] / 1e3, "us");
+        record(benchmark, rows, "p99", times[times.length * 99 / 100] / 1e3, "us");
+    }
+
+    void record(String benchmark, int rows, String metric, double value, String unit) {
+        try {
+            mResults.put(new JSONObject()
+                    .put("benchmark", benchmark)
+                    .put("rows", rows)
+                    .put("metric", metric)
+                    .put("value", value)
+                    .put("unit", unit));
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("Invalid result for " + benchmark, e);
+        }
+        System.out.println(String.format(Locale.US, "%-22s %8d %-10s %12.1f %s",
+                benchmark, rows, metric, value, unit));
+    }
+
+    /**
+     * Writes the results, along with details of the JVM they were measured on, replacing
+     * the results of the suite's last run.
+     *
+     * @return the file the results were written to
+     */
+    File write() throws IOException {
+        File outputDir = new File(System.getProperty("pets.benchmark.dir", "benchmark-results"));
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new IOException("Cannot create " + outputDir);
+        }
+        File file = new File(outputDir, mSuite + ".json");
+
+        String json;
+        try {
+            json = new JSONObject()
+                    .put("suite", mSuite)
+                    .put("timestamp", System.currentTimeMillis())
+                    .put("jvm", System.getProperty("java.vm.name") + " "
+                            + System.getProperty("java.version"))
+                    .put("os", System.getProperty("os.name") + " "
+                            + System.getProperty("os.arch"))
+                    .put("results", mResults)
+                    .toString(2);
+        } catch (JSONException e) {
+            throw new IOException("Cannot encode results", e);
+        }
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(json);
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+}
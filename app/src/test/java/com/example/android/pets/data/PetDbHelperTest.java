@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the schema migrations in {@link PetDbHelper}, run on a populated database with the
+ * version 1 schema, as shipped before the schema had any migrations.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetDbHelperTest {
+
+    /** Names of the scratch databases being upgraded and created fresh */
+    private static final String DATABASE_NAME = "migration-test.db";
+    private static final String FRESH_DATABASE_NAME = "fresh-test.db";
+
+    /** Number of pets in the version 1 database */
+    private static final int ROWS = 1000;
+
+    private final PetFixtures mPets = new PetFixtures();
+
+    private Context mContext;
+
+    /** Every row of the version 1 pets table, in _ID order */
+    private List<String> mRowsBefore;
+
+    private PetDbHelper mDbHelper;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mContext.deleteDatabase(DATABASE_NAME);
+        SQLiteDatabase v1 = mContext.openOrCreateDatabase(DATABASE_NAME, Context.MODE_PRIVATE,
+                null);
+        try {
+            v1.execSQL("CREATE TABLE " + PetEntry.TABLE_NAME + " ("
+                    + PetEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + PetEntry.COLUMN_PET_NAME + " TEXT NOT NULL, "
+                    + PetEntry.COLUMN_PET_BREED + " TEXT, "
+                    + PetEntry.COLUMN_PET_GENDER + " INTEGER NOT NULL, "
+                    + PetEntry.COLUMN_PET_WEIGHT + " INTEGER NOT NULL DEFAULT 0);");
+            mPets.insertPets(v1, ROWS);
+            v1.setVersion(1);
+            mRowsBefore = readRows(v1);
+        } finally {
+            v1.close();
+        }
+        mDbHelper = new PetDbHelper(mContext, DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mContext.deleteDatabase(FRESH_DATABASE_NAME);
+    }
+
+    @Test
+    public void upgrade_reachesLatestVersion() {
+        PetDbHelper fresh = new PetDbHelper(mContext, FRESH_DATABASE_NAME);
+        try {
+            assertEquals(fresh.getReadableDatabase().getVersion(),
+                    mDbHelper.getReadableDatabase().getVersion());
+        } finally {
+            fresh.close();
+        }
+    }
+
+    @Test
+    public void upgrade_keepsEveryPet() {
+        assertEquals(mRowsBefore, readRows(mDbHelper.getReadableDatabase()));
+    }
+
+    @Test
+    public void upgrade_leavesPetsListed() {
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        assertEquals(ROWS, DatabaseUtils.queryNumEntries(db, PetEntry.TABLE_NAME,
+                PetProvider.excludeDeleted(null)));
+    }
+
+    @Test
+    public void upgrade_usesIndexesForLookups() {
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        assertUsesIndex(db, "pets_name_index",
+                PetEntry.COLUMN_PET_NAME + " = ? COLLATE NOCASE", "Belcha");
+        assertUsesIndex(db, "pets_breed_index",
+                PetEntry.COLUMN_PET_BREED + " = ?", "Terrier");
+        assertUsesIndex(db, "pets_gender_weight_index",
+                PetEntry.COLUMN_PET_GENDER + " = ? AND " + PetEntry.COLUMN_PET_WEIGHT
+                        + " BETWEEN ? AND ?", "1", "10", "20");
+    }
+
+    @Test
+    public void upgrade_fillsSearchTable() {
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        assertEquals(ROWS, DatabaseUtils.queryNumEntries(db, PetDbHelper.FTS_TABLE_NAME));
+        String[] args = { PetSearch.toMatchExpression("Belcha", PetEntry.COLUMN_PET_NAME) };
+        assertEquals(PetFixtures.count(db, PetEntry.COLUMN_PET_NAME + " = ?",
+                new String[] { "Belcha" }), PetFixtures.count(db, PetSearch.SELECTION, args));
+    }
+
+    @Test
+    public void upgrade_fillsSummaryCounts() {
+        assertEquals(ROWS, new PetStats(mDbHelper).getPetCount());
+    }
+
+    /**
+     * Asserts that a lookup of pets with the given selection is planned with the index.
+     */
+    private static void assertUsesIndex(SQLiteDatabase db, String index, String selection,
+            String... selectionArgs) {
+        String sql = "SELECT " + PetEntry._ID + " FROM " + PetEntry.TABLE_NAME + " WHERE "
+                + selection;
+        List<String> plan = PetDatabase.explainQueryPlan(db, sql, selectionArgs);
+        boolean usesIndex = false;
+        for (String step : plan) {
+            usesIndex |= step.contains(index);
+        }
+        assertTrue(sql + " is planned as " + plan, usesIndex);
+    }
+
+    /**
+     * Returns every row of the columns in the version 1 pets table, in _ID order.
+     */
+    private static List<String> readRows(SQLiteDatabase db) {
+        List<String> rows = new ArrayList<>();
+        Cursor cursor = db.query(PetEntry.TABLE_NAME, PetFixtures.CATALOG_PROJECTION, null,
+                null, null, null, PetEntry._ID);
+        try {
+            while (cursor.moveToNext()) {
+                rows.add(cursor.getLong(0) + "|" + cursor.getString(1) + "|"
+                        + cursor.getString(2) + "|" + cursor.getInt(3) + "|" + cursor.getInt(4));
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+}
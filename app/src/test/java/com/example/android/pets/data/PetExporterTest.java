@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Tests that {@link PetExporter} writes exactly the pets that are not deleted, in every format.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetExporterTest {
+
+    /** Name of the scratch database the tests run against */
+    private static final String DATABASE_NAME = "export-test.db";
+
+    /** Number of generated pets, enough for the export to read several chunks */
+    private static final int ROWS = 2500;
+
+    /** One in this many pets is marked as deleted */
+    private static final int DELETED_EVERY = 20;
+
+    /** Names that CSV has to quote, and one outside ASCII */
+    private static final String[] TRICKY_NAMES = {
+            "Rex, Jr.", "\"Boots\"", "Line\nbreak", "Carriage\r\nreturn", "Élodie" };
+
+    private final PetFixtures mPets = new PetFixtures();
+
+    private Context mContext;
+
+    private PetDbHelper mDbHelper;
+
+    private PetExporter mExporter;
+
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mContext.deleteDatabase(DATABASE_NAME);
+        mDbHelper = new PetDbHelper(mContext, DATABASE_NAME);
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        mPets.insertPets(db, ROWS);
+        for (String name : TRICKY_NAMES) {
+            ContentValues values = new ContentValues();
+            values.put(PetEntry.COLUMN_PET_NAME, name);
+            values.put(PetEntry.COLUMN_PET_BREED, name);
+            values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_UNKNOWN);
+            db.insert(PetEntry.TABLE_NAME, null, values);
+        }
+        db.execSQL("UPDATE " + PetEntry.TABLE_NAME + " SET " + PetDbHelper.COLUMN_DELETED
+                + " = 1 WHERE " + PetEntry._ID + " % " + DELETED_EVERY + " = 0");
+
+        mExporter = new PetExporter(mDbHelper);
+        mFile = new File(mContext.getCacheDir(), "export-test");
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mFile.delete();
+    }
+
+    @Test
+    public void exportCsv_holdsListedPets() throws IOException {
+        assertCsvHoldsListedPets(false);
+    }
+
+    @Test
+    public void exportCsvGzip_holdsListedPets() throws IOException {
+        assertCsvHoldsListedPets(true);
+    }
+
+    @Test
+    public void exportJson_holdsListedPets() throws IOException {
+        assertJsonHoldsListedPets(false);
+    }
+
+    @Test
+    public void exportJsonGzip_holdsListedPets() throws IOException {
+        assertJsonHoldsListedPets(true);
+    }
+
+    @Test
+    public void export_replacesEarlierFile() throws IOException {
+        mExporter.export(mFile, PetExporter.Format.CSV, false);
+        assertJsonHoldsListedPets(false);
+        assertFalse(new File(mFile.getPath() + ".tmp").exists());
+    }
+
+    private void assertCsvHoldsListedPets(boolean gzip) throws IOException {
+        PetExporter.Result result = mExporter.export(mFile, PetExporter.Format.CSV, gzip);
+        List<List<String>> expected = readListedPets();
+        assertEquals(expected.size(), result.rowsExported);
+        assertEquals(mFile.length(), result.bytesWritten);
+
+        List<List<String>> records = readCsv(open(gzip));
+        assertEquals(Arrays.asList(PetExporter.PROJECTION), records.remove(0));
+        for (List<String> pet : expected) {
+            // CSV has no null, so a pet without a breed is written as an empty field
+            if (pet.get(2) == null) {
+                pet.set(2, "");
+            }
+        }
+        assertEquals(expected, records);
+    }
+
+    private void assertJsonHoldsListedPets(boolean gzip) throws IOException {
+        PetExporter.Result result = mExporter.export(mFile, PetExporter.Format.JSON, gzip);
+        List<List<String>> expected = readListedPets();
+        assertEquals(expected.size(), result.rowsExported);
+        assertEquals(expected, readJson(open(gzip)));
+    }
+
+    private Reader open(boolean gzip) throws IOException {
+        InputStream in = new FileInputStream(mFile);
+        if (gzip) {
+            in = new GZIPInputStream(in);
+        }
+        return new InputStreamReader(in, "UTF-8");
+    }
+
+    /**
+     * Returns the exported columns of every pet that is not deleted, in _ID order.
+     */
+    private List<List<String>> readListedPets() {
+        List<List<String>> pets = new ArrayList<>();
+        Cursor cursor = mDbHelper.getReadableDatabase().query(PetEntry.TABLE_NAME,
+                PetExporter.PROJECTION, PetProvider.excludeDeleted(null), null, null, null,
+                PetEntry._ID);
+        try {
+            while (cursor.moveToNext()) {
+                List<String> pet = new ArrayList<>();
+                for (int i = 0; i < cursor.getColumnCount(); i++) {
+                    pet.add(cursor.getString(i));
+                }
+                pets.add(pet);
+            }
+        } finally {
+            cursor.close();
+        }
+        return pets;
+    }
+
+    /**
+     * Reads a JSON array of pets, with the values of each in {@link PetExporter#PROJECTION}
+     * order.
+     */
+    private static List<List<String>> readJson(Reader in) throws IOException {
+        List<List<String>> pets = new ArrayList<>();
+        JsonReader reader = new JsonReader(in);
+        try {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                List<String> pet = new ArrayList<>();
+                reader.beginObject();
+                for (String column : PetExporter.PROJECTION) {
+                    assertEquals(column, reader.nextName());
+                    if (reader.peek() == JsonToken.NULL) {
+                        reader.nextNull();
+                        pet.add(null);
+                    } else {
+                        pet.add(reader.nextString());
+                    }
+                }
+                reader.endObject();
+                pets.add(pet);
+            }
+            reader.endArray();
+            assertEquals(JsonToken.END_DOCUMENT, reader.peek());
+        } finally {
+            reader.close();
+        }
+        return pets;
+    }
+
+    /**
+     * Reads CSV records, where a quoted field may hold commas, line breaks and doubled quotes.
+     */
+    private static List<List<String>> readCsv(Reader in) throws IOException {
+        List<List<String>> records = new ArrayList<>();
+        try {
+            List<String> record = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            int c;
+            while ((c = in.read()) != -1) {
+                if (quoted) {
+                    if (c != '"') {
+                        field.append((char) c);
+                    } else if ((c = in.read()) == '"') {
+                        field.append('"');
+                    } else {
+                        quoted = false;
+                    }
+                }
+                if (quoted || c == -1) {
+                    continue;
+                }
+                if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    record.add(field.toString());
+                    field.setLength(0);
+                } else if (c == '\n') {
+                    record.add(field.toString());
+                    field.setLength(0);
+                    records.add(record);
+                    record = new ArrayList<>();
+                } else {
+                    field.append((char) c);
+                }
+            }
+            assertEquals("Text after the last line break", 0, field.length() + record.size());
+        } finally {
+            in.close();
+        }
+        return records;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates pets for the JVM tests and benchmarks. The generator is seeded, so every run uses
+ * the same pets.
+ */
+final class PetFixtures {
+
+    /** Columns read by the catalog */
+    static final String[] CATALOG_PROJECTION = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT };
+
+    /** Generated names are two of these joined together, e.g. "Belcha" */
+    static final String[] NAME_PARTS = {
+            "Bel", "Cha", "Dai", "Fid", "Gin", "Hon", "Iggy", "Jas", "Kob", "Lu", "Mol", "Nal",
+            "Oll", "Pep", "Qui", "Ros", "Sam", "Tot", "Uma", "Vin", "Wal", "Xen", "Yog", "Zig" };
+
+    /** Breeds of the generated pets. About 1 in 10 pets has no breed. */
+    static final String[] BREEDS = {
+            "Terrier", "Labrador", "Beagle", "Poodle", "Boxer", "Collie", "Dachshund", "Husky",
+            "Pug", "Greyhound", "Siamese", "Persian", "Maine Coon", "Bengal", "Sphynx", "Ragdoll",
+            "Tabby", "Mixed", null, null };
+
+    /** Rows inserted in each transaction by {@link #insertPets(SQLiteDatabase, int)} */
+    private static final int CHUNK_SIZE = 1000;
+
+    private final Random mRandom = new Random(42);
+
+    String randomName() {
+        return NAME_PARTS[mRandom.nextInt(NAME_PARTS.length)]
+                + NAME_PARTS[mRandom.nextInt(NAME_PARTS.length)].toLowerCase(Locale.US);
+    }
+
+    /**
+     * Returns a random breed, or null for a pet without one.
+     */
+    String randomBreed() {
+        return BREEDS[mRandom.nextInt(BREEDS.length)];
+    }
+
+    int randomGender() {
+        return mRandom.nextInt(3);
+    }
+
+    int randomWeight() {
+        return 1 + mRandom.nextInt(60);
+    }
+
+    int nextInt(int bound) {
+        return mRandom.nextInt(bound);
+    }
+
+    /**
+     * Inserts generated pets with a compiled statement in chunked transactions, as a large
+     * import does.
+     */
+    void insertPets(SQLiteDatabase db, int rows) {
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + PetEntry.TABLE_NAME + " ("
+                + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ", "
+                + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT
+                + ") VALUES (?, ?, ?, ?)");
+        try {
+            int inserted = 0;
+            while (inserted < rows) {
+                db.beginTransaction();
+                try {
+                    int end = Math.min(rows, inserted + CHUNK_SIZE);
+                    for (; inserted < end; inserted++) {
+                        insert.clearBindings();
+                        insert.bindString(1, randomName());
+                        String breed = randomBreed();
+                        if (breed == null) {
+                            insert.bindNull(2);
+                        } else {
+                            insert.bindString(2, breed);
+                        }
+                        insert.bindLong(3, randomGender());
+                        insert.bindLong(4, randomWeight());
+                        insert.executeInsert();
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        } finally {
+            insert.close();
+        }
+    }
+
+    /**
+     * Reads every row matching the selection in the catalog projection, and returns how many
+     * there were.
+     */
+    static int count(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        Cursor cursor = db.query(PetEntry.TABLE_NAME, CATALOG_PROJECTION, selection,
+                selectionArgs, null, null, null);
+        try {
+            int count = 0;
+            while (cursor.moveToNext()) {
+                count++;
+            }
+            return count;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+
+/**
+ * JVM benchmarks of writing pets, at each of the table sizes from {@link BenchmarkResults}:
+ *
+ * - batch_insert: rows inserted per second while seeding the table in chunked transactions
+ * - single_insert: latency of one insert in its own transaction, as the editor does, once the
+ *   table holds that many pets
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetInsertBenchmark {
+
+    /** Name of the scratch database the benchmarks run against */
+    private static final String DATABASE_NAME = "insert-benchmark.db";
+
+    /** Number of times the single insert is repeated */
+    private static final int ITERATIONS = 200;
+
+    private final BenchmarkResults mResults = new BenchmarkResults("insert");
+
+    private final PetFixtures mPets = new PetFixtures();
+
+    @Test
+    public void insert() throws IOException {
+        Context context = RuntimeEnvironment.application;
+        for (int size : BenchmarkResults.getSizes()) {
+            context.deleteDatabase(DATABASE_NAME);
+            PetDbHelper dbHelper = new PetDbHelper(context, DATABASE_NAME);
+            try {
+                SQLiteDatabase db = dbHelper.getWritableDatabase();
+                benchmarkBatchInsert(db, size);
+                benchmarkSingleInsert(db, size);
+            } finally {
+                dbHelper.close();
+                context.deleteDatabase(DATABASE_NAME);
+            }
+        }
+        mResults.write();
+    }
+
+    private void benchmarkBatchInsert(SQLiteDatabase db, int rows) {
+        long start = System.nanoTime();
+        mPets.insertPets(db, rows);
+        long elapsed = System.nanoTime() - start;
+        mResults.record("batch_insert", rows, "throughput", rows * 1e9 / elapsed, "rows/s");
+    }
+
+    private void benchmarkSingleInsert(SQLiteDatabase db, int rows) {
+        long[] times = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            ContentValues values = new ContentValues();
+            values.put(PetEntry.COLUMN_PET_NAME, mPets.randomName());
+            values.put(PetEntry.COLUMN_PET_BREED, mPets.randomBreed());
+            values.put(PetEntry.COLUMN_PET_GENDER, mPets.randomGender());
+            values.put(PetEntry.COLUMN_PET_WEIGHT, mPets.randomWeight());
+            db.insert(PetEntry.TABLE_NAME, null, values);
+            times[i] = System.nanoTime() - start;
+        }
+        mResults.recordLatencies("single_insert", rows, times);
+    }
+}
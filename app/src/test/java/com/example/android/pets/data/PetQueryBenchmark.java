@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * JVM benchmarks of reading pets, at each of the table sizes from {@link BenchmarkResults}:
+ *
+ * - full_scan: reading every column of every row in the catalog projection
+ * - name_lookup, breed_lookup, gender_weight_lookup: queries that use the indexes
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetQueryBenchmark {
+
+    /** Name of the scratch database the benchmarks run against */
+    private static final String DATABASE_NAME = "query-benchmark.db";
+
+    /** Number of times each lookup is repeated */
+    private static final int ITERATIONS = 200;
+
+    /** Number of times the full scan is repeated */
+    private static final int SCAN_ITERATIONS = 3;
+
+    private final BenchmarkResults mResults = new BenchmarkResults("query");
+
+    private final PetFixtures mPets = new PetFixtures();
+
+    @Test
+    public void query() throws IOException {
+        Context context = RuntimeEnvironment.application;
+        for (int size : BenchmarkResults.getSizes()) {
+            context.deleteDatabase(DATABASE_NAME);
+            PetDbHelper dbHelper = new PetDbHelper(context, DATABASE_NAME);
+            try {
+                SQLiteDatabase db = dbHelper.getWritableDatabase();
+                mPets.insertPets(db, size);
+                benchmarkFullScan(db, size);
+                benchmarkNameLookup(db, size);
+                benchmarkBreedLookup(db, size);
+                benchmarkGenderWeightLookup(db, size);
+            } finally {
+                dbHelper.close();
+                context.deleteDatabase(DATABASE_NAME);
+            }
+        }
+        mResults.write();
+    }
+
+    private void benchmarkFullScan(SQLiteDatabase db, int rows) {
+        long[] times = new long[SCAN_ITERATIONS];
+        long checksum = 0;
+        for (int i = 0; i < SCAN_ITERATIONS; i++) {
+            long start = System.nanoTime();
+            Cursor cursor = db.query(PetEntry.TABLE_NAME, PetFixtures.CATALOG_PROJECTION,
+                    null, null, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    checksum += cursor.getLong(0);
+                    String name = cursor.getString(1);
+                    String breed = cursor.getString(2);
+                    checksum += cursor.getInt(3) + cursor.getInt(4);
+                    checksum += name.length() + (breed == null ? 0 : breed.length());
+                }
+            } finally {
+                cursor.close();
+            }
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        // The checksum keeps the reads from being optimised away
+        mResults.record("full_scan", rows, "median", times[times.length / 2] / 1e6,
+                "ms (checksum " + checksum + ")");
+    }
+
+    private void benchmarkNameLookup(SQLiteDatabase db, int rows) {
+        long[] times = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            String[] args = { mPets.randomName() };
+            long start = System.nanoTime();
+            PetFixtures.count(db, PetEntry.COLUMN_PET_NAME + " = ? COLLATE NOCASE", args);
+            times[i] = System.nanoTime() - start;
+        }
+        mResults.recordLatencies("name_lookup", rows, times);
+    }
+
+    private void benchmarkBreedLookup(SQLiteDatabase db, int rows) {
+        long[] times = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            String[] args = { PetFixtures.BREEDS[mPets.nextInt(PetFixtures.BREEDS.length - 2)] };
+            long start = System.nanoTime();
+            PetFixtures.count(db, PetEntry.COLUMN_PET_BREED + " = ?", args);
+            times[i] = System.nanoTime() - start;
+        }
+        mResults.recordLatencies("breed_lookup", rows, times);
+    }
+
+    private void benchmarkGenderWeightLookup(SQLiteDatabase db, int rows) {
+        long[] times = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            int minWeight = 1 + mPets.nextInt(55);
+            String[] args = {
+                    String.valueOf(mPets.randomGender()),
+                    String.valueOf(minWeight),
+                    String.valueOf(minWeight + 5) };
+            long start = System.nanoTime();
+            PetFixtures.count(db, PetEntry.COLUMN_PET_GENDER + " = ? AND "
+                    + PetEntry.COLUMN_PET_WEIGHT + " BETWEEN ? AND ?", args);
+            times[i] = System.nanoTime() - start;
+        }
+        mResults.recordLatencies("gender_weight_lookup", rows, times);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+
+/**
+ * JVM benchmarks of searching for pets, at each of the table sizes from
+ * {@link BenchmarkResults}:
+ *
+ * - search: full-text prefix searches on name and breed, as the catalog's search box makes
+ * - search_like: the same searches as LIKE scans of the names and breeds, for comparison
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetSearchBenchmark {
+
+    /** Name of the scratch database the benchmarks run against */
+    private static final String DATABASE_NAME = "search-benchmark.db";
+
+    /** Number of times each search is repeated */
+    private static final int ITERATIONS = 200;
+
+    private final BenchmarkResults mResults = new BenchmarkResults("search");
+
+    private final PetFixtures mPets = new PetFixtures();
+
+    @Test
+    public void search() throws IOException {
+        Context context = RuntimeEnvironment.application;
+        for (int size : BenchmarkResults.getSizes()) {
+            context.deleteDatabase(DATABASE_NAME);
+            PetDbHelper dbHelper = new PetDbHelper(context, DATABASE_NAME);
+            try {
+                SQLiteDatabase db = dbHelper.getWritableDatabase();
+                mPets.insertPets(db, size);
+                benchmarkSearch(db, size);
+            } finally {
+                dbHelper.close();
+                context.deleteDatabase(DATABASE_NAME);
+            }
+        }
+        mResults.write();
+    }
+
+    private void benchmarkSearch(SQLiteDatabase db, int rows) {
+        long[] times = new long[ITERATIONS];
+        long[] likeTimes = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            // Search on the first few letters of a name
+            String text = PetFixtures.NAME_PARTS[mPets.nextInt(PetFixtures.NAME_PARTS.length)]
+                    .substring(0, 2);
+            String[] args = { PetSearch.toMatchExpression(text, null) };
+            long start = System.nanoTime();
+            PetFixtures.count(db, PetSearch.SELECTION, args);
+            times[i] = System.nanoTime() - start;
+
+            String[] likeArgs = { "%" + text + "%", "%" + text + "%" };
+            start = System.nanoTime();
+            PetFixtures.count(db, PetEntry.COLUMN_PET_NAME + " LIKE ? OR "
+                    + PetEntry.COLUMN_PET_BREED + " LIKE ?", likeArgs);
+            likeTimes[i] = System.nanoTime() - start;
+        }
+        mResults.recordLatencies("search", rows, times);
+        mResults.recordLatencies("search_like", rows, likeTimes);
+    }
+}
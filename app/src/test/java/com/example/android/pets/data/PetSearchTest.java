@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests of {@link PetSearch} against the search table kept by {@link PetDbHelper}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetSearchTest {
+
+    /** Name of the scratch database the tests run against */
+    private static final String DATABASE_NAME = "search-test.db";
+
+    /** Number of generated pets in the database */
+    private static final int ROWS = 1000;
+
+    /** Names with capitals outside ASCII, which the simple tokenizer does not fold */
+    private static final String[] NON_ASCII_NAMES = { "Élodie", "Ömer", "Øystein", "Ærwyn" };
+
+    private final PetFixtures mPets = new PetFixtures();
+
+    private Context mContext;
+
+    private PetDbHelper mDbHelper;
+
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mContext.deleteDatabase(DATABASE_NAME);
+        mDbHelper = new PetDbHelper(mContext, DATABASE_NAME);
+        mDb = mDbHelper.getWritableDatabase();
+        mPets.insertPets(mDb, ROWS);
+        for (String name : NON_ASCII_NAMES) {
+            ContentValues values = new ContentValues();
+            values.put(PetEntry.COLUMN_PET_NAME, name);
+            values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_UNKNOWN);
+            mDb.insert(PetEntry.TABLE_NAME, null, values);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void nameSearch_findsSamePetsAsLike() {
+        List<String> prefixes = new ArrayList<>();
+        for (String part : PetFixtures.NAME_PARTS) {
+            prefixes.add(part.substring(0, 2));
+            prefixes.add(part.substring(0, 2).toLowerCase(Locale.US));
+        }
+        for (String name : NON_ASCII_NAMES) {
+            // As typed, and with the capital lower cased by the user
+            prefixes.add(name.substring(0, 2));
+            prefixes.add(name.substring(0, 2).toLowerCase(Locale.ROOT));
+            prefixes.add(name);
+        }
+
+        // Every name is a single word, so a prefix search of the names and a LIKE on the names
+        // must find the same pets
+        for (String prefix : prefixes) {
+            String[] matchArgs = {
+                    PetSearch.toMatchExpression(prefix, PetEntry.COLUMN_PET_NAME) };
+            String[] likeArgs = { prefix + "%" };
+            assertEquals("Pets found by searching for " + prefix,
+                    PetFixtures.count(mDb, PetEntry.COLUMN_PET_NAME + " LIKE ?", likeArgs),
+                    PetFixtures.count(mDb, PetSearch.SELECTION, matchArgs));
+        }
+    }
+
+    @Test
+    public void search_findsNonAsciiNameAsTyped() {
+        for (String name : NON_ASCII_NAMES) {
+            String[] args = { PetSearch.toMatchExpression(name.substring(0, 2), null) };
+            assertEquals("Pets found by searching for " + name,
+                    1, PetFixtures.count(mDb, PetSearch.SELECTION, args));
+        }
+    }
+
+    @Test
+    public void search_matchesAnyWordOfBreed() {
+        String[] args = { PetSearch.toMatchExpression("coo", null) };
+        assertEquals(PetFixtures.count(mDb, PetEntry.COLUMN_PET_BREED + " = ?",
+                new String[] { "Maine Coon" }), PetFixtures.count(mDb, PetSearch.SELECTION, args));
+    }
+
+    @Test
+    public void search_followsRenames() {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, "Quokka");
+        mDb.update(PetEntry.TABLE_NAME, values, PetEntry._ID + " = 1", null);
+
+        String[] args = { PetSearch.toMatchExpression("quok", PetEntry.COLUMN_PET_NAME) };
+        assertEquals(1, PetFixtures.count(mDb, PetSearch.SELECTION, args));
+    }
+
+    @Test
+    public void toMatchExpression_makesPrefixOfEveryWord() {
+        assertEquals("bel* cha*", PetSearch.toMatchExpression("Bel cha", null));
+        assertEquals("name:bel* name:cha*",
+                PetSearch.toMatchExpression("Bel cha", PetEntry.COLUMN_PET_NAME));
+    }
+
+    @Test
+    public void toMatchExpression_neverContainsQuerySyntax() {
+        assertEquals("bel* or* not* near*", PetSearch.toMatchExpression("BEL OR NOT NEAR", null));
+        assertEquals("a* b* c*", PetSearch.toMatchExpression("\"a\" -b* (c)", null));
+    }
+
+    @Test
+    public void toMatchExpression_keepsNonAsciiCapitals() {
+        assertEquals("Élo*", PetSearch.toMatchExpression("Élo", null));
+        assertEquals("élo*", PetSearch.toMatchExpression("élo", null));
+    }
+
+    @Test
+    public void toMatchExpression_isNullWithoutWords() {
+        assertNull(PetSearch.toMatchExpression("", null));
+        assertNull(PetSearch.toMatchExpression(" -*\" ", null));
+    }
+
+    @Test
+    public void toMatchExpression_splitsOnAnythingButLettersAndDigits() {
+        assertEquals("o* malley* 2nd*", PetSearch.toMatchExpression("O'Malley 2nd", null));
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.SparseIntArray;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that the counts {@link PetStats} reads for the provider, the catalog header and the
+ * breed filter leave deleted pets out. Pets are deleted one at a time through {@link PetDao},
+ * and in bulk with a selection, as the provider does, then a deleted pet is edited. Every
+ * count is compared with counting the listed pets in the table, after the deletes and again
+ * after the deleted rows are removed with {@link PetCompactor}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetStatsTest {
+
+    /** Name of the scratch database the tests run against */
+    private static final String DATABASE_NAME = "stats-test.db";
+
+    /** Number of generated pets */
+    private static final int ROWS = 5000;
+
+    /** One in this many pets is deleted on its own */
+    private static final int DELETED_EVERY = 7;
+
+    private final PetFixtures mPets = new PetFixtures();
+
+    private Context mContext;
+
+    private PetDbHelper mDbHelper;
+
+    private SQLiteDatabase mDb;
+
+    private PetStats mStats;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mContext.deleteDatabase(DATABASE_NAME);
+        mDbHelper = new PetDbHelper(mContext, DATABASE_NAME);
+        mDb = mDbHelper.getWritableDatabase();
+        mPets.insertPets(mDb, ROWS);
+
+        PetDao dao = mDbHelper.getDao();
+        for (long id = 1; id <= ROWS; id += DELETED_EVERY) {
+            dao.delete(id);
+        }
+        ContentValues values = new ContentValues(1);
+        values.put(PetDbHelper.COLUMN_DELETED, 1);
+        mDb.update(PetEntry.TABLE_NAME, values, PetProvider.excludeDeleted(
+                PetEntry.COLUMN_PET_GENDER + " = ? AND " + PetEntry.COLUMN_PET_WEIGHT + " < ?"),
+                new String[] { String.valueOf(PetEntry.GENDER_MALE), "10" });
+
+        // Pet 1 was deleted above, and editing it must not count it again
+        values.clear();
+        values.put(PetEntry.COLUMN_PET_BREED, PetFixtures.BREEDS[0]);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 1);
+        mDb.update(PetEntry.TABLE_NAME, values, PetEntry._ID + " = 1", null);
+
+        mStats = new PetStats(mDbHelper);
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void counts_excludeDeletedPets() {
+        assertCountsMatchListedPets();
+    }
+
+    @Test
+    public void counts_excludeDeletedPetsAfterCompacting() {
+        new PetCompactor(mDbHelper, null /* photoStore */).compact();
+        assertCountsMatchListedPets();
+    }
+
+    @Test
+    public void counts_followRestoredPets() {
+        ContentValues values = new ContentValues(1);
+        values.put(PetDbHelper.COLUMN_DELETED, 0);
+        mDb.update(PetEntry.TABLE_NAME, values, PetEntry._ID + " <= 100", null);
+        assertCountsMatchListedPets();
+    }
+
+    private void assertCountsMatchListedPets() {
+        assertEquals(PetFixtures.count(mDb, PetProvider.excludeDeleted(null), null),
+                mStats.getPetCount());
+
+        Map<String, Integer> byGender = new HashMap<>();
+        int[] genderCounts = mStats.getCountsByGender();
+        for (int gender = 0; gender < genderCounts.length; gender++) {
+            putCount(byGender, String.valueOf(gender), genderCounts[gender]);
+        }
+        assertEquals(countListed(PetEntry.COLUMN_PET_GENDER), byGender);
+
+        Map<String, Integer> byBreed = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : mStats.getCountsByBreed().entrySet()) {
+            putCount(byBreed, entry.getKey(), entry.getValue());
+        }
+        assertEquals(countListed("IFNULL(" + PetEntry.COLUMN_PET_BREED + ", '')"), byBreed);
+
+        Map<String, Integer> byWeight = new HashMap<>();
+        SparseIntArray histogram = mStats.getWeightHistogram();
+        for (int i = 0; i < histogram.size(); i++) {
+            putCount(byWeight, String.valueOf(histogram.keyAt(i)), histogram.valueAt(i));
+        }
+        assertEquals(countListed(PetEntry.COLUMN_PET_WEIGHT + " / " + PetStats.WEIGHT_BUCKET_SIZE
+                + " * " + PetStats.WEIGHT_BUCKET_SIZE), byWeight);
+    }
+
+    /**
+     * Counts the pets that are not deleted in each group of the given expression.
+     */
+    private Map<String, Integer> countListed(String group) {
+        Map<String, Integer> counts = new HashMap<>();
+        Cursor cursor = mDb.rawQuery("SELECT " + group + ", COUNT(*) FROM "
+                + PetEntry.TABLE_NAME + " WHERE " + PetProvider.excludeDeleted(null)
+                + " GROUP BY 1", null);
+        try {
+            while (cursor.moveToNext()) {
+                putCount(counts, cursor.getString(0), cursor.getInt(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return counts;
+    }
+
+    /**
+     * Adds a group's count to the map, leaving out empty groups, which the summary tables
+     * may keep.
+     */
+    private static void putCount(Map<String, Integer> counts, String group, int count) {
+        if (count != 0) {
+            counts.put(group, count);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests of {@link PetValidator}. Runs on Robolectric for TextUtils and ContentValues.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetValidatorTest {
+
+    @Test
+    public void parseWeight_readsWholeNumbers() {
+        assertEquals(0, PetValidator.parseWeight("0"));
+        assertEquals(12, PetValidator.parseWeight("12"));
+        assertEquals(Integer.MAX_VALUE, PetValidator.parseWeight("2147483647"));
+    }
+
+    @Test
+    public void parseWeight_treatsBlankAsZero() {
+        assertEquals(0, PetValidator.parseWeight(""));
+        assertEquals(0, PetValidator.parseWeight("   "));
+    }
+
+    @Test
+    public void parseWeight_ignoresSurroundingWhitespace() {
+        assertEquals(12, PetValidator.parseWeight(" 12 "));
+        assertEquals(12, PetValidator.parseWeight("\t12\n"));
+    }
+
+    @Test
+    public void parseWeight_rejectsWhitespaceBetweenDigits() {
+        assertEquals(-1, PetValidator.parseWeight("1 2"));
+    }
+
+    @Test
+    public void parseWeight_rejectsOverflow() {
+        assertEquals(-1, PetValidator.parseWeight("2147483648"));
+        assertEquals(-1, PetValidator.parseWeight("99999999999999999999"));
+    }
+
+    @Test
+    public void parseWeight_rejectsSignsFractionsAndText() {
+        assertEquals(-1, PetValidator.parseWeight("-1"));
+        assertEquals(-1, PetValidator.parseWeight("+1"));
+        assertEquals(-1, PetValidator.parseWeight("2.5"));
+        assertEquals(-1, PetValidator.parseWeight("2,5"));
+        assertEquals(-1, PetValidator.parseWeight("12kg"));
+        assertEquals(-1, PetValidator.parseWeight("abc"));
+    }
+
+    @Test
+    public void parseWeight_readsNonAsciiDigits() {
+        // Keyboards in some locales type these, and they are still whole numbers
+        assertEquals(12, PetValidator.parseWeight("١٢"));
+        assertEquals(12, PetValidator.parseWeight("１２"));
+    }
+
+    @Test
+    public void check_acceptsValidPet() {
+        assertNull(PetValidator.check("Toto", PetEntry.GENDER_MALE, 7));
+        assertNull(PetValidator.check("Toto", PetEntry.GENDER_UNKNOWN, 0));
+    }
+
+    @Test
+    public void check_requiresName() {
+        assertEquals(PetValidator.Error.NAME_REQUIRED,
+                PetValidator.check(null, PetEntry.GENDER_MALE, 7));
+        assertEquals(PetValidator.Error.NAME_REQUIRED,
+                PetValidator.check("  ", PetEntry.GENDER_MALE, 7));
+    }
+
+    @Test
+    public void check_rejectsInvalidGender() {
+        assertEquals(PetValidator.Error.GENDER_INVALID, PetValidator.check("Toto", -1, 7));
+        assertEquals(PetValidator.Error.GENDER_INVALID, PetValidator.check("Toto", 3, 7));
+    }
+
+    @Test
+    public void check_rejectsNegativeWeight() {
+        assertEquals(PetValidator.Error.WEIGHT_NEGATIVE,
+                PetValidator.check("Toto", PetEntry.GENDER_MALE, -1));
+    }
+
+    @Test
+    public void checkValues_acceptsNewPet() {
+        assertNull(PetValidator.check(newPet(), false));
+    }
+
+    @Test
+    public void checkValues_acceptsNewPetWithoutWeight() {
+        ContentValues values = newPet();
+        values.remove(PetEntry.COLUMN_PET_WEIGHT);
+        assertNull(PetValidator.check(values, false));
+    }
+
+    @Test
+    public void checkValues_requiresNameAndGenderOfNewPet() {
+        ContentValues values = newPet();
+        values.remove(PetEntry.COLUMN_PET_NAME);
+        assertEquals(PetValidator.Error.NAME_REQUIRED, PetValidator.check(values, false));
+
+        values = newPet();
+        values.remove(PetEntry.COLUMN_PET_GENDER);
+        assertEquals(PetValidator.Error.GENDER_INVALID, PetValidator.check(values, false));
+    }
+
+    @Test
+    public void checkValues_onlyChecksAttributesBeingUpdated() {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 9);
+        assertNull(PetValidator.check(values, true));
+
+        values.put(PetEntry.COLUMN_PET_NAME, " ");
+        assertEquals(PetValidator.Error.NAME_REQUIRED, PetValidator.check(values, true));
+    }
+
+    @Test
+    public void checkValues_rejectsInvalidGender() {
+        ContentValues values = newPet();
+        values.put(PetEntry.COLUMN_PET_GENDER, 3);
+        assertEquals(PetValidator.Error.GENDER_INVALID, PetValidator.check(values, false));
+
+        values.put(PetEntry.COLUMN_PET_GENDER, -1);
+        assertEquals(PetValidator.Error.GENDER_INVALID, PetValidator.check(values, true));
+
+        values.put(PetEntry.COLUMN_PET_GENDER, "male");
+        assertEquals(PetValidator.Error.GENDER_INVALID, PetValidator.check(values, true));
+
+        values.putNull(PetEntry.COLUMN_PET_GENDER);
+        assertEquals(PetValidator.Error.GENDER_INVALID, PetValidator.check(values, true));
+    }
+
+    @Test
+    public void checkValues_acceptsWholeNumberWeights() {
+        ContentValues values = newPet();
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 12L);
+        assertNull(PetValidator.check(values, false));
+
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 12.0);
+        assertNull(PetValidator.check(values, false));
+
+        values.put(PetEntry.COLUMN_PET_WEIGHT, " 12 ");
+        assertNull(PetValidator.check(values, false));
+    }
+
+    @Test
+    public void checkValues_rejectsNullWeight() {
+        ContentValues values = newPet();
+        values.putNull(PetEntry.COLUMN_PET_WEIGHT);
+        assertEquals(PetValidator.Error.WEIGHT_NOT_A_NUMBER, PetValidator.check(values, false));
+        assertEquals(PetValidator.Error.WEIGHT_NOT_A_NUMBER, PetValidator.check(values, true));
+    }
+
+    @Test
+    public void checkValues_rejectsFractionalWeight() {
+        ContentValues values = newPet();
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 2.5);
+        assertEquals(PetValidator.Error.WEIGHT_NOT_A_NUMBER, PetValidator.check(values, false));
+
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 2.5f);
+        assertEquals(PetValidator.Error.WEIGHT_NOT_A_NUMBER, PetValidator.check(values, false));
+
+        values.put(PetEntry.COLUMN_PET_WEIGHT, "2.5");
+        assertEquals(PetValidator.Error.WEIGHT_NOT_A_NUMBER, PetValidator.check(values, false));
+
+        values.put(PetEntry.COLUMN_PET_WEIGHT, Double.NaN);
+        assertEquals(PetValidator.Error.WEIGHT_NOT_A_NUMBER, PetValidator.check(values, false));
+    }
+
+    @Test
+    public void checkValues_rejectsWeightOutOfRange() {
+        ContentValues values = newPet();
+        values.put(PetEntry.COLUMN_PET_WEIGHT, Integer.MAX_VALUE + 1L);
+        assertEquals(PetValidator.Error.WEIGHT_NOT_A_NUMBER, PetValidator.check(values, false));
+
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 1e10);
+        assertEquals(PetValidator.Error.WEIGHT_NOT_A_NUMBER, PetValidator.check(values, false));
+
+        values.put(PetEntry.COLUMN_PET_WEIGHT, -1);
+        assertEquals(PetValidator.Error.WEIGHT_NEGATIVE, PetValidator.check(values, false));
+    }
+
+    @Test
+    public void checkValues_rejectsWeightThatIsNotANumber() {
+        ContentValues values = newPet();
+        values.put(PetEntry.COLUMN_PET_WEIGHT, "heavy");
+        assertEquals(PetValidator.Error.WEIGHT_NOT_A_NUMBER, PetValidator.check(values, false));
+
+        values.put(PetEntry.COLUMN_PET_WEIGHT, new byte[] { 1 });
+        assertEquals(PetValidator.Error.WEIGHT_NOT_A_NUMBER, PetValidator.check(values, false));
+    }
+
+    @Test
+    public void builder_buildsTrimmedValues() {
+        ContentValues values = new PetValidator.Builder()
+                .setName(" Toto ")
+                .setBreed("  ")
+                .setGender(PetEntry.GENDER_FEMALE)
+                .setWeight(" 7 ")
+                .build();
+        assertEquals("Toto", values.getAsString(PetEntry.COLUMN_PET_NAME));
+        assertNull(values.getAsString(PetEntry.COLUMN_PET_BREED));
+        assertEquals(PetEntry.GENDER_FEMALE,
+                (int) values.getAsInteger(PetEntry.COLUMN_PET_GENDER));
+        assertEquals(7, (int) values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT));
+    }
+
+    @Test
+    public void builder_getError_isNullForValidPet() {
+        assertNull(new PetValidator.Builder().setName("Toto").setWeight("").getError());
+    }
+
+    @Test
+    public void builder_getError_reportsFirstProblem() {
+        assertEquals(PetValidator.Error.NAME_REQUIRED, new PetValidator.Builder()
+                .setWeight("3")
+                .getError());
+        assertEquals(PetValidator.Error.GENDER_INVALID, new PetValidator.Builder()
+                .setName("Toto")
+                .setGender(5)
+                .getError());
+
+        // A weight that cannot be parsed is reported even before a missing name
+        assertEquals(PetValidator.Error.WEIGHT_NOT_A_NUMBER, new PetValidator.Builder()
+                .setWeight("2.5")
+                .getError());
+        assertEquals(PetValidator.Error.WEIGHT_NOT_A_NUMBER, new PetValidator.Builder()
+                .setName("Toto")
+                .setWeight("99999999999")
+                .setWeight("3")
+                .getError());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void builder_build_rejectsInvalidPet() {
+        new PetValidator.Builder().setName("Toto").setWeight("x").build();
+    }
+
+    /**
+     * Returns the values of a valid new pet.
+     */
+    private static ContentValues newPet() {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, "Toto");
+        values.put(PetEntry.COLUMN_PET_BREED, "Terrier");
+        values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_MALE);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 7);
+        return values;
+    }
+}
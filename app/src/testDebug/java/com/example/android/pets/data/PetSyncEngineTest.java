@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that two devices syncing with {@link PetSyncEngine} through a {@link PetSyncServer}
+ * end up with the same pets. Lives in the debug tests, as the server is only in debug builds.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetSyncEngineTest {
+
+    /** Names of the scratch databases of the two devices syncing */
+    private static final String DATABASE_A = "sync-test-a.db";
+    private static final String DATABASE_B = "sync-test-b.db";
+
+    /** Number of pets on the first device to start with, more than one batch of changes */
+    private static final int ROWS = 1000;
+
+    /** Number of pets changed on both devices between syncs */
+    private static final int CHANGED = 10;
+
+    private final PetFixtures mPets = new PetFixtures();
+
+    private Context mContext;
+
+    private PetSyncServer mServer;
+
+    private PetDbHelper mDeviceA;
+    private PetDbHelper mDeviceB;
+
+    private PetSyncEngine mSyncA;
+    private PetSyncEngine mSyncB;
+
+    @Before
+    public void setUp() throws IOException {
+        mContext = RuntimeEnvironment.application;
+        mContext.deleteDatabase(DATABASE_A);
+        mContext.deleteDatabase(DATABASE_B);
+        mDeviceA = new PetDbHelper(mContext, DATABASE_A);
+        mDeviceB = new PetDbHelper(mContext, DATABASE_B);
+        mServer = new PetSyncServer();
+        mSyncA = new PetSyncEngine(mContext, mDeviceA, mServer.getUrl());
+        mSyncB = new PetSyncEngine(mContext, mDeviceB, mServer.getUrl());
+        // Keep the retries, without waiting seconds for them
+        mSyncA.setInitialBackoffMillis(10);
+        mSyncB.setInitialBackoffMillis(10);
+
+        mPets.insertPets(mDeviceA.getWritableDatabase(), ROWS);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.close();
+        mDeviceA.close();
+        mDeviceB.close();
+        mContext.deleteDatabase(DATABASE_A);
+        mContext.deleteDatabase(DATABASE_B);
+    }
+
+    @Test
+    public void sync_copiesEveryPetToOtherDevice() throws IOException {
+        assertEquals(ROWS, mSyncA.sync().changesSent);
+        assertEquals(ROWS, mSyncB.sync().changesReceived);
+        assertSamePets();
+    }
+
+    @Test
+    public void sync_convergesAfterConflictingChanges() throws IOException {
+        mSyncA.sync();
+        mSyncB.sync();
+
+        changePets(mDeviceA.getWritableDatabase(), 1);
+        changePets(mDeviceB.getWritableDatabase(), 2);
+        mServer.failNextRequests(2);
+        mSyncA.sync();
+        assertEquals(CHANGED, mSyncB.sync().conflicts);
+        mSyncA.sync();
+        assertSamePets();
+    }
+
+    @Test
+    public void sync_carriesDeletes() throws IOException {
+        mSyncA.sync();
+        mSyncB.sync();
+
+        PetDao dao = mDeviceA.getDao();
+        for (long id = 1; id <= ROWS; id += 7) {
+            dao.delete(id);
+        }
+        mSyncA.sync();
+        mSyncB.sync();
+        assertSamePets();
+    }
+
+    @Test
+    public void sync_carriesNewPetsBothWays() throws IOException {
+        mSyncA.sync();
+        mPets.insertPets(mDeviceB.getWritableDatabase(), 50);
+        mSyncB.sync();
+        assertEquals(50, mSyncA.sync().changesReceived);
+        assertSamePets();
+    }
+
+    private void assertSamePets() {
+        List<String> pets = readPets(mDeviceA.getReadableDatabase());
+        assertEquals(pets, readPets(mDeviceB.getReadableDatabase()));
+    }
+
+    /**
+     * Adds to the weight of the first pets in sync ID order, which are the same pets on every
+     * device.
+     */
+    private static void changePets(SQLiteDatabase db, int extraWeight) {
+        db.execSQL("UPDATE " + PetEntry.TABLE_NAME + " SET " + PetEntry.COLUMN_PET_WEIGHT
+                + " = " + PetEntry.COLUMN_PET_WEIGHT + " + " + extraWeight + " WHERE "
+                + PetDbHelper.COLUMN_SYNC_ID + " IN (SELECT " + PetDbHelper.COLUMN_SYNC_ID
+                + " FROM " + PetEntry.TABLE_NAME + " ORDER BY " + PetDbHelper.COLUMN_SYNC_ID
+                + " LIMIT " + CHANGED + ")");
+    }
+
+    /**
+     * Returns the synced attributes of every pet that has not been deleted, in sync ID order.
+     */
+    private static List<String> readPets(SQLiteDatabase db) {
+        List<String> pets = new ArrayList<>();
+        Cursor cursor = db.query(PetEntry.TABLE_NAME, new String[] {
+                        PetDbHelper.COLUMN_SYNC_ID,
+                        PetEntry.COLUMN_PET_NAME,
+                        PetEntry.COLUMN_PET_BREED,
+                        PetEntry.COLUMN_PET_GENDER,
+                        PetEntry.COLUMN_PET_WEIGHT },
+                PetDbHelper.SELECTION_NOT_DELETED, null, null, null,
+                PetDbHelper.COLUMN_SYNC_ID);
+        try {
+            while (cursor.moveToNext()) {
+                pets.add(cursor.getString(0) + "|" + cursor.getString(1) + "|"
+                        + cursor.getString(2) + "|" + cursor.getInt(3) + "|" + cursor.getInt(4));
+            }
+        } finally {
+            cursor.close();
+        }
+        return pets;
+    }
+}